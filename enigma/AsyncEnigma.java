@@ -0,0 +1,341 @@
+package enigma;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static enigma.EnigmaException.*;
+
+/** An asynchronous front to the machines of one configuration, for callers
+ *  that must not block a thread per message or per stream.
+ *
+ *  convertAsync converts one message under its own setting line and
+ *  completes a future with the result.  Requests are queued, and a few
+ *  drain tasks on the executor (no more than its parallelism) each convert
+ *  a batch of them on machines leased from a MachinePool, so a flood of
+ *  small messages costs a few executor tasks rather than one each.  Given
+ *  a KeystreamCache, they look their conversions up in it instead.
+ *
+ *  processor() returns a Flow.Processor for one stream of lines: setting
+ *  lines (starting with '*') set its machine up, and every other item is a
+ *  chunk of message, converted in turn and passed on.  It asks upstream
+ *  for no more chunks than downstream has asked for, and converts on the
+ *  thread that delivers them, so backpressure reaches the source and no
+ *  thread waits.
+ *  @author Jerry
+ */
+class AsyncEnigma {
+
+    /** Converters of the machine configured by CONFIGLINES, running at
+     *  most PARALLELISM conversions at once on EXECUTOR. */
+    AsyncEnigma(ArrayList<String> configLines, int parallelism,
+                Executor executor) {
+        _configLines = new ArrayList<>(configLines);
+        _pool = new MachinePool(configLines, parallelism);
+        _parallelism = parallelism;
+        _executor = executor;
+        _queue = new ConcurrentLinkedQueue<>();
+        _drainers = new AtomicInteger();
+    }
+
+    /** Returns a future of the conversion of MESSAGE, text in UTF-8 from
+     *  its position to its limit, by a machine set up by the setting line
+     *  SETTING.  The result is also UTF-8.  MESSAGE must not change until
+     *  the future completes. */
+    CompletableFuture<ByteBuffer> convertAsync(String setting,
+                                               ByteBuffer message) {
+        Request request = new Request(setting, message.duplicate());
+        _queue.add(request);
+        for (int n = _drainers.get(); n < _parallelism;
+             n = _drainers.get()) {
+            if (_drainers.compareAndSet(n, n + 1)) {
+                _executor.execute(this::drain);
+                break;
+            }
+        }
+        return request.result;
+    }
+
+    /** Convert later requests from the keystreams in CACHE, or on
+     *  leased machines if it is null.  Worth it when many requests share
+     *  a few setting lines, whose keystreams are then built once. */
+    void setKeystreamCache(KeystreamCache cache) {
+        _keystreams = cache;
+    }
+
+    /** Returns a new processor of one stream of setting lines and message
+     *  chunks, as described above. */
+    Flow.Processor<String, String> processor() {
+        return new Processor(Machine.makeAMachine(_configLines));
+    }
+
+    /** Convert queued requests, up to a batch, then leave; or go on in a
+     *  new task if there are more. */
+    private void drain() {
+        for (int k = 0; k < BATCH; k++) {
+            Request request = _queue.poll();
+            if (request == null) {
+                _drainers.decrementAndGet();
+                if (_queue.isEmpty() || !rejoin()) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                request.result.complete(StandardCharsets.UTF_8.encode(
+                        convert(request)));
+            } catch (RuntimeException excp) {
+                request.result.completeExceptionally(excp);
+            }
+        }
+        _executor.execute(this::drain);
+    }
+
+    /** Returns the conversion of REQUEST, on a leased machine or from the
+     *  keystream cache. */
+    private String convert(Request request) {
+        String text = StandardCharsets.UTF_8.decode(request.message)
+            .toString();
+        KeystreamCache cache = _keystreams;
+        if (cache != null) {
+            return cache.keystream(_configLines, request.setting)
+                .convert(0, text);
+        }
+        try (MachinePool.Lease lease = _pool.acquire(request.setting)) {
+            return lease.machine().convert(text);
+        }
+    }
+
+    /** Count myself a drainer again, if there is room, and return true iff
+     *  I did; otherwise requests queued just now have a drainer. */
+    private boolean rejoin() {
+        for (int n = _drainers.get(); n < _parallelism;
+             n = _drainers.get()) {
+            if (_drainers.compareAndSet(n, n + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** A message waiting to be converted. */
+    private static final class Request {
+
+        /** A request to convert MESSAGE under SETTING. */
+        Request(String setting, ByteBuffer message) {
+            this.setting = setting;
+            this.message = message;
+            this.result = new CompletableFuture<>();
+        }
+
+        /** The setting line. */
+        final String setting;
+
+        /** The message, in UTF-8. */
+        final ByteBuffer message;
+
+        /** The conversion, when done. */
+        final CompletableFuture<ByteBuffer> result;
+    }
+
+    /** A processor of one stream, on its own MACHINE.  Each chunk in gives
+     *  at most one out, so demand from downstream is passed upstream as it
+     *  is, plus one for each setting line, which gives nothing out. */
+    private static final class Processor
+        implements Flow.Processor<String, String>, Flow.Subscription {
+
+        /** A processor converting with MACHINE. */
+        Processor(Machine machine) {
+            _machine = machine;
+        }
+
+        @Override
+        public synchronized void subscribe(
+                Flow.Subscriber<? super String> subscriber) {
+            if (_downstream != null) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IllegalStateException(
+                        "a processor has only one subscriber"));
+                return;
+            }
+            _downstream = subscriber;
+            subscriber.onSubscribe(this);
+            if (_terminal != null) {
+                signalTerminal();
+            }
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            long pending;
+            synchronized (this) {
+                if (_upstream != null || _cancelled) {
+                    subscription.cancel();
+                    return;
+                }
+                _upstream = subscription;
+                pending = _pending;
+                _pending = 0;
+            }
+            if (pending > 0) {
+                subscription.request(pending);
+            }
+        }
+
+        @Override
+        public void onNext(String item) {
+            String line = item.trim();
+            if (line.startsWith("*")) {
+                try {
+                    _machine.setupMachine(line);
+                    _ready = true;
+                } catch (EnigmaException excp) {
+                    fail(excp);
+                    return;
+                }
+                _upstream.request(1);
+                return;
+            }
+            if (!_ready) {
+                fail(error("message chunk before any setting line"));
+                return;
+            }
+            String result;
+            try {
+                result = _machine.convert(item);
+            } catch (EnigmaException excp) {
+                fail(excp);
+                return;
+            }
+            _downstream.onNext(result);
+        }
+
+        @Override
+        public synchronized void onError(Throwable throwable) {
+            _terminal = throwable;
+            if (_downstream != null) {
+                signalTerminal();
+            }
+        }
+
+        @Override
+        public synchronized void onComplete() {
+            _terminal = COMPLETE;
+            if (_downstream != null) {
+                signalTerminal();
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("request of " + n));
+                return;
+            }
+            Flow.Subscription upstream;
+            synchronized (this) {
+                upstream = _upstream;
+                if (upstream == null) {
+                    _pending = Math.min(Long.MAX_VALUE - n, _pending) + n;
+                    return;
+                }
+            }
+            upstream.request(n);
+        }
+
+        @Override
+        public void cancel() {
+            Flow.Subscription upstream;
+            synchronized (this) {
+                _cancelled = true;
+                upstream = _upstream;
+            }
+            if (upstream != null) {
+                upstream.cancel();
+            }
+        }
+
+        /** Stop, telling downstream of the error EXCP. */
+        private void fail(Throwable excp) {
+            cancel();
+            onError(excp);
+        }
+
+        /** Pass the end of the stream on to downstream, once. */
+        private void signalTerminal() {
+            if (_signalled) {
+                return;
+            }
+            _signalled = true;
+            if (_terminal == COMPLETE) {
+                _downstream.onComplete();
+            } else {
+                _downstream.onError(_terminal);
+            }
+        }
+
+        /** Marks a normal end in _terminal. */
+        private static final Throwable COMPLETE = new Throwable("complete");
+
+        /** The machine of the stream. */
+        private final Machine _machine;
+
+        /** True once the machine is set up. */
+        private boolean _ready;
+
+        /** The source of lines, once subscribed. */
+        private Flow.Subscription _upstream;
+
+        /** The receiver of conversions, once subscribed. */
+        private Flow.Subscriber<? super String> _downstream;
+
+        /** Demand from downstream before upstream subscribed. */
+        private long _pending;
+
+        /** True once downstream cancelled. */
+        private boolean _cancelled;
+
+        /** How the stream ended, or null while it runs. */
+        private Throwable _terminal;
+
+        /** True once the end was passed on. */
+        private boolean _signalled;
+    }
+
+    /** Requests a drain task converts before yielding its thread. */
+    private static final int BATCH = 64;
+
+    /** Configuration of the machines. */
+    private final ArrayList<String> _configLines;
+
+    /** Machines of the drain tasks. */
+    private final MachinePool _pool;
+
+    /** Most drain tasks at once. */
+    private final int _parallelism;
+
+    /** Runs the drain tasks. */
+    private final Executor _executor;
+
+    /** Requests not yet converted. */
+    private final ConcurrentLinkedQueue<Request> _queue;
+
+    /** Drain tasks running or scheduled. */
+    private final AtomicInteger _drainers;
+
+    /** Keystreams to convert from, or null to use the pool. */
+    private volatile KeystreamCache _keystreams;
+}
@@ -0,0 +1,105 @@
+package enigma;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the AsyncEnigma class.
+ *  @author Jerry
+ */
+public class AsyncEnigmaTest {
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkAsync() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        AsyncEnigma async = new AsyncEnigma(NAVALDEFAULT, 2, executor);
+        String setting = "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+        List<CompletableFuture<ByteBuffer>> futures = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            futures.add(async.convertAsync(setting,
+                    ByteBuffer.wrap(("HELLO WORLD " + i).getBytes())));
+        }
+        Machine machine = Machine.makeAMachine(NAVALDEFAULT);
+        machine.setupMachine(setting);
+        String expected = machine.convert("HELLO WORLD");
+        for (CompletableFuture<ByteBuffer> f : futures) {
+            assertEquals(expected,
+                    StandardCharsets.UTF_8.decode(f.get()).toString());
+        }
+        try {
+            async.convertAsync("* B Beta III IV Zeta AXLE",
+                    ByteBuffer.wrap("HELLO".getBytes())).join();
+            fail("converted under a missing rotor");
+        } catch (CompletionException excp) {
+            assertTrue(excp.getCause() instanceof EnigmaException);
+        }
+
+        SubmissionPublisher<String> source =
+            new SubmissionPublisher<>(executor, 4);
+        Flow.Processor<String, String> processor = async.processor();
+        source.subscribe(processor);
+        StringBuilder got = new StringBuilder();
+        CountDownLatch done = new CountDownLatch(1);
+        processor.subscribe(new Flow.Subscriber<>() {
+            private Flow.Subscription _subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                _subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(String item) {
+                got.append(item).append('/');
+                _subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                got.append(throwable);
+                done.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                done.countDown();
+            }
+        });
+        machine.setupMachine(setting);
+        StringBuilder want = new StringBuilder();
+        source.submit(setting);
+        for (int i = 0; i < 50; i++) {
+            source.submit("HELLO WORLD");
+            want.append(machine.convert("HELLO WORLD")).append('/');
+        }
+        source.submit("* C Gamma VI VII VIII ZZYM BDFB");
+        source.submit("THE CAMERA");
+        machine.setupMachine("* C Gamma VI VII VIII ZZYM BDFB");
+        want.append(machine.convert("THE CAMERA")).append('/');
+        source.close();
+        done.await();
+        executor.shutdown();
+        assertEquals(want.toString(), got.toString());
+    }
+}
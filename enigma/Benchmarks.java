@@ -0,0 +1,359 @@
+package enigma;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.regex.Pattern;
+
+import static enigma.EnigmaException.*;
+
+/** Microbenchmarks of the cipher hot paths, in the manner of JMH: each
+ *  benchmark is warmed up, then run for several timed iterations, and its
+ *  time and heap allocation per operation are reported with the spread
+ *  across iterations.  Results of every operation are folded into a sink,
+ *  so the JIT cannot drop the work.  Benchmarks run for every combination
+ *  of alphabet size, rotor count and message length given.
+ *
+ *  Usage: java enigma.Benchmarks [-size N,...] [-rotors N,...]
+ *             [-length N,...] [-filter REGEX] [-warmup MS] [-time MS]
+ *             [-iterations N] [-csv FILE]
+ *  @author Jerry
+ */
+final class Benchmarks {
+
+    /** An operation to measure. */
+    interface Op {
+        /** Run once and return a value depending on the work done. */
+        long run();
+    }
+
+    /** Run the benchmarks selected by ARGS, as described above. */
+    public static void main(String... args) {
+        try {
+            new Benchmarks(args).runAll();
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Benchmarks configured by the options ARGS. */
+    Benchmarks(String... args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("-size", "26,256");
+        options.put("-rotors", "5");
+        options.put("-length", "100,10000");
+        options.put("-filter", ".*");
+        options.put("-warmup", "500");
+        options.put("-time", "500");
+        options.put("-iterations", "5");
+        options.put("-csv", "");
+        for (int i = 0; i < args.length; i += 2) {
+            if (!options.containsKey(args[i]) || i + 1 == args.length) {
+                throw error("unknown option %s", args[i]);
+            }
+            options.put(args[i], args[i + 1]);
+        }
+        _sizes = ints(options.get("-size"));
+        _rotors = ints(options.get("-rotors"));
+        _lengths = ints(options.get("-length"));
+        _filter = Pattern.compile(options.get("-filter"));
+        _warmup = Long.parseLong(options.get("-warmup"));
+        _time = Long.parseLong(options.get("-time"));
+        _iterations = Integer.parseInt(options.get("-iterations"));
+        if (!options.get("-csv").isEmpty()) {
+            try {
+                _csv = new PrintStream(options.get("-csv"));
+            } catch (FileNotFoundException excp) {
+                throw error("could not open %s", options.get("-csv"));
+            }
+            _csv.println("benchmark,size,rotors,length,ns_per_op,error,"
+                    + "bytes_per_op");
+        }
+    }
+
+    /** Run every selected benchmark for every combination of parameters. */
+    void runAll() {
+        System.out.printf("%-28s %6s %6s %7s %14s %10s %12s%n", "Benchmark",
+                "size", "rotors", "length", "ns/op", "+-", "B/op");
+        for (int size : _sizes) {
+            for (int rotors : _rotors) {
+                for (int length : _lengths) {
+                    runParams(size, rotors, length);
+                }
+            }
+        }
+        _published = _sink;
+        if (_csv != null) {
+            _csv.close();
+        }
+    }
+
+    /** Run the benchmarks for an alphabet of SIZE, ROTORS rotor slots and
+     *  messages of LENGTH characters. */
+    private void runParams(int size, int rotors, int length) {
+        ArrayList<String> config = Workloads.config(size, rotors, rotors, 1);
+        String setting = Workloads.setting(size, rotors, size / 4, 2);
+        String message = Workloads.message(size, length, 3);
+        String configText = String.join("\n", config);
+
+        Machine machine = Machine.makeAMachine(config);
+        machine.setupMachine(setting);
+        Rotor rotor = machine.rotorAt(rotors - 1);
+        Permutation perm = rotor.permutation();
+        int[] symbols = new int[length];
+        for (int i = 0; i < length; i++) {
+            symbols[i] = machine.alphabet().toInt(message.charAt(i));
+        }
+
+        bench("Permutation.permute", size, rotors, length, () -> {
+            long s = 0;
+            for (int i = 0; i < size; i++) {
+                s += perm.permute(i);
+            }
+            return s;
+        }, size);
+        bench("Permutation.invert", size, rotors, length, () -> {
+            long s = 0;
+            for (int i = 0; i < size; i++) {
+                s += perm.invert(i);
+            }
+            return s;
+        }, size);
+        bench("Rotor.convertForward", size, rotors, length, () -> {
+            long s = 0;
+            for (int i = 0; i < size; i++) {
+                s += rotor.convertForward(i);
+            }
+            return s;
+        }, size);
+        bench("Rotor.convertBackward", size, rotors, length, () -> {
+            long s = 0;
+            for (int i = 0; i < size; i++) {
+                s += rotor.convertBackward(i);
+            }
+            return s;
+        }, size);
+        bench("Rotor.advance", size, rotors, length, () -> {
+            rotor.advance();
+            return rotor.setting();
+        }, 1);
+        bench("Machine.convert(int)", size, rotors, length, () -> {
+            long s = 0;
+            for (int c : symbols) {
+                s += machine.convert(c);
+            }
+            return s;
+        }, length);
+        TableEngine table = new TableEngine(machine);
+        bench("TableEngine.convert", size, rotors, length, () -> {
+            long s = 0;
+            for (int c : symbols) {
+                s += table.convert(c);
+            }
+            return s;
+        }, length);
+        TableEngine specialized = EngineCompiler.specialize(machine);
+        bench("SpecializedEngine.convert", size, rotors, length, () -> {
+            long s = 0;
+            for (int c : symbols) {
+                s += specialized.convert(c);
+            }
+            return s;
+        }, length);
+        int[][] batch = new int[LANES][];
+        TableEngine[] separate = new TableEngine[LANES];
+        for (int l = 0; l < LANES; l++) {
+            batch[l] = symbols.clone();
+            separate[l] = new TableEngine(machine);
+        }
+        LockstepEngine lockstep = new LockstepEngine(machine, LANES);
+        bench("LockstepEngine.convert", size, rotors, length, () -> {
+            lockstep.convert(batch);
+            return batch[0][0];
+        }, LANES * length);
+        LockstepEngine scalar = new LockstepEngine(machine, LANES, false);
+        bench("LockstepEngine scalar", size, rotors, length, () -> {
+            scalar.convert(batch);
+            return batch[0][0];
+        }, LANES * length);
+        bench("TableEngine.convert*lanes", size, rotors, length, () -> {
+            for (int l = 0; l < LANES; l++) {
+                separate[l].convert(batch[l], 0, length);
+            }
+            return batch[0][0];
+        }, LANES * length);
+        int[] plain = Arrays.copyOf(symbols, Math.min(length, CRIB));
+        int[] cipher = plain.clone();
+        TableEngine first = new TableEngine(table);
+        first.setPosition(0);
+        first.convert(cipher, 0, cipher.length);
+        KeySearch search = new KeySearch(text(plain, machine.alphabet()),
+                text(cipher, machine.alphabet()), machine.alphabet());
+        bench("KeySearch.search", size, rotors, length,
+            () -> search.search(table, 0, CANDIDATES).size(), CANDIDATES);
+        bench("KeySearch scalar", size, rotors, length,
+            () -> scalarSearch(table, plain, cipher), CANDIDATES);
+        bench("Machine.convert(String)", size, rotors, length,
+            () -> machine.convert(message).length(), 1);
+        bench("Machine.setupMachine", size, rotors, length, () -> {
+            machine.setupMachine(setting);
+            return machine.currentState().length();
+        }, 1);
+        bench("config parsing", size, rotors, length, () -> {
+            Machine m = Machine.makeAMachine(
+                    Main.readConfigLines(new Scanner(configText)));
+            return m.numRotors();
+        }, 1);
+    }
+
+    /** Measure OP as benchmark NAME with parameters SIZE, ROTORS and
+     *  LENGTH, counting each run of OP as OPS operations. */
+    void bench(String name, int size, int rotors, int length, Op op,
+               int ops) {
+        if (!_filter.matcher(name).matches()) {
+            return;
+        }
+        runFor(op, _warmup);
+        double[] nanos = new double[_iterations];
+        double bytes = 0;
+        for (int it = 0; it < _iterations; it++) {
+            long alloc0 = allocatedBytes();
+            long t0 = System.nanoTime();
+            long runs = runFor(op, _time);
+            long t1 = System.nanoTime();
+            long alloc1 = allocatedBytes();
+            nanos[it] = (double) (t1 - t0) / (runs * ops);
+            bytes += (double) (alloc1 - alloc0) / (runs * ops);
+        }
+        double mean = 0;
+        for (double n : nanos) {
+            mean += n / nanos.length;
+        }
+        double var = 0;
+        for (double n : nanos) {
+            var += (n - mean) * (n - mean) / Math.max(1, nanos.length - 1);
+        }
+        double err = Math.sqrt(var);
+        bytes /= _iterations;
+        System.out.printf("%-28s %6d %6d %7d %14.3f %10.3f %12.1f%n", name,
+                size, rotors, length, mean, err, bytes);
+        if (_csv != null) {
+            _csv.printf("%s,%d,%d,%d,%.3f,%.3f,%.1f%n", name, size, rotors,
+                    length, mean, err, bytes);
+        }
+    }
+
+    /** Run OP repeatedly for at least MILLIS milliseconds, and return how
+     *  many times it ran. */
+    private long runFor(Op op, long millis) {
+        long end = System.nanoTime() + millis * 1000000;
+        long runs = 0;
+        do {
+            for (int i = 0; i < BATCH; i++) {
+                _sink ^= op.run();
+            }
+            runs += BATCH;
+        } while (System.nanoTime() < end);
+        return runs;
+    }
+
+    /** Returns the number of the first CANDIDATES start positions of
+     *  BASE that convert the symbols PLAIN to CIPHER, trying one candidate
+     *  at a time on a single TableEngine.  This is the baseline KeySearch
+     *  is measured against. */
+    private static long scalarSearch(TableEngine base, int[] plain,
+                                     int[] cipher) {
+        TableEngine engine = new TableEngine(base);
+        long result = 0;
+        for (long p = 0; p < CANDIDATES; p++) {
+            engine.setPosition(p);
+            int t = 0;
+            while (t < plain.length && engine.convert(plain[t]) == cipher[t]) {
+                t++;
+            }
+            if (t == plain.length) {
+                result += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Returns the characters of ALPHABET at the indices SYMBOLS. */
+    private static String text(int[] symbols, Alphabet alphabet) {
+        StringBuilder result = new StringBuilder();
+        for (int c : symbols) {
+            result.append(alphabet.toChar(c));
+        }
+        return result.toString();
+    }
+
+    /** Returns the bytes allocated so far by this thread, or 0 if the JVM
+     *  cannot tell. */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean =
+            ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /** Returns the comma-separated integers in LIST. */
+    private static int[] ints(String list) {
+        String[] words = list.split(",");
+        int[] result = new int[words.length];
+        for (int i = 0; i < words.length; i++) {
+            result[i] = Integer.parseInt(words[i].trim());
+        }
+        return result;
+    }
+
+    /** Messages converted at once by the lockstep benchmarks. */
+    private static final int LANES = 8;
+
+    /** Letters of the crib of the key search benchmarks. */
+    private static final int CRIB = 20;
+
+    /** Start positions tried per key search. */
+    private static final int CANDIDATES = 1 << 16;
+
+    /** Runs of an operation between checks of the clock. */
+    private static final int BATCH = 16;
+
+    /** Alphabet sizes to run. */
+    private final int[] _sizes;
+
+    /** Rotor counts to run. */
+    private final int[] _rotors;
+
+    /** Message lengths to run. */
+    private final int[] _lengths;
+
+    /** Names of the benchmarks to run. */
+    private final Pattern _filter;
+
+    /** Warmup time per benchmark, in milliseconds. */
+    private final long _warmup;
+
+    /** Time per measured iteration, in milliseconds. */
+    private final long _time;
+
+    /** Number of measured iterations. */
+    private final int _iterations;
+
+    /** Where to write results as CSV, or null. */
+    private PrintStream _csv;
+
+    /** Sink of the results of every operation. */
+    private long _sink;
+
+    /** Where the sink ends up, so that it is observably used. */
+    static volatile long _published;
+}
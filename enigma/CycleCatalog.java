@@ -0,0 +1,577 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Scanner;
+import java.util.stream.IntStream;
+
+import static enigma.EnigmaException.*;
+
+/** A catalog of Rejewski characteristics.  For every rotor order and start
+ *  position of a configuration, the machine is stepped through a doubled
+ *  indicator of M letters, and the products e(j+M)e(j) of the substitutions
+ *  at steps j and j+M are reduced to their cycle lengths.  The cycle
+ *  structure does not depend on the plugboard, so the catalog is built with
+ *  none.  The signatures are stored as a sorted index of (key, setting)
+ *  records in a file that is memory-mapped for lookups.  Every order of a
+ *  naval machine makes some 300 million records, more than memory or one
+ *  mapping holds, so the records are sorted in runs that are merged into
+ *  the file, and the file is mapped in chunks.
+ *
+ *  Usage: java enigma.CycleCatalog build CONFIG INDEX [ORDER ...]
+ *         java enigma.CycleCatalog lookup INDEX SIGNATURE
+ *  where ORDER is a list of rotor names such as "B Beta I II III" and
+ *  SIGNATURE is as returned by signature(), e.g. "13 13|10 10 3 3|...".
+ *  @author Jerry
+ */
+final class CycleCatalog implements AutoCloseable {
+
+    /** Run the catalog tool as described above with arguments ARGS. */
+    public static void main(String... args) {
+        try {
+            if (args.length >= 3 && args[0].equals("build")) {
+                ArrayList<String> config;
+                try (Scanner scanner = new Scanner(new File(args[1]))) {
+                    config = Main.readConfigLines(scanner);
+                } catch (FileNotFoundException excp) {
+                    throw error("could not open %s", args[1]);
+                }
+                List<String> orders = new ArrayList<>();
+                for (int i = 3; i < args.length; i++) {
+                    orders.add(args[i]);
+                }
+                if (orders.isEmpty()) {
+                    orders = allOrders(config);
+                }
+                build(config, orders, DEFAULT_INDICATOR, new File(args[2]));
+            } else if (args.length == 3 && args[0].equals("lookup")) {
+                try (CycleCatalog catalog = new CycleCatalog(
+                        new File(args[1]))) {
+                    for (String setting : catalog.lookup(args[2])) {
+                        System.out.println(setting);
+                    }
+                }
+            } else {
+                throw error("usage: CycleCatalog build CONFIG INDEX [ORDER...]"
+                        + " | lookup INDEX SIGNATURE");
+            }
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Returns every legal rotor order of the machine configured by
+     *  CONFIGLINES: a reflector, then distinct non-moving rotors for the
+     *  slots without pawls, then distinct moving rotors for the slots
+     *  with pawls. */
+    static List<String> allOrders(ArrayList<String> configLines) {
+        Machine machine = Machine.makeAMachine(configLines);
+        ArrayList<String> reflectors = new ArrayList<>();
+        ArrayList<String> fixed = new ArrayList<>();
+        ArrayList<String> moving = new ArrayList<>();
+        for (int i = 2; i < configLines.size(); i++) {
+            Rotor rotor = Rotor.makeARotor(machine.alphabet(),
+                    configLines.get(i));
+            if (rotor.reflecting()) {
+                reflectors.add(rotor.name());
+            } else if (rotor.rotates()) {
+                moving.add(rotor.name());
+            } else {
+                fixed.add(rotor.name());
+            }
+        }
+        int numFixed = machine.numRotors() - 1 - machine.numPawls();
+        List<String> result = new ArrayList<>();
+        for (String reflector : reflectors) {
+            List<String> prefixes = new ArrayList<>();
+            arrangements(fixed, numFixed, reflector, new ArrayList<>(),
+                    prefixes);
+            for (String prefix : prefixes) {
+                arrangements(moving, machine.numPawls(), prefix,
+                        new ArrayList<>(), result);
+            }
+        }
+        return result;
+    }
+
+    /** Append to RESULT every arrangement of K distinct names from NAMES
+     *  (not already in USED) following PREFIX. */
+    private static void arrangements(List<String> names, int k, String prefix,
+                                     List<String> used, List<String> result) {
+        if (k == 0) {
+            result.add(prefix);
+            return;
+        }
+        for (String name : names) {
+            if (!used.contains(name)) {
+                used.add(name);
+                arrangements(names, k - 1, prefix + " " + name, used, result);
+                used.remove(used.size() - 1);
+            }
+        }
+    }
+
+    /** Build the catalog of the machine configured by CONFIGLINES for each
+     *  rotor order in ORDERS at every start position, with ring settings at
+     *  the first letter of the alphabet and indicators of INDICATOR letters,
+     *  and write it to FILE.  The orders are processed in parallel. */
+    static void build(ArrayList<String> configLines, List<String> orders,
+                      int indicator, File file) {
+        build(configLines, orders, indicator, file, RUN_RECORDS);
+    }
+
+    /** As build above, but holding at most RUNRECORDS records in memory:
+     *  the records are made and sorted a run of RUNRECORDS at a time,
+     *  each run is written to a file of its own next to FILE, and the
+     *  runs are merged into FILE. */
+    static void build(ArrayList<String> configLines, List<String> orders,
+                      int indicator, File file, int runRecords) {
+        Machine probe = Machine.makeAMachine(configLines);
+        int size = probe.alphabet().size();
+        int numPositions = probe.numRotors() - 1;
+        long perOrder = 1;
+        long total;
+        try {
+            for (int i = 0; i < numPositions; i++) {
+                perOrder = Math.multiplyExact(perOrder, size);
+            }
+            total = Math.multiplyExact(perOrder, orders.size());
+        } catch (ArithmeticException excp) {
+            throw error("catalog is too large to number");
+        }
+
+        int length = (int) Math.min(total, runRecords);
+        long[] keys = new long[length];
+        long[] settings = new long[length];
+        ThreadLocal<Machine> machines =
+            ThreadLocal.withInitial(() -> Machine.makeAMachine(configLines));
+        List<File> runs = new ArrayList<>();
+        try {
+            for (long start = 0; start < total; start += runRecords) {
+                int n = (int) Math.min(runRecords, total - start);
+                makeRun(machines, orders, perOrder, size, numPositions,
+                        indicator, start, n, keys, settings);
+                sort(keys, settings, 0, n - 1);
+                runs.add(writeRun(keys, settings, n, file));
+            }
+            merge(runs, configLines, orders, indicator, total, file);
+        } finally {
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+    }
+
+    /** Set KEYS[i] and SETTINGS[i], for i below N, to the key and number
+     *  of setting START + i, where each of ORDERS has PERORDER settings of
+     *  NUMPOSITIONS positions in an alphabet of SIZE, using the machines
+     *  of MACHINES and indicators of INDICATOR letters. */
+    private static void makeRun(ThreadLocal<Machine> machines,
+                                List<String> orders, long perOrder, int size,
+                                int numPositions, int indicator, long start,
+                                int n, long[] keys, long[] settings) {
+        int blocks = (n + BLOCK - 1) / BLOCK;
+        IntStream.range(0, blocks).parallel().forEach(b -> {
+            int first = b * BLOCK;
+            int last = Math.min(n, first + BLOCK);
+            int order = -1;
+            TableEngine engine = null;
+            for (int i = first; i < last; i++) {
+                long r = start + i;
+                if (r / perOrder != order) {
+                    order = (int) (r / perOrder);
+                    engine = engineFor(machines.get(), orders.get(order));
+                }
+                int[] posns = TableEngine.positionOf(r % perOrder, size,
+                        numPositions);
+                keys[i] = key(characteristic(engine, posns, indicator));
+                settings[i] = r;
+            }
+        });
+    }
+
+    /** Write the N sorted records of KEYS and SETTINGS to a new file next
+     *  to FILE, and return it. */
+    private static File writeRun(long[] keys, long[] settings, int n,
+                                 File file) {
+        File run = null;
+        try {
+            run = File.createTempFile(file.getName(), ".run",
+                    file.getAbsoluteFile().getParentFile());
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(run)))) {
+                for (int i = 0; i < n; i++) {
+                    out.writeLong(keys[i]);
+                    out.writeLong(settings[i]);
+                }
+            }
+            return run;
+        } catch (IOException excp) {
+            if (run != null) {
+                run.delete();
+            }
+            throw error("could not write a run of %s", file);
+        }
+    }
+
+    /** Write to FILE the catalog of CONFIGLINES, ORDERS and INDICATOR
+     *  whose TOTAL records are those of the sorted RUNS, merged. */
+    private static void merge(List<File> runs, ArrayList<String> configLines,
+                              List<String> orders, int indicator, long total,
+                              File file) {
+        List<DataInputStream> ins = new ArrayList<>();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(indicator);
+            out.writeInt(configLines.size());
+            for (String line : configLines) {
+                out.writeUTF(line);
+            }
+            out.writeInt(orders.size());
+            for (String order : orders) {
+                out.writeUTF(order);
+            }
+            out.writeLong(total);
+
+            /* heads of the runs, each {key, setting, run, records left} */
+            PriorityQueue<long[]> heads = new PriorityQueue<>((a, b) ->
+                a[0] != b[0] ? Long.compare(a[0], b[0])
+                : Long.compare(a[1], b[1]));
+            for (File run : runs) {
+                DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(new FileInputStream(run)));
+                ins.add(in);
+                long records = run.length() / RECORD_BYTES;
+                heads.add(new long[] {
+                    in.readLong(), in.readLong(), ins.size() - 1,
+                    records - 1 });
+            }
+            while (!heads.isEmpty()) {
+                long[] head = heads.poll();
+                out.writeLong(head[0]);
+                out.writeLong(head[1]);
+                if (head[3] > 0) {
+                    DataInputStream in = ins.get((int) head[2]);
+                    head[0] = in.readLong();
+                    head[1] = in.readLong();
+                    head[3] -= 1;
+                    heads.add(head);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", file);
+        } finally {
+            for (DataInputStream in : ins) {
+                try {
+                    in.close();
+                } catch (IOException excp) {
+                    /* only read from */
+                }
+            }
+        }
+    }
+
+    /** Open the catalog in FILE, mapping its records into memory. */
+    CycleCatalog(File file) {
+        this(file, CHUNK_RECORDS);
+    }
+
+    /** Open the catalog in FILE, mapping its records into memory
+     *  CHUNKRECORDS records at a time. */
+    CycleCatalog(File file, int chunkRecords) {
+        try (DataInputStream in = new DataInputStream(
+                new FileInputStream(file))) {
+            if (in.readInt() != MAGIC) {
+                throw error("%s is not a cycle catalog", file);
+            }
+            _indicator = in.readInt();
+            _configLines = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                _configLines.add(in.readUTF());
+            }
+            _orders = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                _orders.add(in.readUTF());
+            }
+            _numRecords = in.readLong();
+            long start = file.length() - _numRecords * RECORD_BYTES;
+
+            _file = new RandomAccessFile(file, "r");
+            _chunkRecords = chunkRecords;
+            _chunks = new MappedByteBuffer[(int) ((_numRecords
+                    + chunkRecords - 1) / chunkRecords)];
+            for (int c = 0; c < _chunks.length; c++) {
+                long first = (long) c * chunkRecords;
+                long n = Math.min(chunkRecords, _numRecords - first);
+                _chunks[c] = _file.getChannel().map(
+                        FileChannel.MapMode.READ_ONLY,
+                        start + first * RECORD_BYTES, n * RECORD_BYTES);
+            }
+        } catch (IOException excp) {
+            throw error("could not read %s", file);
+        }
+        _machine = Machine.makeAMachine(_configLines);
+        _size = _machine.alphabet().size();
+        _numPositions = _machine.numRotors() - 1;
+        _perOrder = _numRecords / Math.max(1, _orders.size());
+    }
+
+    /** Returns the number of settings in this catalog. */
+    long size() {
+        return _numRecords;
+    }
+
+    /** Returns the settings, each a rotor order followed by a start position
+     *  such as "B Beta I II III AQEV", whose characteristic is SIGNATURE. */
+    List<String> lookup(String signature) {
+        long key = key(signature);
+        long lo = 0, hi = _numRecords;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (keyAt(mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        List<String> result = new ArrayList<>();
+        for (long i = lo; i < _numRecords && keyAt(i) == key; i++) {
+            long setting = chunk(i).getLong(slot(i) + 8);
+            String order = _orders.get((int) (setting / _perOrder));
+            int[] posns = TableEngine.positionOf(setting % _perOrder, _size,
+                    _numPositions);
+            /* keys are hashes, so check the signature really matches */
+            if (characteristic(engineFor(_machine, order), posns, _indicator)
+                    .equals(signature)) {
+                StringBuilder name = new StringBuilder(order).append(' ');
+                for (int p : posns) {
+                    name.append(_machine.alphabet().toChar(p));
+                }
+                result.add(name.toString());
+            }
+        }
+        return result;
+    }
+
+    /** Release the mapping of this catalog. */
+    @Override
+    public void close() {
+        try {
+            _file.close();
+        } catch (IOException excp) {
+            throw error("could not close catalog");
+        }
+    }
+
+    /** Returns the signature observed in the doubled INDICATORS, each of
+     *  2M letters of ALPHABET enciphered at the start of a message.  The
+     *  indicators must be enough to determine every product completely. */
+    static String signature(Collection<String> indicators, Alphabet alphabet) {
+        int m = -1;
+        int[][] products = null;
+        for (String indicator : indicators) {
+            if (products == null) {
+                m = indicator.length() / 2;
+                products = new int[m][alphabet.size()];
+                for (int[] product : products) {
+                    java.util.Arrays.fill(product, -1);
+                }
+            }
+            if (indicator.length() != 2 * m) {
+                throw error("indicator %s is not %d letters", indicator,
+                        2 * m);
+            }
+            for (int j = 0; j < m; j++) {
+                products[j][alphabet.toInt(indicator.charAt(j))] =
+                    alphabet.toInt(indicator.charAt(j + m));
+            }
+        }
+        if (products == null) {
+            throw error("no indicators given");
+        }
+        for (int[] product : products) {
+            for (int v : product) {
+                if (v < 0) {
+                    throw error("not enough indicators for a characteristic");
+                }
+            }
+        }
+        return signature(products);
+    }
+
+    /** Returns the signature of the permutations PRODUCTS: the cycle lengths
+     *  of each, longest first, separated by spaces, and the products
+     *  separated by '|'. */
+    static String signature(int[][] products) {
+        StringBuilder result = new StringBuilder();
+        for (int j = 0; j < products.length; j++) {
+            if (j > 0) {
+                result.append('|');
+            }
+            int[] lengths = Permutation.cycleLengths(products[j]);
+            for (int i = 0; i < lengths.length; i++) {
+                if (i > 0) {
+                    result.append(' ');
+                }
+                result.append(lengths[i]);
+            }
+        }
+        return result.toString();
+    }
+
+    /** Returns the signature of ENGINE started at POSNS with indicators of
+     *  INDICATOR letters. */
+    private static String characteristic(TableEngine engine, int[] posns,
+                                         int indicator) {
+        engine.setPositions(posns);
+        int[][] steps = new int[2 * indicator][];
+        for (int k = 0; k < steps.length; k++) {
+            engine.step();
+            steps[k] = engine.substitution();
+        }
+        int[][] products = new int[indicator][engine.size()];
+        for (int j = 0; j < indicator; j++) {
+            for (int x = 0; x < engine.size(); x++) {
+                products[j][x] = steps[j + indicator][steps[j][x]];
+            }
+        }
+        return signature(products);
+    }
+
+    /** Returns an engine for MACHINE set up with rotor ORDER, no plugboard
+     *  and ring settings at the first letter of its alphabet. */
+    private static TableEngine engineFor(Machine machine, String order) {
+        machine.setupMachine("* " + order);
+        TableEngine engine = new TableEngine(machine);
+        engine.setRingPositions(new int[machine.numRotors() - 1]);
+        return engine;
+    }
+
+    /** Returns the 64-bit FNV-1a hash of SIGNATURE, used as the key of the
+     *  index. */
+    private static long key(String signature) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < signature.length(); i++) {
+            h ^= signature.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /** Returns the key of record I. */
+    private long keyAt(long i) {
+        return chunk(i).getLong(slot(i));
+    }
+
+    /** Returns the mapping holding record I. */
+    private MappedByteBuffer chunk(long i) {
+        return _chunks[(int) (i / _chunkRecords)];
+    }
+
+    /** Returns the offset of record I in its mapping. */
+    private int slot(long i) {
+        return (int) (i % _chunkRecords) * RECORD_BYTES;
+    }
+
+    /** Sort KEYS[LO..HI] and the parallel SETTINGS by key, then setting. */
+    private static void sort(long[] keys, long[] settings, int lo, int hi) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            long pk = keys[mid], ps = settings[mid];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (keys[i] < pk || (keys[i] == pk && settings[i] < ps)) {
+                    i++;
+                }
+                while (keys[j] > pk || (keys[j] == pk && settings[j] > ps)) {
+                    j--;
+                }
+                if (i <= j) {
+                    long t = keys[i];
+                    keys[i] = keys[j];
+                    keys[j] = t;
+                    t = settings[i];
+                    settings[i] = settings[j];
+                    settings[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            /* recurse into the smaller half to bound the stack */
+            if (j - lo < hi - i) {
+                sort(keys, settings, lo, j);
+                lo = i;
+            } else {
+                sort(keys, settings, i, hi);
+                hi = j;
+            }
+        }
+    }
+
+    /** Indicator length of the classic doubled three-letter indicator. */
+    static final int DEFAULT_INDICATOR = 3;
+
+    /** Settings computed by one parallel task. */
+    private static final int BLOCK = 4096;
+
+    /** Records sorted in memory at once while building: 64 MB of them. */
+    private static final int RUN_RECORDS = 1 << 22;
+
+    /** Records in one mapping: 1 GB of them. */
+    private static final int CHUNK_RECORDS = 1 << 26;
+
+    /** First word of a catalog file. */
+    private static final int MAGIC = 0x454e4343;
+
+    /** Bytes of one (key, setting) record. */
+    private static final int RECORD_BYTES = 16;
+
+    /** Indicator length of this catalog. */
+    private int _indicator;
+
+    /** Configuration this catalog was built from. */
+    private ArrayList<String> _configLines;
+
+    /** Rotor orders of this catalog. */
+    private ArrayList<String> _orders;
+
+    /** Number of records. */
+    private long _numRecords;
+
+    /** Settings per rotor order. */
+    private long _perOrder;
+
+    /** The open catalog file. */
+    private RandomAccessFile _file;
+
+    /** The mapped records, CHUNKRECORDS to a mapping. */
+    private MappedByteBuffer[] _chunks;
+
+    /** Records per mapping. */
+    private int _chunkRecords;
+
+    /** Machine used to verify candidates. */
+    private Machine _machine;
+
+    /** Alphabet size of the machine. */
+    private int _size;
+
+    /** Number of rotor positions in a setting. */
+    private int _numPositions;
+}
@@ -0,0 +1,85 @@
+package enigma;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the CycleCatalog class.
+ *  @author Jerry
+ */
+public class CycleCatalogTest {
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkCycleLengths() {
+        Permutation perm = new Permutation("(AELTPHQXRU) (BKNW) (CMOY) (DFG) "
+                + "(IV) (JZ) (S)", UPPER);
+        assertArrayEquals(new int[] {10, 4, 4, 3, 2, 2, 1},
+                perm.cycleLengths());
+    }
+
+    @Test
+    public void checkCatalogLookup() throws IOException {
+        List<String> orders = CycleCatalog.allOrders(SIMPLE);
+        assertEquals(Arrays.asList("B Beta I II III", "B Beta I III II",
+                "B Beta II I III", "B Beta II III I", "B Beta III I II",
+                "B Beta III II I"), orders);
+
+        File file = File.createTempFile("catalog", ".idx");
+        file.deleteOnExit();
+        CycleCatalog.build(SIMPLE, orders, 1, file);
+
+        Machine machine = Machine.makeAMachine(SIMPLE);
+        machine.setupMachine("* B Beta II I III ABCA AAAA (AC)");
+        ArrayList<String> indicators = new ArrayList<>();
+        for (char c = 'A'; c <= 'C'; c++) {
+            machine.setRotors("ABCA");
+            indicators.add(machine.convert("" + c + c));
+        }
+        String signature = CycleCatalog.signature(indicators,
+                machine.alphabet());
+        try (CycleCatalog catalog = new CycleCatalog(file)) {
+            assertEquals(6 * 81, catalog.size());
+            assertTrue("setting not found",
+                    catalog.lookup(signature).contains("B Beta II I III ABCA"));
+        }
+
+        File runs = File.createTempFile("catalog", ".idx");
+        runs.deleteOnExit();
+        CycleCatalog.build(SIMPLE, orders, 1, runs, 50);
+        assertArrayEquals(Files.readAllBytes(file.toPath()),
+                Files.readAllBytes(runs.toPath()));
+        try (CycleCatalog whole = new CycleCatalog(file);
+             CycleCatalog chunked = new CycleCatalog(runs, 64)) {
+            assertEquals(6 * 81, chunked.size());
+            for (String setting : new String[] {
+                    "ABCA", "AAAA", "CCCC", "BACB" }) {
+                machine.setupMachine("* B Beta III I II " + setting);
+                indicators.clear();
+                for (char c = 'A'; c <= 'C'; c++) {
+                    machine.setRotors(setting);
+                    indicators.add(machine.convert("" + c + c));
+                }
+                signature = CycleCatalog.signature(indicators,
+                        machine.alphabet());
+                List<String> found = chunked.lookup(signature);
+                assertTrue(found.contains("B Beta III I II " + setting));
+                assertEquals(whole.lookup(signature), found);
+            }
+        }
+    }
+}
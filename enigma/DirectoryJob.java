@@ -0,0 +1,212 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static enigma.EnigmaException.*;
+
+/** A run of Main over every file of a directory, writing each result to
+ *  the file of the same name in another directory, for the many small
+ *  files that would otherwise each pay for starting a JVM.  Files are
+ *  converted concurrently, one virtual thread each where the JVM has
+ *  them, or else on a fixed pool of threads.  Two semaphores bound the
+ *  files open at once and the bytes of input in flight (a file bigger than
+ *  that bound runs alone).  All files share the configuration, parsed once:
+ *  their machines are leased from a MachinePool, whose machines share the
+ *  rotor permutations of one catalog.
+ *
+ *  An error in one file is reported with its name and does not stop the
+ *  others.  Errors go to the standard error unless setErrors says
+ *  otherwise.
+ *  @author Jerry
+ */
+class DirectoryJob {
+
+    /** A job converting every file of INPUT into OUTPUT with the machine
+     *  configured by CONFIGLINES, with at most MAXOPEN files open and
+     *  MAXBYTES bytes of input in flight. */
+    DirectoryJob(ArrayList<String> configLines, Path input, Path output,
+                 int maxOpen, long maxBytes) {
+        if (maxOpen < 1 || maxBytes < 1) {
+            throw error("limits of files and bytes must be positive");
+        }
+        _input = input;
+        _output = output;
+        _pool = new MachinePool(configLines, maxOpen);
+        _maxOpen = maxOpen;
+        _openFiles = new Semaphore(maxOpen);
+        _kbLimit = (int) Math.min(Integer.MAX_VALUE, (maxBytes + 1023) / 1024);
+        _kbInFlight = new Semaphore(_kbLimit);
+        _failures = new ArrayList<>();
+        _errors = System.err;
+    }
+
+    /** Report errors on ERRORS rather than the standard error. */
+    void setErrors(PrintStream errors) {
+        _errors = errors;
+    }
+
+    /** Convert every file, and return the number converted without
+     *  error.  Errors are printed as each file fails. */
+    int run() {
+        try {
+            Files.createDirectories(_output);
+        } catch (IOException excp) {
+            throw error("could not create %s", _output);
+        }
+        ExecutorService executor = EnigmaServer.newVirtualThreadExecutor();
+        if (executor == null) {
+            int threads = Math.min(_maxOpen,
+                    2 * Runtime.getRuntime().availableProcessors());
+            executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "enigma-file");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        int files = 0;
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(_input)) {
+            for (Path file : dir) {
+                if (Files.isRegularFile(file)) {
+                    files++;
+                    executor.execute(() -> runFile(file));
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not list %s", _input);
+        } finally {
+            executor.shutdown();
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    continue;
+                }
+            } catch (InterruptedException excp) {
+                executor.shutdownNow();
+                throw error("interrupted");
+            }
+        }
+        synchronized (_failures) {
+            return files - _failures.size();
+        }
+    }
+
+    /** Returns the errors so far, each "FILE: MESSAGE". */
+    List<String> failures() {
+        synchronized (_failures) {
+            return new ArrayList<>(_failures);
+        }
+    }
+
+    /** Convert FILE, within the limits of files and bytes. */
+    private void runFile(Path file) {
+        int kb;
+        try {
+            kb = (int) Math.min(_kbLimit, (Files.size(file) + 1023) / 1024);
+        } catch (IOException excp) {
+            fail(file, "could not read");
+            return;
+        }
+        try {
+            _openFiles.acquire();
+            try {
+                _kbInFlight.acquire(kb);
+                try {
+                    convert(file, _output.resolve(file.getFileName()));
+                } finally {
+                    _kbInFlight.release(kb);
+                }
+            } finally {
+                _openFiles.release();
+            }
+        } catch (InterruptedException excp) {
+            fail(file, "interrupted");
+        } catch (EnigmaException excp) {
+            fail(file, excp.getMessage());
+        }
+    }
+
+    /** Convert the lines of INPUT into OUTPUT as Main does. */
+    private void convert(Path input, Path output) {
+        MachinePool.Lease lease = null;
+        try (Scanner in = new Scanner(input.toFile());
+             PrintStream out = new PrintStream(new File(output.toString()))) {
+            while (in.hasNext()) {
+                String line = in.nextLine().trim();
+                if (line.startsWith("*")) {
+                    if (lease == null) {
+                        lease = _pool.acquire(line);
+                    } else {
+                        lease.machine().setupMachine(line);
+                    }
+                } else if (lease == null) {
+                    throw error("This machine has not any rotors in.");
+                } else {
+                    out.println(Main.messageLine(
+                            lease.machine().convert(line)));
+                }
+            }
+            if (out.checkError()) {
+                throw error("could not write %s", output);
+            }
+        } catch (IOException excp) {
+            throw error("could not open %s", excp.getMessage());
+        } finally {
+            if (lease != null) {
+                lease.close();
+            }
+        }
+    }
+
+    /** Record and print that FILE failed with MESSAGE. */
+    private void fail(Path file, String message) {
+        synchronized (_failures) {
+            String failure = file.getFileName() + ": " + message;
+            _failures.add(failure);
+            _errors.printf("Error: %s%n", failure);
+        }
+    }
+
+    /** Default most files open at once. */
+    static final int DEFAULT_MAX_OPEN = 256;
+
+    /** Default most bytes of input in flight. */
+    static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+    /** Directory of input files. */
+    private final Path _input;
+
+    /** Directory of output files. */
+    private final Path _output;
+
+    /** Machines of the files. */
+    private final MachinePool _pool;
+
+    /** Most files open at once. */
+    private final int _maxOpen;
+
+    /** Permits for open files. */
+    private final Semaphore _openFiles;
+
+    /** Most kilobytes of input in flight. */
+    private final int _kbLimit;
+
+    /** Permits for kilobytes of input in flight. */
+    private final Semaphore _kbInFlight;
+
+    /** Errors, each "FILE: MESSAGE". */
+    private final ArrayList<String> _failures;
+
+    /** Where errors are reported. */
+    private PrintStream _errors;
+}
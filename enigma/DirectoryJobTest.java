@@ -0,0 +1,76 @@
+package enigma;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the DirectoryJob class.
+ *  @author Jerry
+ */
+public class DirectoryJobTest {
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkDirectoryJob() throws Exception {
+        Path dir = Files.createTempDirectory("enigma");
+        Path in = Files.createDirectory(dir.resolve("in"));
+        Path out = dir.resolve("out");
+        Path expected = Files.createDirectory(dir.resolve("expected"));
+        String[] settings = {
+            "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+            "* C Gamma VI VII VIII ZZYM BDFB (AQ) (EP)",
+            "* B Beta I II III",
+        };
+        for (int f = 0; f < 40; f++) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 1 + f % 4; i++) {
+                text.append(settings[(f + i) % settings.length]).append('\n');
+                text.append(Workloads.message(26, 10 + f, f * 7 + i))
+                    .append("\n\n");
+            }
+            Path file = in.resolve("msg" + f + ".txt");
+            Files.writeString(file, text);
+            new Main(new String[] { "../testing/correct/default.conf",
+                                    file.toString(),
+                                    expected.resolve("msg" + f + ".txt")
+                                    .toString() }).process();
+        }
+        Files.writeString(in.resolve("bad.txt"),
+                "* B Beta III IV Zeta AXLE\nHELLO\n");
+
+        DirectoryJob job = new DirectoryJob(NAVALDEFAULT, in, out, 3, 1024);
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        job.setErrors(new PrintStream(errors, true));
+        assertEquals(40, job.run());
+        assertEquals(1, job.failures().size());
+        assertTrue(job.failures().get(0).startsWith("bad.txt: "));
+        assertTrue(errors.toString().startsWith("Error: bad.txt: "));
+        for (int f = 0; f < 40; f++) {
+            assertEquals("msg" + f, Files.readString(
+                    expected.resolve("msg" + f + ".txt")),
+                    Files.readString(out.resolve("msg" + f + ".txt")));
+        }
+        for (Path d : new Path[] { in, out, expected }) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(d)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(d);
+        }
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,465 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Generates, at run time, TableEngines specialized to the shape of a
+ *  machine: its number of rotor slots, whether it has a plugboard, and
+ *  whether its reflector is fixed at offset 0.  For each shape a hidden
+ *  class extending TableEngine is written in bytecode, whose substitute
+ *  goes through the slots in straight-line code instead of a loop: each
+ *  wiring is a field of its own, every wrap is branch-free, the reflector
+ *  is a single lookup, and an absent plugboard costs nothing.  Stepping
+ *  is inherited from TableEngine.
+ *
+ *  Classes are made once per shape and cached; engines of the same shape
+ *  share a class and differ only in their tables.  Where a class cannot be
+ *  made, or with -Denigma.specialize=false, specialize gives a plain
+ *  TableEngine instead, which converts the same.
+ *  @author Jerry
+ */
+final class EngineCompiler {
+
+    /** Not instantiable. */
+    private EngineCompiler() {
+    }
+
+    /** Returns a new engine of the shape of ENGINE, starting in its
+     *  state, specialized if its shape can be. */
+    static TableEngine specialize(TableEngine engine) {
+        int n = engine.numRotors();
+        boolean plugboard = !isIdentity(engine.plugForward());
+        boolean fixedReflector = engine.offset(0) == 0;
+        String shape = n + (plugboard ? "P" : "")
+            + (fixedReflector ? "F" : "");
+        MethodHandle make = SHAPES.computeIfAbsent(shape,
+            k -> generate(n, plugboard, fixedReflector));
+        try {
+            return (TableEngine) make.invoke(engine);
+        } catch (RuntimeException | Error excp) {
+            throw excp;
+        } catch (Throwable excp) {
+            throw new EnigmaException(excp.getMessage());
+        }
+    }
+
+    /** Returns a new engine with the current setup of MACHINE, specialized
+     *  if its shape can be. */
+    static TableEngine specialize(Machine machine) {
+        return specialize(new TableEngine(machine));
+    }
+
+    /** Returns true iff ENGINE is of a generated class. */
+    static boolean isSpecialized(TableEngine engine) {
+        return engine.getClass() != TableEngine.class;
+    }
+
+    /** Returns the number of shapes for which a class was generated. */
+    static int shapes() {
+        int result = 0;
+        for (MethodHandle make : SHAPES.values()) {
+            if (make != COPY) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    /** Returns true iff TABLE maps every index to itself. */
+    private static boolean isIdentity(int[] table) {
+        for (int i = 0; i < table.length; i++) {
+            if (table[i] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the constructor, from a TableEngine, of the class for N
+     *  slots, with a PLUGBOARD or not, and a FIXEDREFLECTOR or not, or
+     *  COPY if there can be none. */
+    private static MethodHandle generate(int n, boolean plugboard,
+                                         boolean fixedReflector) {
+        if (!ENABLED || n > MAX_SLOTS) {
+            return COPY;
+        }
+        try {
+            byte[] bytes = new ClassWriter(n, plugboard, fixedReflector)
+                .toByteArray();
+            MethodHandles.Lookup lookup = MethodHandles.lookup()
+                .defineHiddenClass(bytes, true);
+            return lookup.findConstructor(lookup.lookupClass(),
+                    MethodType.methodType(void.class, TableEngine.class))
+                .asType(MAKE);
+        } catch (IOException | ReflectiveOperationException
+                 | LinkageError | UnsupportedOperationException excp) {
+            return COPY;
+        }
+    }
+
+    /** Writer of the class file of one shape. */
+    private static final class ClassWriter {
+
+        /** A writer of the class for N slots, with a PLUGBOARD or not, and
+         *  a FIXEDREFLECTOR or not. */
+        ClassWriter(int n, boolean plugboard, boolean fixedReflector) {
+            _n = n;
+            _plugboard = plugboard;
+            _fixedReflector = fixedReflector;
+        }
+
+        /** Returns the class file. */
+        byte[] toByteArray() throws IOException {
+            int thisClass = classRef(NAME);
+            int superClass = classRef(SUPER);
+            ByteArrayOutputStream fieldBytes = new ByteArrayOutputStream();
+            DataOutputStream fields = new DataOutputStream(fieldBytes);
+            int numFields = 0;
+            for (int i = 0; i < _n; i++) {
+                numFields += field(fields, "f" + i);
+                if (i > 0) {
+                    numFields += field(fields, "v" + i);
+                }
+            }
+            if (_plugboard) {
+                numFields += field(fields, "pf");
+                numFields += field(fields, "pv");
+            }
+            ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+            DataOutputStream methods = new DataOutputStream(methodBytes);
+            method(methods, "<init>", "(L" + SUPER + ";)V", 3, 2,
+                    constructor());
+            method(methods, "substitute", "(I)I", 4, 3 + _n, substitute());
+
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(result);
+            out.writeInt(0xcafebabe);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(_pool.size() + 1);
+            out.write(_poolBytes.toByteArray());
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            out.writeShort(numFields);
+            out.write(fieldBytes.toByteArray());
+            out.writeShort(2);
+            out.write(methodBytes.toByteArray());
+            out.writeShort(0);
+            return result.toByteArray();
+        }
+
+        /** Returns the code of the constructor, which copies the state and
+         *  takes the tables of the engine it is given. */
+        private byte[] constructor() {
+            Code code = new Code();
+            code.op(ALOAD_0).op(ALOAD_1);
+            code.op(INVOKESPECIAL).u2(methodRef(SUPER, "<init>",
+                    "(L" + SUPER + ";)V"));
+            for (int i = 0; i < _n; i++) {
+                table(code, "forward", i, "f" + i);
+                if (i > 0) {
+                    table(code, "inverse", i, "v" + i);
+                }
+            }
+            if (_plugboard) {
+                table(code, "plugForward", -1, "pf");
+                table(code, "plugInverse", -1, "pv");
+            }
+            code.op(RETURN);
+            return code.toByteArray();
+        }
+
+        /** Add to CODE the setting of field FIELD to the result of
+         *  the engine's GETTER, of slot I if I >= 0. */
+        private void table(Code code, String getter, int i, String field) {
+            code.op(ALOAD_0).op(ALOAD_1);
+            if (i >= 0) {
+                code.push(i);
+                code.op(INVOKEVIRTUAL).u2(methodRef(SUPER, getter, "(I)[I"));
+            } else {
+                code.op(INVOKEVIRTUAL).u2(methodRef(SUPER, getter, "()[I"));
+            }
+            code.op(PUTFIELD).u2(fieldRef(field));
+        }
+
+        /** Returns the code of substitute(c).  Local 1 holds the symbol on
+         *  its way, 2 the size, and 2 + I the offset of slot I. */
+        private byte[] substitute() {
+            Code code = new Code();
+            code.op(ALOAD_0);
+            code.op(INVOKEVIRTUAL).u2(methodRef(SUPER, "size", "()I"));
+            code.op(ISTORE).u1(2);
+            for (int i = _fixedReflector ? 1 : 0; i < _n; i++) {
+                code.op(ALOAD_0).push(i);
+                code.op(INVOKEVIRTUAL).u2(methodRef(SUPER, "offset", "(I)I"));
+                code.op(ISTORE).u1(2 + i);
+            }
+            if (_plugboard) {
+                lookup(code, "pf");
+            }
+            for (int i = _n - 1; i > 0; i--) {
+                through(code, "f" + i, 2 + i);
+            }
+            if (_fixedReflector) {
+                lookup(code, "f0");
+            } else {
+                through(code, "f0", 2);
+            }
+            for (int i = 1; i < _n; i++) {
+                through(code, "v" + i, 2 + i);
+            }
+            if (_plugboard) {
+                lookup(code, "pv");
+            }
+            code.op(ILOAD).u1(1).op(IRETURN);
+            return code.toByteArray();
+        }
+
+        /** Add to CODE the replacing of the symbol by its entry in the
+         *  table FIELD. */
+        private void lookup(Code code, String field) {
+            code.op(ALOAD_0).op(GETFIELD).u2(fieldRef(field));
+            code.op(ILOAD).u1(1).op(IALOAD).op(ISTORE).u1(1);
+        }
+
+        /** Add to CODE the passing of the symbol through the table FIELD
+         *  turned by the offset in local OFFSET, as TableEngine.through. */
+        private void through(Code code, String field, int offset) {
+            code.op(ILOAD).u1(1).op(ILOAD).u1(offset).op(IADD);
+            code.op(ILOAD).u1(2).op(ISUB).op(ISTORE).u1(1);
+            wrap(code);
+            code.op(ALOAD_0).op(GETFIELD).u2(fieldRef(field));
+            code.op(ILOAD).u1(1).op(IALOAD);
+            code.op(ILOAD).u1(offset).op(ISUB).op(ISTORE).u1(1);
+            wrap(code);
+        }
+
+        /** Add to CODE the adding of the size to the symbol if it is
+         *  negative: s += (s >> 31) & size. */
+        private void wrap(Code code) {
+            code.op(ILOAD).u1(1).op(ILOAD).u1(1).push(31).op(ISHR);
+            code.op(ILOAD).u1(2).op(IAND).op(IADD).op(ISTORE).u1(1);
+        }
+
+        /** Write the declaration of the int[] field NAME to OUT, and
+         *  return 1. */
+        private int field(DataOutputStream out, String name)
+            throws IOException {
+            out.writeShort(ACC_PRIVATE | ACC_FINAL);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8("[I"));
+            out.writeShort(0);
+            return 1;
+        }
+
+        /** Write the method NAME of type DESC, with CODE using at most
+         *  MAXSTACK stack slots and MAXLOCALS locals, to OUT. */
+        private void method(DataOutputStream out, String name, String desc,
+                            int maxStack, int maxLocals, byte[] code)
+            throws IOException {
+            out.writeShort(0);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(desc));
+            out.writeShort(1);
+            out.writeShort(utf8("Code"));
+            out.writeInt(12 + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+
+        /** Returns the index of the constant known by KEY, adding it
+         *  to the pool, written by WRITE, if new. */
+        private int constant(String key, Entry write) {
+            Integer index = _pool.get(key);
+            if (index == null) {
+                try {
+                    write.to(_poolOut);
+                } catch (IOException excp) {
+                    throw new EnigmaException(excp.getMessage());
+                }
+                index = _pool.size() + 1;
+                _pool.put(key, index);
+            }
+            return index;
+        }
+
+        /** Returns the index of the UTF8 constant S. */
+        private int utf8(String s) {
+            return constant("U" + s, out -> {
+                out.writeByte(1);
+                out.writeUTF(s);
+            });
+        }
+
+        /** Returns the index of the class constant of NAME. */
+        private int classRef(String name) {
+            int utf = utf8(name);
+            return constant("C" + name, out -> {
+                out.writeByte(7);
+                out.writeShort(utf);
+            });
+        }
+
+        /** Returns the index of the name-and-type constant of NAME and
+         *  DESC. */
+        private int nameAndType(String name, String desc) {
+            int n = utf8(name), d = utf8(desc);
+            return constant("T" + name + " " + desc, out -> {
+                out.writeByte(12);
+                out.writeShort(n);
+                out.writeShort(d);
+            });
+        }
+
+        /** Returns the index of the constant of my int[] field NAME. */
+        private int fieldRef(String name) {
+            int c = classRef(NAME), t = nameAndType(name, "[I");
+            return constant("F" + name, out -> {
+                out.writeByte(9);
+                out.writeShort(c);
+                out.writeShort(t);
+            });
+        }
+
+        /** Returns the index of the constant of the method NAME of type
+         *  DESC of OWNER. */
+        private int methodRef(String owner, String name, String desc) {
+            int c = classRef(owner), t = nameAndType(name, desc);
+            return constant("M" + owner + "." + name + desc, out -> {
+                out.writeByte(10);
+                out.writeShort(c);
+                out.writeShort(t);
+            });
+        }
+
+        /** Number of rotor slots. */
+        private final int _n;
+
+        /** True iff there is a plugboard. */
+        private final boolean _plugboard;
+
+        /** True iff the reflector stays at offset 0. */
+        private final boolean _fixedReflector;
+
+        /** Indices of the constants written, by key. */
+        private final HashMap<String, Integer> _pool = new HashMap<>();
+
+        /** The constants written. */
+        private final ByteArrayOutputStream _poolBytes =
+            new ByteArrayOutputStream();
+
+        /** Writes to _poolBytes. */
+        private final DataOutputStream _poolOut =
+            new DataOutputStream(_poolBytes);
+    }
+
+    /** Writes one constant. */
+    private interface Entry {
+        /** Write the constant to OUT. */
+        void to(DataOutputStream out) throws IOException;
+    }
+
+    /** Bytecode of one method. */
+    private static final class Code {
+
+        /** Append the opcode OP. */
+        Code op(int op) {
+            _bytes.write(op);
+            return this;
+        }
+
+        /** Append the byte B. */
+        Code u1(int b) {
+            _bytes.write(b);
+            return this;
+        }
+
+        /** Append the two bytes of S. */
+        Code u2(int s) {
+            _bytes.write(s >> 8);
+            _bytes.write(s);
+            return this;
+        }
+
+        /** Append code pushing the int constant K, 0 <= K < 32768. */
+        Code push(int k) {
+            if (k <= 5) {
+                return op(ICONST_0 + k);
+            } else if (k < 128) {
+                return op(BIPUSH).u1(k);
+            }
+            return op(SIPUSH).u2(k);
+        }
+
+        /** Returns the code. */
+        byte[] toByteArray() {
+            return _bytes.toByteArray();
+        }
+
+        /** The code so far. */
+        private final ByteArrayOutputStream _bytes =
+            new ByteArrayOutputStream();
+    }
+
+    /** True unless specialization is turned off. */
+    private static final boolean ENABLED =
+        !"false".equals(System.getProperty("enigma.specialize"));
+
+    /** Most slots of a generated class, so that every local fits in the
+     *  one-byte operand of iload. */
+    private static final int MAX_SLOTS = 200;
+
+    /** Name of the generated classes, before the JVM's suffix. */
+    private static final String NAME = "enigma/SpecializedEngine";
+
+    /** Their superclass. */
+    private static final String SUPER = "enigma/TableEngine";
+
+    /** Class file version: Java 8, whose straight-line methods need no
+     *  stack map. */
+    private static final int VERSION = 52;
+
+    /** Access flags. */
+    private static final int ACC_PRIVATE = 0x0002, ACC_FINAL = 0x0010,
+        ACC_SUPER = 0x0020;
+
+    /** Opcodes. */
+    private static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11,
+        ILOAD = 0x15, ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, IALOAD = 0x2e,
+        ISTORE = 0x36, IADD = 0x60, ISUB = 0x64, ISHR = 0x7a, IAND = 0x7e,
+        IRETURN = 0xac, RETURN = 0xb1, GETFIELD = 0xb4, PUTFIELD = 0xb5,
+        INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7;
+
+    /** Type of the constructors, from a TableEngine. */
+    private static final MethodType MAKE =
+        MethodType.methodType(TableEngine.class, TableEngine.class);
+
+    /** The constructor of plain TableEngines, for shapes with no class. */
+    private static final MethodHandle COPY;
+
+    static {
+        try {
+            COPY = MethodHandles.lookup().findConstructor(TableEngine.class,
+                    MethodType.methodType(void.class, TableEngine.class))
+                .asType(MAKE);
+        } catch (ReflectiveOperationException excp) {
+            throw new ExceptionInInitializerError(excp);
+        }
+    }
+
+    /** Constructors by shape. */
+    private static final ConcurrentHashMap<String, MethodHandle> SHAPES =
+        new ConcurrentHashMap<>();
+}
@@ -0,0 +1,44 @@
+package enigma;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the EngineCompiler class.
+ *  @author Jerry
+ */
+public class EngineCompilerTest {
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkSpecializedSameAsMachine() {
+        Machine machine = Machine.makeAMachine(NAVALDEFAULT);
+        String[] settings = {
+            "* B Beta I II III AAAA",
+            "* B Beta I II III AQDV AAAA (AQ) (EP)",
+            "* C Gamma VI VII VIII ZZYM BDFB (HQ) (EX) (IP)",
+        };
+        Class<?>[] classes = new Class<?>[settings.length];
+        for (int k = 0; k < settings.length; k++) {
+            String setting = settings[k];
+            machine.setupMachine(setting);
+            TableEngine engine = EngineCompiler.specialize(machine);
+            assertTrue(EngineCompiler.isSpecialized(engine));
+            classes[k] = engine.getClass();
+            for (int i = 0; i < 2000; i++) {
+                int c = (i * 7) % engine.size();
+                assertEquals(msg(setting, "wrong conversion at %d", i),
+                        machine.convert(c), engine.convert(c));
+            }
+        }
+        assertTrue(classes[0] != classes[1]);
+        assertEquals(classes[1], classes[2]);
+    }
+}
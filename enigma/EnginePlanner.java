@@ -0,0 +1,324 @@
+package enigma;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntUnaryOperator;
+
+/** Chooses how a Machine converts its messages after each setup, among
+ *  the strategies of this package:
+ *
+ *    OBJECT       through the Rotor and Permutation objects, costing
+ *                 nothing to set up and no memory;
+ *    TABLE        on a TableEngine, costing its tables to build;
+ *    SPECIALIZED  on an engine from EngineCompiler, costing the tables
+ *                 and, the first time for a shape, its class.
+ *
+ *  The cost of a plan is its setup time plus the expected symbols per
+ *  setup times its time per symbol, each measured for the machine's
+ *  alphabet size and rotor count by a short benchmark the first time they
+ *  are met (which also makes the class of the shape, so that later plans
+ *  need not count it).  The expected symbols are learned from the
+ *  machines that use the planner, as a moving average of the symbols
+ *  converted between setups.  Engines count against a memory budget
+ *  shared by all those machines; a strategy that would exceed it is not
+ *  chosen.
+ *
+ *  A Machine uses a planner given to it by setPlanner, and reports its
+ *  plan through Machine.plan().
+ *  @author Jerry
+ */
+class EnginePlanner {
+
+    /** The strategies. */
+    enum Strategy { OBJECT, TABLE, SPECIALIZED }
+
+    /** A strategy chosen for one setup, with its estimated cost. */
+    static final class Plan {
+
+        /** A plan of STRATEGY for SYMBOLS symbols, estimated to take
+         *  NANOS nanoseconds and BYTES bytes, chosen among the strategies
+         *  estimated to take ESTIMATES nanoseconds (NaN where over the
+         *  budget). */
+        Plan(Strategy strategy, long symbols, double nanos, long bytes,
+             double[] estimates) {
+            _strategy = strategy;
+            _symbols = symbols;
+            _nanos = nanos;
+            _bytes = bytes;
+            _estimates = estimates;
+        }
+
+        /** Returns the strategy chosen. */
+        Strategy strategy() {
+            return _strategy;
+        }
+
+        /** Returns the symbols per setup planned for. */
+        long symbols() {
+            return _symbols;
+        }
+
+        /** Returns the estimated time of the setup and its symbols, in
+         *  nanoseconds. */
+        double estimatedNanos() {
+            return _nanos;
+        }
+
+        /** Returns the estimated time of STRATEGY, or NaN if it was over
+         *  the budget or is not available. */
+        double estimatedNanos(Strategy strategy) {
+            return _estimates[strategy.ordinal()];
+        }
+
+        /** Returns the memory reserved, in bytes. */
+        long bytes() {
+            return _bytes;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder();
+            result.append(String.format("%s for %d symbols: %.1f us, %d "
+                    + "bytes (", _strategy, _symbols, _nanos / 1e3, _bytes));
+            for (Strategy s : Strategy.values()) {
+                result.append(s.ordinal() == 0 ? "" : ", ").append(s)
+                    .append(String.format(" %.1f us",
+                            _estimates[s.ordinal()] / 1e3));
+            }
+            return result.append(')').toString();
+        }
+
+        /** The strategy. */
+        private final Strategy _strategy;
+
+        /** Symbols per setup planned for. */
+        private final long _symbols;
+
+        /** Estimated nanoseconds. */
+        private final double _nanos;
+
+        /** Bytes reserved. */
+        private final long _bytes;
+
+        /** Estimated nanoseconds of each strategy. */
+        private final double[] _estimates;
+    }
+
+    /** A planner whose engines take at most MEMORYBUDGET bytes in all. */
+    EnginePlanner(long memoryBudget) {
+        this(memoryBudget, null);
+    }
+
+    /** A planner as above that takes the costs of every shape of machine
+     *  to be CALIBRATION, without measuring them, unless it is null. */
+    EnginePlanner(long memoryBudget, Calibration calibration) {
+        _memoryBudget = memoryBudget;
+        _reserved = new AtomicLong();
+        _calibrations = new ConcurrentHashMap<>();
+        _expectedSymbols = DEFAULT_SYMBOLS;
+        _calibration = calibration;
+    }
+
+    /** Returns the planner configured by the system property
+     *  enigma.planner.budget, in megabytes, or null if it is not set. */
+    static EnginePlanner fromProperties() {
+        String budget = System.getProperty("enigma.planner.budget");
+        if (budget == null) {
+            return null;
+        }
+        try {
+            return new EnginePlanner(Long.parseLong(budget) << 20);
+        } catch (NumberFormatException excp) {
+            throw new EnigmaException("bad enigma.planner.budget "
+                    + budget);
+        }
+    }
+
+    /** Returns the plan for MACHINE, as set up now, converting the
+     *  expected number of symbols, reserving its memory. */
+    Plan plan(Machine machine) {
+        return plan(machine, expectedSymbols());
+    }
+
+    /** Returns the plan for MACHINE, as set up now, converting SYMBOLS
+     *  symbols, reserving its memory. */
+    Plan plan(Machine machine, long symbols) {
+        Calibration cal = calibration(machine);
+        int size = machine.alphabet().size();
+        int numRotors = machine.numRotors();
+        long tableBytes = (long) size * (Integer.BYTES * (2 * numRotors + 2)
+                + numRotors);
+        double[] estimates = new double[Strategy.values().length];
+        long[] bytes = new long[estimates.length];
+        estimates[Strategy.OBJECT.ordinal()] = symbols * cal.objectNanos;
+        estimates[Strategy.TABLE.ordinal()] = cal.buildNanos
+            + symbols * cal.tableNanos;
+        estimates[Strategy.SPECIALIZED.ordinal()] = cal.specialized
+            ? cal.buildNanos + symbols * cal.specializedNanos : Double.NaN;
+        bytes[Strategy.TABLE.ordinal()] = tableBytes;
+        bytes[Strategy.SPECIALIZED.ordinal()] = tableBytes;
+
+        while (true) {
+            long reserved = _reserved.get();
+            Strategy best = Strategy.OBJECT;
+            double[] allowed = estimates.clone();
+            for (Strategy s : Strategy.values()) {
+                int k = s.ordinal();
+                if (reserved + bytes[k] > _memoryBudget && bytes[k] > 0) {
+                    allowed[k] = Double.NaN;
+                } else if (allowed[k] < allowed[best.ordinal()]) {
+                    best = s;
+                }
+            }
+            long take = bytes[best.ordinal()];
+            if (_reserved.compareAndSet(reserved, reserved + take)) {
+                return new Plan(best, symbols, allowed[best.ordinal()],
+                        take, allowed);
+            }
+        }
+    }
+
+    /** Give back the memory reserved by PLAN, whose engine is no longer
+     *  used. */
+    void release(Plan plan) {
+        _reserved.addAndGet(-plan.bytes());
+    }
+
+    /** Record that a machine converted SYMBOLS symbols under one
+     *  setup. */
+    synchronized void observe(long symbols) {
+        _expectedSymbols += (symbols - _expectedSymbols) * SMOOTHING;
+    }
+
+    /** Returns the symbols per setup expected. */
+    synchronized long expectedSymbols() {
+        return Math.round(_expectedSymbols);
+    }
+
+    /** Returns the memory budget, in bytes. */
+    long memoryBudget() {
+        return _memoryBudget;
+    }
+
+    /** Returns the memory reserved by plans in use, in bytes. */
+    long reserved() {
+        return _reserved.get();
+    }
+
+    /** Returns the calibration for the shape of MACHINE, measuring it the
+     *  first time. */
+    private Calibration calibration(Machine machine) {
+        if (_calibration != null) {
+            return _calibration;
+        }
+        String key = machine.alphabet().size() + "/" + machine.numRotors();
+        Calibration result = _calibrations.get(key);
+        if (result == null) {
+            result = calibrate(machine);
+            _calibrations.putIfAbsent(key, result);
+        }
+        return result;
+    }
+
+    /** Returns the costs of the strategies, measured on a quiet copy of
+     *  MACHINE as set up now, so that MACHINE is left as it was and the
+     *  symbols converted count in no Metrics and record no flight
+     *  events. */
+    static Calibration calibrate(Machine machine) {
+        Machine probe = machine.quietCopy();
+        Calibration result = new Calibration();
+        int size = probe.alphabet().size();
+        int[] symbols = new int[CALIBRATION_SYMBOLS];
+        for (int i = 0; i < symbols.length; i++) {
+            symbols[i] = (int) ((i * 0x9e3779b1L >>> 7) % size);
+        }
+
+        long start = System.nanoTime();
+        TableEngine table = new TableEngine(probe);
+        result.buildNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        TableEngine specialized = EngineCompiler.specialize(table);
+        result.generateNanos = System.nanoTime() - start;
+        result.specialized = EngineCompiler.isSpecialized(specialized);
+
+        for (int round = 0; round < CALIBRATION_ROUNDS; round++) {
+            result.objectNanos = Math.min(result.objectNanos,
+                    time(symbols, probe::convert));
+            result.tableNanos = Math.min(result.tableNanos,
+                    time(symbols, table::convert));
+            result.specializedNanos = Math.min(result.specializedNanos,
+                    time(symbols, specialized::convert));
+            start = System.nanoTime();
+            for (int k = 0; k < CALIBRATION_BUILDS; k++) {
+                table = new TableEngine(probe);
+            }
+            double build = System.nanoTime() - start;
+            result.buildNanos = Math.min(result.buildNanos,
+                    build / CALIBRATION_BUILDS);
+        }
+        return result;
+    }
+
+    /** Returns the nanoseconds per symbol CONVERT takes over SYMBOLS. */
+    private static double time(int[] symbols, IntUnaryOperator convert) {
+        long start = System.nanoTime();
+        int sink = 0;
+        for (int c : symbols) {
+            sink += convert.applyAsInt(c);
+        }
+        long nanos = System.nanoTime() - start;
+        _sink = sink;
+        return (double) nanos / symbols.length;
+    }
+
+    /** Measured costs of the strategies for one shape of machine. */
+    static final class Calibration {
+
+        /** Nanoseconds per symbol of each strategy. */
+        double objectNanos = Double.MAX_VALUE, tableNanos = Double.MAX_VALUE,
+            specializedNanos = Double.MAX_VALUE;
+
+        /** Nanoseconds to build a TableEngine. */
+        double buildNanos;
+
+        /** Nanoseconds to make the first specialized engine, including
+         *  its class. */
+        double generateNanos;
+
+        /** True iff a specialized class could be made. */
+        boolean specialized;
+    }
+
+    /** Symbols per setup expected before any are observed. */
+    static final long DEFAULT_SYMBOLS = 1000;
+
+    /** Weight of each observation in the moving average. */
+    private static final double SMOOTHING = 0.1;
+
+    /** Symbols converted per strategy and round of calibration. */
+    private static final int CALIBRATION_SYMBOLS = 4000;
+
+    /** Engines built per round of calibration. */
+    private static final int CALIBRATION_BUILDS = 50;
+
+    /** Rounds of calibration, of which the fastest counts. */
+    private static final int CALIBRATION_ROUNDS = 5;
+
+    /** Keeps calibration results live. */
+    private static volatile int _sink;
+
+    /** Most bytes of engines at once. */
+    private final long _memoryBudget;
+
+    /** Bytes of engines in use. */
+    private final AtomicLong _reserved;
+
+    /** Calibration by alphabet size and rotor count. */
+    private final ConcurrentHashMap<String, Calibration> _calibrations;
+
+    /** Calibration of every shape, or null to measure each. */
+    private final Calibration _calibration;
+
+    /** Moving average of the symbols per setup. */
+    private double _expectedSymbols;
+}
@@ -0,0 +1,196 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+import static enigma.EnigmaServer.*;
+
+/** A client of an EnigmaServer, speaking the protocol described there.
+ *  Each call waits for its reply, except convertAll, which pipelines its
+ *  requests.  A client is for one thread at a time.
+ *  @author Jerry
+ */
+class EnigmaClient implements AutoCloseable {
+
+    /** A client of the server on PORT of the loopback address. */
+    EnigmaClient(int port) {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /** A client of the server at ADDRESS, TCP or Unix-domain. */
+    EnigmaClient(SocketAddress address) {
+        try {
+            _channel = SocketChannel.open(address);
+        } catch (IOException excp) {
+            throw error("could not connect to %s", address);
+        }
+        _in = new DataInputStream(new BufferedInputStream(
+                inputOf(_channel)));
+        _out = new DataOutputStream(new BufferedOutputStream(
+                outputOf(_channel)));
+    }
+
+    /** Returns a new session set up by the setting line SETTING. */
+    int open(String setting) {
+        try {
+            int tag = request(OPEN);
+            writeString(_out, setting);
+            _out.flush();
+            readReply(tag);
+            return _in.readInt();
+        } catch (IOException excp) {
+            throw error("connection lost: %s", excp.getMessage());
+        }
+    }
+
+    /** Returns the conversion of TEXT by SESSION. */
+    String convert(int session, String text) {
+        try {
+            int tag = sendConvert(session, text);
+            _out.flush();
+            return readConvert(tag);
+        } catch (IOException excp) {
+            throw error("connection lost: %s", excp.getMessage());
+        }
+    }
+
+    /** Returns the conversions of TEXTS, in order, by SESSION.  All the
+     *  requests are sent, from a second thread, without waiting for the
+     *  replies, so the cost of a round trip is paid once. */
+    List<String> convertAll(int session, List<String> texts) {
+        int firstTag = _nextTag;
+        IOException[] failure = new IOException[1];
+        Thread sender = new Thread(() -> {
+            try {
+                for (String text : texts) {
+                    sendConvert(session, text);
+                }
+                _out.flush();
+            } catch (IOException excp) {
+                failure[0] = excp;
+            }
+        }, "enigma-client");
+        sender.start();
+        List<String> result = new ArrayList<>(texts.size());
+        EnigmaException firstError = null;
+        try {
+            for (int k = 0; k < texts.size(); k++) {
+                try {
+                    result.add(readConvert(firstTag + k));
+                } catch (EnigmaException excp) {
+                    firstError = firstError == null ? excp : firstError;
+                }
+            }
+            sender.join();
+        } catch (IOException excp) {
+            throw error("connection lost: %s", excp.getMessage());
+        } catch (InterruptedException excp) {
+            throw error("interrupted");
+        }
+        if (failure[0] != null) {
+            throw error("connection lost: %s", failure[0].getMessage());
+        }
+        if (firstError != null) {
+            throw firstError;
+        }
+        return result;
+    }
+
+    /** Move SESSION to where it is after converting OFFSET letters from its
+     *  setting. */
+    void seek(int session, long offset) {
+        try {
+            int tag = request(SEEK);
+            _out.writeInt(session);
+            _out.writeLong(offset);
+            _out.flush();
+            readReply(tag);
+        } catch (IOException excp) {
+            throw error("connection lost: %s", excp.getMessage());
+        }
+    }
+
+    /** Close SESSION. */
+    void close(int session) {
+        try {
+            int tag = request(CLOSE);
+            _out.writeInt(session);
+            _out.flush();
+            readReply(tag);
+        } catch (IOException excp) {
+            throw error("connection lost: %s", excp.getMessage());
+        }
+    }
+
+    /** Close the connection, and with it all its sessions. */
+    @Override
+    public void close() {
+        try {
+            _channel.close();
+        } catch (IOException excp) {
+            /* closed anyway */
+        }
+    }
+
+    /** Start a request with opcode OP, and return its tag. */
+    private int request(int op) throws IOException {
+        int tag = _nextTag++;
+        _out.writeByte(op);
+        _out.writeInt(tag);
+        return tag;
+    }
+
+    /** Send, without flushing, a request to convert TEXT by SESSION, and
+     *  return its tag. */
+    private int sendConvert(int session, String text) throws IOException {
+        int tag = request(CONVERT);
+        _out.writeInt(session);
+        writeString(_out, text);
+        return tag;
+    }
+
+    /** Read the reply to the CONVERT request tagged TAG, and return its
+     *  text. */
+    private String readConvert(int tag) throws IOException {
+        readReply(tag);
+        return readString(_in);
+    }
+
+    /** Read the start of the reply to the request tagged TAG, throwing
+     *  its message if it is an error. */
+    private void readReply(int tag) throws IOException {
+        int status = _in.readUnsignedByte();
+        int replyTag = _in.readInt();
+        if (replyTag != tag) {
+            throw new IOException(String.format("reply to %d, expected %d",
+                    replyTag, tag));
+        }
+        if (status == ERROR) {
+            throw new EnigmaException(readString(_in));
+        } else if (status != OK) {
+            throw new IOException("bad status " + status);
+        }
+    }
+
+    /** Connection to the server. */
+    private final SocketChannel _channel;
+
+    /** Replies from the server. */
+    private final DataInputStream _in;
+
+    /** Requests to the server. */
+    private final DataOutputStream _out;
+
+    /** Tag of the next request. */
+    private int _nextTag;
+}
@@ -0,0 +1,438 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static enigma.EnigmaException.*;
+
+/** A long-running encryption service, so that clients pay for the JVM and
+ *  the parsing of the configuration once rather than per batch of
+ *  messages.  It listens on a loopback TCP port or a Unix-domain socket,
+ *  and serves each connection on its own thread (a virtual thread where
+ *  the JVM has them).  All sessions share the one Machine made from the
+ *  configuration: opening a session sets it up under a lock and takes a
+ *  TableEngine snapshot of it, which the session then steps on its own.
+ *
+ *  The protocol is binary, in the big-endian encoding of DataOutputStream.
+ *  A request is an opcode byte and an int tag chosen by the client,
+ *  followed by
+ *      OPEN:    a string, the setting line;
+ *      CONVERT: an int session and a string, the text;
+ *      SEEK:    an int session and a long, the number of letters since
+ *               the session's setting to move to;
+ *      CLOSE:   an int session;
+ *  where a string is an int length and that many bytes of UTF-8.  Every
+ *  request is answered, in order, with a status byte and the request's
+ *  tag; then, on OK, the session (OPEN) or the converted text (CONVERT),
+ *  and on ERROR the message as a string.  An unknown opcode is answered
+ *  with ERROR, and the connection closed.  A client may send any number of
+ *  requests before reading the replies; replies are flushed whenever no
+ *  further request is waiting.
+ *
+ *  Usage: java enigma.EnigmaServer CONFIG [PORT | unix:PATH]
+ *  @author Jerry
+ */
+class EnigmaServer implements AutoCloseable {
+
+    /** Serve the machine of the configuration file ARGS[0] on the port or
+     *  socket ARGS[1] (by default DEFAULT_PORT) until killed. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 1 || args.length > 2) {
+                throw error("Usage: java enigma.EnigmaServer CONFIG "
+                        + "[PORT | unix:PATH]");
+            }
+            ArrayList<String> config;
+            try (Scanner scanner = new Scanner(new File(args[0]))) {
+                config = Main.readConfigLines(scanner);
+            } catch (IOException excp) {
+                throw error("could not open %s", args[0]);
+            }
+            EnigmaServer server = new EnigmaServer(config);
+            String where = args.length > 1 ? args[1] : "" + DEFAULT_PORT;
+            if (where.startsWith("unix:")) {
+                server.start(Path.of(where.substring(5)));
+            } else {
+                server.start(Integer.parseInt(where));
+            }
+            System.err.printf("enigma server on %s%n", server.address());
+            server.join();
+        } catch (EnigmaException | NumberFormatException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** A server of the machine configured by CONFIGLINES, not yet
+     *  listening. */
+    EnigmaServer(ArrayList<String> configLines) {
+        _machine = Machine.makeAMachine(configLines);
+        _alphabet = _machine.alphabet();
+    }
+
+    /** Start listening on PORT of the loopback address (0 for any free
+     *  port), and return the port. */
+    int start(int port) {
+        start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        return ((InetSocketAddress) address()).getPort();
+    }
+
+    /** Start listening on the Unix-domain socket PATH, replacing any stale
+     *  socket file there. */
+    void start(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException excp) {
+            throw error("could not remove %s", path);
+        }
+        start(UnixDomainSocketAddress.of(path));
+    }
+
+    /** Start listening on ADDRESS. */
+    private void start(SocketAddress address) {
+        try {
+            _server = address instanceof UnixDomainSocketAddress
+                ? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+                : ServerSocketChannel.open();
+            _server.bind(address, BACKLOG);
+            _address = _server.getLocalAddress();
+        } catch (IOException excp) {
+            throw error("could not listen on %s", address);
+        }
+        _connections = newThreadPerTaskExecutor("enigma-session");
+        _acceptor = new Thread(this::acceptClients, "enigma-server");
+        _acceptor.setDaemon(true);
+        _acceptor.start();
+    }
+
+    /** Returns the address I listen on. */
+    SocketAddress address() {
+        return _address;
+    }
+
+    /** Wait until I am closed. */
+    void join() {
+        try {
+            _acceptor.join();
+        } catch (InterruptedException excp) {
+            throw error("interrupted");
+        }
+    }
+
+    /** Stop accepting clients.  Connections already open are served until
+     *  their clients close them. */
+    @Override
+    public void close() {
+        try {
+            _server.close();
+        } catch (IOException excp) {
+            /* closing anyway */
+        }
+        _connections.shutdown();
+        if (_address instanceof UnixDomainSocketAddress) {
+            try {
+                Files.deleteIfExists(((UnixDomainSocketAddress) _address)
+                        .getPath());
+            } catch (IOException excp) {
+                /* leave it */
+            }
+        }
+    }
+
+    /** Returns an executor running each task on a thread of its own,
+     *  virtual if this JVM has virtual threads, and otherwise a daemon
+     *  thread named NAME. */
+    static ExecutorService newThreadPerTaskExecutor(String name) {
+        ExecutorService result = newVirtualThreadExecutor();
+        if (result != null) {
+            return result;
+        }
+        return Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Returns an executor running each task on a virtual thread of its
+     *  own, or null if this JVM has no virtual threads. */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method virtual = Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException excp) {
+            return null;
+        }
+    }
+
+    /** Accept clients until the server socket is closed. */
+    private void acceptClients() {
+        while (_server.isOpen()) {
+            try {
+                SocketChannel client = _server.accept();
+                _connections.execute(() -> serve(client));
+            } catch (IOException | RuntimeException excp) {
+                return;
+            }
+        }
+    }
+
+    /** Answer the requests of the client on CHANNEL until it closes the
+     *  connection or breaks the protocol.  A request of an unknown opcode
+     *  is answered with ERROR before the connection is closed, since what
+     *  follows it cannot be read. */
+    private void serve(SocketChannel channel) {
+        try (SocketChannel c = channel) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    inputOf(c), BUFFER));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(outputOf(c), BUFFER));
+            HashMap<Integer, Session> sessions = new HashMap<>();
+            int nextSession = 1;
+            while (true) {
+                int op = in.read();
+                if (op < 0) {
+                    return;
+                }
+                int tag = in.readInt();
+                try {
+                    switch (op) {
+                    case OPEN: {
+                        String setting = readString(in);
+                        sessions.put(nextSession, open(setting));
+                        reply(out, OK, tag);
+                        out.writeInt(nextSession++);
+                        break;
+                    }
+                    case CONVERT: {
+                        int id = in.readInt();
+                        String text = readString(in);
+                        String result = session(sessions, id).convert(text);
+                        reply(out, OK, tag);
+                        writeString(out, result);
+                        break;
+                    }
+                    case SEEK: {
+                        int id = in.readInt();
+                        long offset = in.readLong();
+                        session(sessions, id).seek(offset);
+                        reply(out, OK, tag);
+                        break;
+                    }
+                    case CLOSE: {
+                        int id = in.readInt();
+                        if (sessions.remove(id) == null) {
+                            throw error("no session %d", id);
+                        }
+                        reply(out, OK, tag);
+                        break;
+                    }
+                    default:
+                        reply(out, ERROR, tag);
+                        writeString(out, "bad opcode " + op);
+                        out.flush();
+                        return;
+                    }
+                } catch (EnigmaException excp) {
+                    if (Metrics.ENABLED) {
+                        Metrics.GLOBAL.error();
+                    }
+                    reply(out, ERROR, tag);
+                    writeString(out, String.valueOf(excp.getMessage()));
+                }
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (IOException excp) {
+            /* the client went away or broke the protocol */
+        }
+    }
+
+    /** Returns a new session set up by the setting line SETTING. */
+    private Session open(String setting) {
+        synchronized (_machine) {
+            _machine.setupMachine(setting);
+            return new Session(new TableEngine(_machine));
+        }
+    }
+
+    /** Returns session ID of SESSIONS. */
+    private static Session session(HashMap<Integer, Session> sessions,
+                                   int id) {
+        Session result = sessions.get(id);
+        if (result == null) {
+            throw error("no session %d", id);
+        }
+        return result;
+    }
+
+    /** Write the start of a reply with STATUS to the request tagged TAG
+     *  to OUT. */
+    private static void reply(DataOutputStream out, int status, int tag)
+        throws IOException {
+        out.writeByte(status);
+        out.writeInt(tag);
+    }
+
+    /** Returns a stream reading from CHANNEL.  Unlike those of Channels,
+     *  it does not hold a lock shared with outputOf(CHANNEL), so one thread
+     *  may read while another writes. */
+    static InputStream inputOf(SocketChannel channel) {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return len == 0 ? 0 : channel.read(ByteBuffer.wrap(b, off,
+                        len));
+            }
+        };
+    }
+
+    /** Returns a stream writing to CHANNEL, which does not hold a lock
+     *  shared with inputOf(CHANNEL). */
+    static OutputStream outputOf(SocketChannel channel) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        };
+    }
+
+    /** Returns a string of the protocol read from IN. */
+    static String readString(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0 || len > MAX_STRING) {
+            throw new IOException("bad string length " + len);
+        }
+        byte[] bytes = new byte[len];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Write S as a string of the protocol to OUT. */
+    static void writeString(DataOutputStream out, String s)
+        throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** A machine set up for one client, stepping on its own on an engine
+     *  specialized to its shape. */
+    private final class Session {
+
+        /** A session starting from the state of ENGINE. */
+        Session(TableEngine engine) {
+            _start = engine;
+            _engine = EngineCompiler.specialize(engine);
+        }
+
+        /** Returns the conversion of TEXT, dropping the characters that
+         *  are not in the alphabet, as Machine.convert does. */
+        String convert(String text) {
+            StringBuilder result = new StringBuilder(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (_alphabet.contains(c)) {
+                    result.append(_alphabet.toChar(
+                            _engine.convert(_alphabet.toInt(c))));
+                }
+            }
+            if (Metrics.ENABLED) {
+                Metrics.GLOBAL.symbols(result.length());
+            }
+            return result.toString();
+        }
+
+        /** Move to where the machine is after converting OFFSET letters
+         *  from the setting, in time that does not grow with OFFSET. */
+        void seek(long offset) {
+            if (offset < 0) {
+                throw error("negative offset %d", offset);
+            }
+            _engine = EngineCompiler.specialize(_start);
+            _engine.skip(offset);
+        }
+
+        /** The state just after setup. */
+        private final TableEngine _start;
+
+        /** The current state. */
+        private TableEngine _engine;
+    }
+
+    /** Opcodes of the requests. */
+    static final int OPEN = 1, CONVERT = 2, SEEK = 3, CLOSE = 4;
+
+    /** Statuses of the replies. */
+    static final int OK = 0, ERROR = 1;
+
+    /** Default TCP port. */
+    static final int DEFAULT_PORT = 6151;
+
+    /** Longest string accepted, in bytes. */
+    static final int MAX_STRING = 1 << 24;
+
+    /** Size of the stream buffers of a connection. */
+    private static final int BUFFER = 1 << 14;
+
+    /** Connections waiting to be accepted. */
+    private static final int BACKLOG = 1024;
+
+    /** The machine shared by all sessions, locked while set up. */
+    private final Machine _machine;
+
+    /** Alphabet of the machine. */
+    private final Alphabet _alphabet;
+
+    /** Socket the clients connect to. */
+    private ServerSocketChannel _server;
+
+    /** Address of _server. */
+    private SocketAddress _address;
+
+    /** Thread accepting clients. */
+    private Thread _acceptor;
+
+    /** Runs the connections. */
+    private ExecutorService _connections;
+}
@@ -0,0 +1,141 @@
+package enigma;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the EnigmaServer class.
+ *  @author Jerry
+ */
+public class EnigmaServerTest {
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Setting lines used by the tests. */
+    private static final String SETTING1 =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+    private static final String SETTING2 =
+        "* C Gamma VI VII VIII ZZYM BDFB (AQ) (EP)";
+
+    /** Returns the conversion of TEXT by a fresh machine set up by
+     *  SETTING. */
+    private String expected(String setting, String text) {
+        Machine machine = Machine.makeAMachine(NAVALDEFAULT);
+        machine.setupMachine(setting);
+        return machine.convert(text);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkSessions() {
+        try (EnigmaServer server = new EnigmaServer(NAVALDEFAULT);
+             EnigmaClient client = new EnigmaClient(server.start(0))) {
+            int s1 = client.open(SETTING1);
+            int s2 = client.open(SETTING2);
+            String text = "FROM HIS SHOULDER HIAWATHA";
+            String whole = expected(SETTING1, text + text);
+            int n = whole.length() / 2;
+            assertEquals(whole.substring(0, n), client.convert(s1, text));
+            assertEquals(expected(SETTING2, text), client.convert(s2, text));
+            assertEquals(whole.substring(n), client.convert(s1, text));
+
+            client.seek(s1, n);
+            assertEquals(whole.substring(n), client.convert(s1, text));
+            client.seek(s1, 0);
+            assertEquals(whole.substring(0, n), client.convert(s1, text));
+            client.seek(s1, Long.MAX_VALUE / 2);
+            client.seek(s1, 0);
+            assertEquals(whole.substring(0, n), client.convert(s1, text));
+
+            client.close(s2);
+            try {
+                client.convert(s2, text);
+                fail("converted in a closed session");
+            } catch (EnigmaException excp) {
+                /* expected */
+            }
+            try {
+                client.open("* B Beta III IV Zeta AXLE");
+                fail("opened a session with a missing rotor");
+            } catch (EnigmaException excp) {
+                /* expected */
+            }
+            assertEquals(whole.substring(n), client.convert(s1, text));
+        }
+    }
+
+    @Test
+    public void checkPipelined() {
+        try (EnigmaServer server = new EnigmaServer(NAVALDEFAULT);
+             EnigmaClient client = new EnigmaClient(server.start(0))) {
+            int session = client.open(SETTING2);
+            List<String> texts = new ArrayList<>();
+            StringBuilder all = new StringBuilder();
+            for (int i = 0; i < 2000; i++) {
+                String text = Workloads.message(26, 1 + i % 97, i);
+                texts.add(text);
+                all.append(text);
+            }
+            List<String> result = client.convertAll(session, texts);
+            String whole = expected(SETTING2, all.toString());
+            int at = 0;
+            for (int i = 0; i < texts.size(); i++) {
+                int len = texts.get(i).length();
+                assertEquals(whole.substring(at, at + len), result.get(i));
+                at += len;
+            }
+        }
+    }
+
+    @Test
+    public void checkBadOpcode() throws Exception {
+        try (EnigmaServer server = new EnigmaServer(NAVALDEFAULT);
+             Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                     server.start(0))) {
+            DataOutputStream out =
+                new DataOutputStream(socket.getOutputStream());
+            DataInputStream in =
+                new DataInputStream(socket.getInputStream());
+            out.writeByte(99);
+            out.writeInt(7);
+            out.flush();
+            assertEquals(EnigmaServer.ERROR, in.read());
+            assertEquals(7, in.readInt());
+            assertEquals("bad opcode 99", EnigmaServer.readString(in));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void checkUnixSocket() throws Exception {
+        Path dir = Files.createTempDirectory("enigma");
+        Path socket = dir.resolve("enigma.sock");
+        try (EnigmaServer server = new EnigmaServer(NAVALDEFAULT)) {
+            server.start(socket);
+            try (EnigmaClient client = new EnigmaClient(server.address())) {
+                int session = client.open(SETTING1);
+                assertEquals(expected(SETTING1, "HELLOWORLD"),
+                        client.convert(session, "HELLO WORLD"));
+            }
+        } finally {
+            Files.deleteIfExists(socket);
+            Files.delete(dir);
+        }
+    }
+}
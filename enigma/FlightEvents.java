@@ -0,0 +1,96 @@
+package enigma;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/** Java Flight Recorder events of the machine, so that its setups, slow
+ *  messages and double steps can be lined up with allocation and GC in
+ *  one recording (e.g. java -XX:StartFlightRecording ...).  The timed
+ *  events have thresholds, so by default only the slow ones are written;
+ *  lower them in a .jfc file or with Recording.enable(...).withThreshold
+ *  to see every one.  An event costs nothing more than a check of a flag
+ *  when it is not recorded.
+ *  @author Jerry
+ */
+final class FlightEvents {
+
+    /** Not instantiable. */
+    private FlightEvents() {
+    }
+
+    /** A setup of a machine from a setting line. */
+    @Name("enigma.Setup")
+    @Label("Machine Setup")
+    @Category("Enigma")
+    @Description("Parsing a setting line and setting up a machine by it")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static class Setup extends Event {
+        /** The setting line. */
+        @Label("Setting")
+        String setting;
+
+        /** Time spent parsing the setting line. */
+        @Label("Parse Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long parseTime;
+    }
+
+    /** An insertion of rotors into the slots of a machine. */
+    @Name("enigma.RotorInsert")
+    @Label("Rotor Insert")
+    @Category("Enigma")
+    @Description("Putting rotors into the slots of a machine")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static class RotorInsert extends Event {
+        /** The names of the rotors, reflector first. */
+        @Label("Rotors")
+        String rotors;
+
+        /** The number of slots of the machine. */
+        @Label("Slots")
+        int slots;
+    }
+
+    /** A message line that took long to convert and print. */
+    @Name("enigma.SlowMessage")
+    @Label("Slow Message")
+    @Category("Enigma")
+    @Description("Converting and printing a message line")
+    @Threshold("10 ms")
+    @StackTrace(false)
+    static class SlowMessage extends Event {
+        /** The letters converted. */
+        @Label("Length")
+        int length;
+
+        /** The setting line the machine was last set up with. */
+        @Label("Setting")
+        String setting;
+    }
+
+    /** A double step: a rotor advancing, without a notch to its right, on
+     *  its own notch.  Recorded only where a machine steps its Rotor
+     *  objects; its engines step tables and record none. */
+    @Name("enigma.DoubleStep")
+    @Label("Double Step")
+    @Category("Enigma")
+    @Description("A rotor stepping twice in a row on its own notch")
+    @StackTrace(false)
+    static class DoubleStep extends Event {
+        /** The rotor that double stepped. */
+        @Label("Rotor")
+        String rotor;
+
+        /** Its position before the step. */
+        @Label("Position")
+        int position;
+    }
+}
@@ -0,0 +1,64 @@
+package enigma;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the FlightEvents class.
+ *  @author Jerry
+ */
+public class FlightEventsTest {
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkFlightEvents() throws Exception {
+        Path file = Files.createTempFile("enigma", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("enigma.Setup").withThreshold(Duration.ZERO);
+            recording.enable("enigma.RotorInsert")
+                .withThreshold(Duration.ZERO);
+            recording.enable("enigma.DoubleStep");
+            recording.start();
+            Machine machine = Machine.makeAMachine(NAVALDEFAULT);
+            machine.setupMachine("* B Beta I II III AADV AAAA");
+            EnginePlanner.calibrate(machine);
+            machine.convert(0);
+            machine.convert(0);
+            recording.stop();
+            recording.dump(file);
+        }
+        Map<String, Integer> counts = new HashMap<>();
+        String setting = null, rotor = null;
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            String name = event.getEventType().getName();
+            counts.merge(name, 1, Integer::sum);
+            if (name.equals("enigma.Setup")) {
+                setting = event.getString("setting");
+            } else if (name.equals("enigma.DoubleStep")) {
+                rotor = event.getString("rotor");
+            }
+        }
+        Files.delete(file);
+        assertEquals(Integer.valueOf(1), counts.get("enigma.Setup"));
+        assertEquals(Integer.valueOf(1), counts.get("enigma.RotorInsert"));
+        assertEquals(Integer.valueOf(1), counts.get("enigma.DoubleStep"));
+        assertEquals("* B Beta I II III AADV AAAA", setting);
+        assertEquals("II", rotor);
+    }
+}
@@ -0,0 +1,159 @@
+package enigma;
+
+/** A table of indices into an alphabet, such as a mapping of each of
+ *  0..size()-1 to one of 0..size()-1, stored in the narrowest array that
+ *  holds them:
+ *  bytes for alphabets of up to 256 characters, shorts for up to 65536,
+ *  and ints beyond.  A 26-character rotor's wiring and inverse then take
+ *  52 bytes between them, and all of a machine's tables share a few cache
+ *  lines.  A program normally runs one width, so lookups stay monomorphic.
+ *  Only Permutation, and so the Rotor and Machine path, is narrowed;
+ *  TableEngine and the engines generated from it keep flat int tables.
+ *  @author Jerry
+ */
+abstract class IndexTable {
+
+    /** Returns a new table for an alphabet of SIZE, mapping every index to
+     *  itself, of the narrowest width for SIZE. */
+    static IndexTable identity(int size) {
+        IndexTable result = of(size, size);
+        for (int i = 0; i < size; i++) {
+            result.set(i, i);
+        }
+        return result;
+    }
+
+    /** Returns a new table of LENGTH entries, all 0, of the narrowest
+     *  width for indices into an alphabet of SIZE. */
+    static IndexTable of(int length, int size) {
+        if (size <= BYTE_LIMIT) {
+            return new ByteTable(length);
+        } else if (size <= SHORT_LIMIT) {
+            return new ShortTable(length);
+        }
+        return new IntTable(length);
+    }
+
+    /** Returns the number of entries. */
+    abstract int size();
+
+    /** Returns the entry at I, 0 <= I < size(). */
+    abstract int get(int i);
+
+    /** Set the entry at I to V, 0 <= V < size(). */
+    abstract void set(int i, int v);
+
+    /** Returns the bytes taken by each entry. */
+    abstract int width();
+
+    /** Returns my entries as a new int array. */
+    int[] toArray() {
+        int[] result = new int[size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = get(i);
+        }
+        return result;
+    }
+
+    /** Largest alphabet with a table of bytes. */
+    static final int BYTE_LIMIT = 1 << 8;
+
+    /** Largest alphabet with a table of shorts. */
+    static final int SHORT_LIMIT = 1 << 16;
+
+    /** A table of unsigned bytes. */
+    private static final class ByteTable extends IndexTable {
+
+        /** A table of SIZE entries. */
+        ByteTable(int size) {
+            _table = new byte[size];
+        }
+
+        @Override
+        int size() {
+            return _table.length;
+        }
+
+        @Override
+        int get(int i) {
+            return _table[i] & 0xff;
+        }
+
+        @Override
+        void set(int i, int v) {
+            _table[i] = (byte) v;
+        }
+
+        @Override
+        int width() {
+            return Byte.BYTES;
+        }
+
+        /** The entries. */
+        private final byte[] _table;
+    }
+
+    /** A table of unsigned shorts. */
+    private static final class ShortTable extends IndexTable {
+
+        /** A table of SIZE entries. */
+        ShortTable(int size) {
+            _table = new short[size];
+        }
+
+        @Override
+        int size() {
+            return _table.length;
+        }
+
+        @Override
+        int get(int i) {
+            return _table[i] & 0xffff;
+        }
+
+        @Override
+        void set(int i, int v) {
+            _table[i] = (short) v;
+        }
+
+        @Override
+        int width() {
+            return Short.BYTES;
+        }
+
+        /** The entries. */
+        private final short[] _table;
+    }
+
+    /** A table of ints. */
+    private static final class IntTable extends IndexTable {
+
+        /** A table of SIZE entries. */
+        IntTable(int size) {
+            _table = new int[size];
+        }
+
+        @Override
+        int size() {
+            return _table.length;
+        }
+
+        @Override
+        int get(int i) {
+            return _table[i];
+        }
+
+        @Override
+        void set(int i, int v) {
+            _table[i] = v;
+        }
+
+        @Override
+        int width() {
+            return Integer.BYTES;
+        }
+
+        /** The entries. */
+        private final int[] _table;
+    }
+}
@@ -0,0 +1,159 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Exhaustive search of start positions against a crib, a piece of
+ *  plaintext known to encipher to a piece of ciphertext.  Candidates are
+ *  tried 64 at a time on a SlicedEngine, one lane per candidate: a live
+ *  mask keeps the candidates still consistent with the crib, each crib
+ *  letter clears the bits of those that miss it, and a block stops as soon
+ *  as every candidate in it has failed.  Most wrong positions fail on the
+ *  first letter or two.
+ *
+ *  A KeySearch holds nothing but its crib, so threads may share one; each
+ *  search, and each caller of match, works on an engine of its own.
+ *  @author Jerry
+ */
+class KeySearch {
+
+    /** A search for the settings that convert the letters of PLAIN to
+     *  the letters of CIPHER in ALPHABET.  Characters outside the alphabet
+     *  are ignored, as in Machine.convert. */
+    KeySearch(String plain, String cipher, Alphabet alphabet) {
+        _plain = symbols(plain, alphabet);
+        _cipher = symbols(cipher, alphabet);
+        if (_plain.length != _cipher.length || _plain.length == 0) {
+            throw new EnigmaException("crib plaintext and ciphertext must "
+                    + "have the same, non-zero, number of letters");
+        }
+        boolean selfMapped = false;
+        for (int t = 0; t < _plain.length; t++) {
+            selfMapped |= _plain[t] == _cipher[t];
+        }
+        _selfMapped = selfMapped;
+    }
+
+    /** Returns the number of letters in my crib. */
+    int length() {
+        return _plain.length;
+    }
+
+    /** Returns the rotor orders and start positions, each written as in
+     *  a setting line without the leading asterisk and the ring settings,
+     *  that convert my crib on the machine configured by CONFIGLINES, with
+     *  every ring setting at the first letter and the plugboard PLUGBOARD.
+     *  Every rotor order the configuration allows is tried. */
+    List<String> search(ArrayList<String> configLines, String plugboard) {
+        Machine machine = Machine.makeAMachine(configLines);
+        List<String> result = new ArrayList<>();
+        for (String order : CycleCatalog.allOrders(configLines)) {
+            machine.setupMachine("* " + order + " " + plugboard);
+            for (String posns : search(machine)) {
+                result.add(order + " " + posns);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the names (as in Machine.currentState()) of the start
+     *  positions of MACHINE, as currently set up apart from its positions,
+     *  that convert my crib. */
+    List<String> search(Machine machine) {
+        TableEngine base = new TableEngine(machine);
+        List<String> result = new ArrayList<>();
+        for (long p : search(base, 0, base.numPositions())) {
+            result.add(TableEngine.positionName(p, machine.alphabet(),
+                    base.numRotors() - 1));
+        }
+        return result;
+    }
+
+    /** Returns the numbers of the start positions in [FROM, TO) of the
+     *  setup of BASE that convert my crib. */
+    List<Long> search(TableEngine base, long from, long to) {
+        List<Long> result = new ArrayList<>();
+        SlicedEngine engine = new SlicedEngine(base);
+        int[] prefix = new int[BLOCK];
+        for (long first = from; first < to; first += BLOCK) {
+            int count = (int) Math.min(BLOCK, to - first);
+            long found = match(engine, first, count, prefix);
+            while (found != 0) {
+                int l = Long.numberOfTrailingZeros(found);
+                result.add(first + l);
+                found &= found - 1;
+            }
+        }
+        return result;
+    }
+
+    /** Try the COUNT (at most 64) start positions numbered from FIRST on
+     *  ENGINE against my crib.  Sets PREFIX[l] to the number of crib
+     *  letters candidate FIRST+l matched before its first miss, and returns
+     *  the mask of the candidates that matched all of them.  The lanes are
+     *  converted together while more than FEW of them are live, usually
+     *  for the first letter only; the few left, about one in the size of
+     *  the alphabet, are then followed one at a time. */
+    long match(SlicedEngine engine, long first, int count, int[] prefix) {
+        engine.setPosition(first, count);
+        long live = engine.lanes();
+        java.util.Arrays.fill(prefix, 0, count, 0);
+        if (_selfMapped && engine.derangement()) {
+            return 0;
+        }
+        for (int t = 0; t < _plain.length && Long.bitCount(live) > FEW;
+             t++) {
+            engine.step();
+            long hit = engine.converts(_plain[t], _cipher[t], live);
+            for (long miss = t == 0 ? 0 : live & ~hit; miss != 0;
+                 miss &= miss - 1) {
+                prefix[Long.numberOfTrailingZeros(miss)] = t;
+            }
+            live &= hit;
+        }
+        for (long bits = live; bits != 0; bits &= bits - 1) {
+            int l = Long.numberOfTrailingZeros(bits);
+            TableEngine lane = engine.lane(l);
+            int u = 0;
+            while (u < _plain.length
+                   && lane.convert(_plain[u]) == _cipher[u]) {
+                u++;
+            }
+            prefix[l] = u;
+            if (u < _plain.length) {
+                live &= ~(1L << l);
+            }
+        }
+        return live;
+    }
+
+    /** Returns the alphabet indices of the characters of TEXT that are in
+     *  ALPHABET. */
+    private static int[] symbols(String text, Alphabet alphabet) {
+        int[] result = new int[text.length()];
+        int n = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (alphabet.contains(c)) {
+                result[n++] = alphabet.toInt(c);
+            }
+        }
+        return java.util.Arrays.copyOf(result, n);
+    }
+
+    /** Number of candidates tried together, one per lane. */
+    static final int BLOCK = SlicedEngine.LANES;
+
+    /** Live lanes below which a block is followed one lane at a time. */
+    private static final int FEW = 4;
+
+    /** Crib plaintext as alphabet indices. */
+    private final int[] _plain;
+
+    /** Crib ciphertext as alphabet indices. */
+    private final int[] _cipher;
+
+    /** True if some letter of the crib enciphers to itself, which no
+     *  setting of a machine whose reflector is a derangement does. */
+    private final boolean _selfMapped;
+}
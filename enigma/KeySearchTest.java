@@ -0,0 +1,166 @@
+package enigma;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the KeySearch and SlicedEngine classes.
+ *  @author Jerry
+ */
+public class KeySearchTest {
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Returns the same as KeySearch.search(BASE, FROM, TO) for the crib
+     *  PLAIN and CIPHER, trying one candidate at a time on a single
+     *  TableEngine. */
+    private static List<Long> scalarSearch(TableEngine base, String plain,
+                                           String cipher, long from,
+                                           long to) {
+        List<Long> result = new ArrayList<>();
+        TableEngine engine = new TableEngine(base);
+        for (long p = from; p < to; p++) {
+            engine.setPosition(p);
+            int t = 0;
+            while (t < plain.length() && engine.convert(UPPER.toInt(
+                    plain.charAt(t))) == UPPER.toInt(cipher.charAt(t))) {
+                t++;
+            }
+            if (t == plain.length()) {
+                result.add(p);
+            }
+        }
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkSlicedEngine() {
+        Machine machine = Machine.makeAMachine(NAVALDEFAULT);
+        machine.setupMachine("* B Beta I II III AAAA AAAA (AQ) (EP)");
+        TableEngine base = new TableEngine(machine);
+        base.setRingPositions(new int[] {0, 3, 17, 5});
+        SlicedEngine sliced = new SlicedEngine(base);
+        /* each block is {first, count}; a block starting where the last
+           ended is set from it, however many lanes that one had */
+        long[][] blocks = {{0, 64}, {26 * 26 * 26 * 26 - 40, 40},
+                           {26 * 26 * 4 + 26 * 7, 64}, {12345, 64},
+                           {26 * 26 * 16 + 26 * 4 + 2, 64},
+                           {26 * 26 * 5 - 30, 64}, {26 * 26 * 5 - 30 + 64, 64},
+                           {500, 10}, {510, 64}, {574, 1}, {575, 64}};
+        for (long[] block : blocks) {
+            long first = block[0];
+            int count = (int) block[1];
+            sliced.setPosition(first, count);
+            TableEngine[] lanes = new TableEngine[count];
+            for (int l = 0; l < count; l++) {
+                lanes[l] = new TableEngine(base);
+                lanes[l].setPosition(first + l);
+            }
+            for (int t = 0; t < 700; t++) {
+                sliced.step();
+                int p = (t * 7) % 26;
+                long[] converts = new long[26];
+                for (int c = 0; c < 26; c++) {
+                    converts[c] = sliced.converts(p, c, -1L);
+                }
+                for (int l = 0; l < count; l++) {
+                    lanes[l].step();
+                    int expected = lanes[l].substitute(p);
+                    boolean same = Arrays.equals(lanes[l].positions(),
+                            sliced.positions(l));
+                    for (int c = 0; c < 26; c++) {
+                        same &= (c == expected)
+                            == ((converts[c] >>> l & 1) != 0);
+                    }
+                    if (!same) {
+                        fail(msg("sliced", "wrong lane %d at %d", l, t));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void checkKeySearch() {
+        Machine machine = Machine.makeAMachine(NAVALDEFAULT);
+        machine.setupMachine("* B Beta I II III AXQD AAAA (AQ) (EP)");
+        String plain = "WETTERVORHERSAGEBISKAYA";
+        String cipher = machine.convert(plain);
+
+        machine.setupMachine("* B Beta I II III AAAA AAAA (AQ) (EP)");
+        KeySearch search = new KeySearch(plain, cipher, machine.alphabet());
+        TableEngine base = new TableEngine(machine);
+        long from = 26 * 26 * 26 * UPPER.toInt('A'), to = from + 26 * 26 * 26;
+        List<Long> found = search.search(base, from, to);
+        assertEquals(scalarSearch(base, plain, cipher, from, to), found);
+        assertEquals(1, found.size());
+        assertEquals("AXQD", TableEngine.positionName(found.get(0), UPPER, 4));
+
+        int[] prefix = new int[KeySearch.BLOCK];
+        SlicedEngine engine = new SlicedEngine(base);
+        long first = found.get(0) - 10;
+        assertEquals(1L << 10, search.match(engine, first, 64, prefix));
+        assertEquals(plain.length(), prefix[10]);
+        TableEngine scalar = new TableEngine(base);
+        for (int l = 0; l < 64; l++) {
+            scalar.setPosition(first + l);
+            int t = 0;
+            while (t < plain.length() && scalar.convert(UPPER.toInt(
+                    plain.charAt(t))) == UPPER.toInt(cipher.charAt(t))) {
+                t++;
+            }
+            assertEquals(msg("match", "prefix of lane %d", l), t, prefix[l]);
+        }
+    }
+
+    @Test
+    public void checkKeySearchFixedPoint() {
+        ArrayList<String> config = new ArrayList<>(NAVALDEFAULT);
+        config.set(12, config.get(12).replace(" (TV)", ""));
+        Machine machine = Machine.makeAMachine(config);
+        machine.setupMachine("* B Beta I II III AXQD AAAA");
+        String plain = "TTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTT";
+        String cipher = machine.convert(plain);
+        assertTrue("crib has no letter enciphered to itself",
+                cipher.indexOf('T') >= 0);
+
+        machine.setupMachine("* B Beta I II III AAAA AAAA");
+        KeySearch search = new KeySearch(plain, cipher, machine.alphabet());
+        TableEngine base = new TableEngine(machine);
+        assertFalse(base.derangement());
+        long from = 26 * 26 * 26 * UPPER.toInt('A'), to = from + 26 * 26 * 26;
+        List<Long> found = search.search(base, from, to);
+        assertEquals(scalarSearch(base, plain, cipher, from, to), found);
+        assertEquals(1, found.size());
+        assertEquals("AXQD", TableEngine.positionName(found.get(0), UPPER, 4));
+
+        machine = Machine.makeAMachine(NAVALDEFAULT);
+        machine.setupMachine("* B Beta I II III AAAA AAAA");
+        assertTrue(new TableEngine(machine).derangement());
+    }
+
+    @Test
+    public void checkKeySearchCatalog() {
+        ArrayList<String> config = new ArrayList<>(NAVALDEFAULT);
+        config.set(1, " 3 2");
+        Machine machine = Machine.makeAMachine(config);
+        machine.setupMachine("* C III I KD (AQ) (EP)");
+        String plain = "WETTERVORHERSAGEBISKAYA";
+        String cipher = machine.convert(plain);
+        KeySearch search = new KeySearch(plain, cipher, machine.alphabet());
+        assertEquals(List.of("C III I KD"), search.search(config,
+                "(AQ) (EP)"));
+    }
+}
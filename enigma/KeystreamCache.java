@@ -0,0 +1,457 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static enigma.EnigmaException.*;
+
+/** A cache of keystreams, shared by every thread that converts under the
+ *  same configuration and setting line.  The keystream of a setting is
+ *  the substitution of the whole alphabet at each keypress from the
+ *  setting on, so that converting the t-th symbol c of a message is one
+ *  lookup, keystream(t)[c], however many rotors there are.
+ *
+ *  A keystream is kept in segments, each the substitutions of a run of
+ *  consecutive keypresses.  A segment is built the first time a thread
+ *  needs it, from the rotor positions left by the nearest cached segment
+ *  before it, and is never changed after, so threads read it without
+ *  locking.  Two threads that need a missing segment at once may both
+ *  build it; the first to store it wins and the other's is dropped.
+ *
+ *  Segments, and the keystreams themselves with their engines, count
+ *  against a byte budget for the whole cache.  When either takes it over
+ *  budget, the segments least recently used, of any keystream, are
+ *  dropped until it is back under, and then, if need be, the keystreams
+ *  least recently used that have no segments left; a thread still
+ *  reading a dropped segment or keystream finishes with it undisturbed.
+ *  @author Jerry
+ */
+class KeystreamCache {
+
+    /** The substitutions of one setting, from its first keypress on. */
+    final class Keystream {
+
+        /** The keystream of SETTING in CONFIG, of a machine set up as
+         *  ENGINE is now, whose alphabet is ALPHABET. */
+        private Keystream(Config config, String setting, TableEngine engine,
+                          Alphabet alphabet) {
+            _config = config;
+            _setting = setting;
+            _start = engine;
+            _alphabet = alphabet;
+            _size = engine.size();
+            _span = Math.max(1, SEGMENT_ENTRIES / _size);
+            _segments = new ConcurrentSkipListMap<>();
+        }
+
+        /** Returns my alphabet. */
+        Alphabet alphabet() {
+            return _alphabet;
+        }
+
+        /** Returns the conversion of C, an index in the alphabet, as the
+         *  symbol at keypress T, counting from 0. */
+        int convert(long t, int c) {
+            return segment(t / _span).get((int) (t % _span) * _size + c);
+        }
+
+        /** Convert the LEN alphabet indices of SYMBOLS starting at OFF in
+         *  place, as the symbols at keypresses FROM onwards. */
+        void convert(long from, int[] symbols, int off, int len) {
+            IndexTable table = null;
+            for (int i = off, j = _span; i < off + len; i++, j++) {
+                if (j == _span) {
+                    long t = from + i - off;
+                    table = segment(t / _span);
+                    j = (int) (t % _span);
+                }
+                symbols[i] = table.get(j * _size + symbols[i]);
+            }
+        }
+
+        /** Returns the conversion of MSG, whose characters outside my
+         *  alphabet are dropped, as the symbols at keypresses FROM
+         *  onwards, the same as a machine set up by my setting and then
+         *  advanced FROM keypresses would give. */
+        String convert(long from, String msg) {
+            int[] symbols = new int[msg.length()];
+            int n = 0;
+            for (int i = 0; i < msg.length(); i++) {
+                char c = msg.charAt(i);
+                if (_alphabet.contains(c)) {
+                    symbols[n++] = _alphabet.toInt(c);
+                }
+            }
+            convert(from, symbols, 0, n);
+            char[] result = new char[n];
+            for (int i = 0; i < n; i++) {
+                result[i] = _alphabet.toChar(symbols[i]);
+            }
+            return new String(result);
+        }
+
+        /** Returns the keypresses in each of my segments. */
+        int span() {
+            return _span;
+        }
+
+        /** Returns the table of segment K, building it if need be. */
+        private IndexTable segment(long k) {
+            Segment segment = _segments.get(k);
+            if (segment == null) {
+                _misses.increment();
+                segment = build(k);
+                Segment old = _segments.putIfAbsent(k, segment);
+                if (old != null) {
+                    segment = old;
+                } else {
+                    charge(segment.bytes());
+                    if (_dropped && drop(segment)) {
+                        _bytes.addAndGet(-segment.bytes());
+                    }
+                }
+            } else {
+                _hits.increment();
+            }
+            segment.lastUsed = _clock.get();
+            _lastUsed = segment.lastUsed;
+            return segment.table;
+        }
+
+        /** Returns a new segment K, started from the nearest segment
+         *  before it that is cached. */
+        private Segment build(long k) {
+            TableEngine engine = new TableEngine(_start);
+            Map.Entry<Long, Segment> before = _segments.floorEntry(k - 1);
+            if (before != null) {
+                engine.setPositions(before.getValue().end);
+                engine.skip((k - 1 - before.getKey()) * _span);
+            } else {
+                engine.skip(k * _span);
+            }
+            IndexTable table = IndexTable.of(_span * _size, _size);
+            for (int j = 0, e = 0; j < _span; j++) {
+                engine.step();
+                for (int c = 0; c < _size; c++, e++) {
+                    table.set(e, engine.substitute(c));
+                }
+            }
+            return new Segment(this, k, table, engine.positions());
+        }
+
+        /** Drop SEGMENT, if it is still mine, and return true iff it
+         *  was. */
+        private boolean drop(Segment segment) {
+            return _segments.remove(segment.index, segment);
+        }
+
+        /** Returns the bytes I take beyond my segments, roughly: my
+         *  engine's tables. */
+        private long bytes() {
+            int n = _start.numRotors();
+            return (long) _size * (Integer.BYTES * (2 * n + 2) + n)
+                + KEYSTREAM_OVERHEAD;
+        }
+
+        /** Drop me from the cache, if I am still in it and have no
+         *  segments, and return true iff I was.  A segment stored after I
+         *  am dropped is dropped again by whoever stored it. */
+        private boolean dropIfEmpty() {
+            if (!_segments.isEmpty()
+                || !_config.streams.remove(_setting, this)) {
+                return false;
+            }
+            _dropped = true;
+            for (Segment segment : _segments.values()) {
+                if (drop(segment)) {
+                    _bytes.addAndGet(-segment.bytes());
+                }
+            }
+            return true;
+        }
+
+        /** The configuration I belong to. */
+        private final Config _config;
+
+        /** My setting line. */
+        private final String _setting;
+
+        /** The engine at my setting, which is only copied. */
+        private final TableEngine _start;
+
+        /** My alphabet. */
+        private final Alphabet _alphabet;
+
+        /** Size of my alphabet. */
+        private final int _size;
+
+        /** Keypresses per segment. */
+        private final int _span;
+
+        /** My cached segments, by index. */
+        private final ConcurrentSkipListMap<Long, Segment> _segments;
+
+        /** Value of the cache's clock when I was last used. */
+        private volatile long _lastUsed;
+
+        /** True once I am dropped from the cache. */
+        private volatile boolean _dropped;
+    }
+
+    /** A cache of at most BUDGET bytes of segments. */
+    KeystreamCache(long budget) {
+        if (budget <= 0) {
+            throw error("keystream cache budget must be positive");
+        }
+        _budget = budget;
+        _configs = new ConcurrentHashMap<>();
+        _bytes = new AtomicLong();
+        _clock = new AtomicLong();
+        _evicting = new AtomicBoolean();
+        _hits = new LongAdder();
+        _misses = new LongAdder();
+        _evictions = new LongAdder();
+    }
+
+    /** Returns the cache of this process, whose budget is the system
+     *  property enigma.keystream.budget, in megabytes, or
+     *  DEFAULT_BUDGET_MB. */
+    static KeystreamCache shared() {
+        return Shared.CACHE;
+    }
+
+    /** Returns the keystream of the machine configured by CONFIGLINES and
+     *  set up by the setting line SETTING as a fresh machine would be. */
+    Keystream keystream(ArrayList<String> configLines, String setting) {
+        Config config = _configs.get(configLines);
+        if (config == null) {
+            config = new Config(configLines);
+            Config old = _configs.putIfAbsent(config.lines, config);
+            config = old == null ? config : old;
+        }
+        return config.keystream(setting.trim());
+    }
+
+    /** Returns the bytes of keystreams and segments cached. */
+    long bytes() {
+        return _bytes.get();
+    }
+
+    /** Returns the number of keystreams cached. */
+    int keystreams() {
+        int result = 0;
+        for (Config config : _configs.values()) {
+            result += config.streams.size();
+        }
+        return result;
+    }
+
+    /** Returns my budget, in bytes. */
+    long budget() {
+        return _budget;
+    }
+
+    /** Returns the number of segment lookups that found it cached. */
+    long hits() {
+        return _hits.sum();
+    }
+
+    /** Returns the number of segment lookups that built it. */
+    long misses() {
+        return _misses.sum();
+    }
+
+    /** Returns the number of segments and keystreams dropped to keep to
+     *  the budget. */
+    long evictions() {
+        return _evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("KeystreamCache %d/%d bytes hits=%d misses=%d "
+                + "evictions=%d", bytes(), budget(), hits(), misses(),
+                evictions());
+    }
+
+    /** Count BYTES of a new segment or keystream against the budget,
+     *  dropping the least recently used segments if it is over, and then
+     *  the least recently used keystreams left without any.  Only one
+     *  thread evicts at a time; the others go on, and the next one
+     *  charged after it is done checks again. */
+    private void charge(long bytes) {
+        _clock.incrementAndGet();
+        if (_bytes.addAndGet(bytes) <= _budget
+            || !_evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            ArrayList<Keystream> streams = new ArrayList<>();
+            ArrayList<Segment> all = new ArrayList<>();
+            for (Config config : _configs.values()) {
+                for (Keystream stream : config.streams.values()) {
+                    streams.add(stream);
+                    all.addAll(stream._segments.values());
+                }
+            }
+            all.sort((a, b) -> Long.compare(a.lastUsed, b.lastUsed));
+            long target = _budget - _budget / EVICTION_SLACK;
+            for (Segment s : all) {
+                if (_bytes.get() <= target) {
+                    break;
+                }
+                if (s.owner.drop(s)) {
+                    _bytes.addAndGet(-s.bytes());
+                    _evictions.increment();
+                }
+            }
+            streams.sort((a, b) -> Long.compare(a._lastUsed, b._lastUsed));
+            for (Keystream stream : streams) {
+                if (_bytes.get() <= target) {
+                    break;
+                }
+                if (stream.dropIfEmpty()) {
+                    _bytes.addAndGet(-stream.bytes());
+                    _evictions.increment();
+                }
+            }
+        } finally {
+            _evicting.set(false);
+        }
+    }
+
+    /** The keystreams of one configuration. */
+    private final class Config {
+
+        /** The keystreams of the machine configured by LINES. */
+        Config(ArrayList<String> lines) {
+            this.lines = new ArrayList<>(lines);
+            pool = new MachinePool(this.lines, POOL_CAPACITY);
+            streams = new ConcurrentHashMap<>();
+        }
+
+        /** Returns the keystream of SETTING. */
+        Keystream keystream(String setting) {
+            Keystream result = streams.get(setting);
+            if (result == null) {
+                try (MachinePool.Lease lease = pool.acquire(setting)) {
+                    Machine machine = lease.machine();
+                    result = new Keystream(this, setting,
+                            new TableEngine(machine), machine.alphabet());
+                }
+                Keystream old = streams.putIfAbsent(setting, result);
+                if (old == null) {
+                    result._lastUsed = _clock.get();
+                    charge(result.bytes());
+                } else {
+                    result = old;
+                }
+            }
+            result._lastUsed = _clock.get();
+            return result;
+        }
+
+        /** The configuration. */
+        final ArrayList<String> lines;
+
+        /** Machines to set up by each new setting. */
+        final MachinePool pool;
+
+        /** The keystreams, by setting line. */
+        final ConcurrentHashMap<String, Keystream> streams;
+    }
+
+    /** A run of substitutions of one keystream, never changed once
+     *  made. */
+    private static final class Segment {
+
+        /** Segment INDEX of OWNER, whose substitutions are TABLE, leaving
+         *  the rotors at END. */
+        Segment(Keystream owner, long index, IndexTable table, int[] end) {
+            this.owner = owner;
+            this.index = index;
+            this.table = table;
+            this.end = end;
+        }
+
+        /** Returns the bytes I take, roughly. */
+        long bytes() {
+            return (long) table.size() * table.width()
+                + (long) end.length * Integer.BYTES + SEGMENT_OVERHEAD;
+        }
+
+        /** The keystream I belong to. */
+        final Keystream owner;
+
+        /** My index in it. */
+        final long index;
+
+        /** Substitution at each of my keypresses: entry j * size + c is
+         *  the conversion of c at my j-th. */
+        final IndexTable table;
+
+        /** Positions of the rotors after my last keypress. */
+        final int[] end;
+
+        /** Value of the cache's clock when I was last used. */
+        volatile long lastUsed;
+    }
+
+    /** Holds the cache of this process, made when first asked for. */
+    private static final class Shared {
+
+        /** The cache. */
+        static final KeystreamCache CACHE = new KeystreamCache(
+                Long.getLong("enigma.keystream.budget", DEFAULT_BUDGET_MB)
+                << 20);
+    }
+
+    /** Budget of the cache of this process, in megabytes, by default. */
+    static final long DEFAULT_BUDGET_MB = 64;
+
+    /** Entries, keypresses times alphabet size, aimed at per segment. */
+    static final int SEGMENT_ENTRIES = 4096;
+
+    /** Bytes a segment takes beyond its tables, roughly. */
+    private static final int SEGMENT_OVERHEAD = 96;
+
+    /** Bytes a keystream takes beyond its engine's tables, roughly. */
+    private static final int KEYSTREAM_OVERHEAD = 256;
+
+    /** Eviction brings the cache down to 1 - 1/EVICTION_SLACK of the
+     *  budget, so that it does not evict again at the next segment. */
+    private static final int EVICTION_SLACK = 8;
+
+    /** Machines kept per configuration to set up new keystreams. */
+    private static final int POOL_CAPACITY = 2;
+
+    /** Most bytes of keystreams and segments at once. */
+    private final long _budget;
+
+    /** Keystreams by configuration. */
+    private final ConcurrentHashMap<List<String>, Config> _configs;
+
+    /** Bytes of keystreams and segments cached. */
+    private final AtomicLong _bytes;
+
+    /** Counts segments admitted, so that later uses are later. */
+    private final AtomicLong _clock;
+
+    /** True while a thread evicts. */
+    private final AtomicBoolean _evicting;
+
+    /** Segment lookups that found it cached. */
+    private final LongAdder _hits;
+
+    /** Segment lookups that built it. */
+    private final LongAdder _misses;
+
+    /** Segments and keystreams dropped. */
+    private final LongAdder _evictions;
+}
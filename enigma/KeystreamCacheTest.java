@@ -0,0 +1,110 @@
+package enigma;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the KeystreamCache class.
+ *  @author Jerry
+ */
+public class KeystreamCacheTest {
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkKeystreamCache() throws Exception {
+        KeystreamCache cache = new KeystreamCache(20000);
+        String[] settings = {
+            "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+            "* B Beta III IV I AXLE",
+            "* C Gamma I II III ZZZZ BCDE (AZ)",
+        };
+        String text = "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOG".repeat(40);
+        for (String setting : settings) {
+            KeystreamCache.Keystream stream =
+                cache.keystream(NAVALDEFAULT, setting);
+            for (int from : new int[] { 0, 1, 157, 999 }) {
+                Machine machine = Machine.makeAMachine(NAVALDEFAULT);
+                machine.setupMachine(setting);
+                machine.convert("A".repeat(from));
+                assertEquals(setting + " from " + from,
+                        machine.convert(text), stream.convert(from, text));
+            }
+        }
+        assertTrue(cache.evictions() > 0);
+        assertTrue(cache.hits() > 0);
+        assertTrue(cache.bytes() <= cache.budget());
+
+        Machine machine = Machine.makeAMachine(NAVALDEFAULT);
+        machine.setupMachine(settings[0]);
+        String expected = machine.convert(text);
+        List<Future<String>> results = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 16; i++) {
+            results.add(executor.submit(() -> cache.keystream(NAVALDEFAULT,
+                    settings[0]).convert(0, text)));
+        }
+        for (Future<String> result : results) {
+            assertEquals(expected, result.get());
+        }
+
+        AsyncEnigma async = new AsyncEnigma(NAVALDEFAULT, 2, executor);
+        async.setKeystreamCache(cache);
+        assertEquals(expected, StandardCharsets.UTF_8
+                .decode(async.convertAsync(settings[0],
+                        ByteBuffer.wrap(text.getBytes())).get())
+                .toString());
+        executor.shutdown();
+    }
+
+    @Test
+    public void checkKeystreamCacheSettings() {
+        KeystreamCache cache = new KeystreamCache(20000);
+        String text = "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOG";
+        for (int i = 0; i < 100; i++) {
+            String setting = "* B Beta III IV I AXL" + (char) ('A' + i % 26)
+                + " (" + (char) ('B' + i / 26) + "Z)";
+            Machine machine = Machine.makeAMachine(NAVALDEFAULT);
+            machine.setupMachine(setting);
+            assertEquals(setting, machine.convert(text),
+                    cache.keystream(NAVALDEFAULT, setting).convert(0, text));
+            assertTrue(cache.bytes() <= cache.budget());
+        }
+        assertTrue(cache.keystreams() < 100);
+
+        String setting = "* B Beta III IV I AXLE (HQ) (EX)";
+        KeystreamCache.Keystream stream =
+            cache.keystream(NAVALDEFAULT, setting);
+        for (long from : new long[] { 1000003, 1004000, 1000500 }) {
+            Machine machine = Machine.makeAMachine(NAVALDEFAULT);
+            machine.setupMachine(setting);
+            TableEngine engine = new TableEngine(machine);
+            engine.skip(from);
+            int[] symbols = new int[text.length()];
+            for (int i = 0; i < symbols.length; i++) {
+                symbols[i] = machine.alphabet().toInt(text.charAt(i));
+            }
+            engine.convert(symbols, 0, symbols.length);
+            StringBuilder expected = new StringBuilder();
+            for (int c : symbols) {
+                expected.append(machine.alphabet().toChar(c));
+            }
+            assertEquals("from " + from, expected.toString(),
+                    stream.convert(from, text));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package enigma;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A histogram of durations in nanoseconds, in the manner of HdrHistogram:
+ *  each power of two is split into 16 equal buckets, so any recorded value
+ *  is reported within about 6% of itself, from 1 ns to centuries, in a
+ *  fixed array of about a thousand counts.  Recording is lock-free and may
+ *  be done from any number of threads.
+ *  @author Jerry
+ */
+class LatencyHistogram {
+
+    /** An empty histogram. */
+    LatencyHistogram() {
+        _counts = new AtomicLongArray(BUCKETS);
+        _total = new LongAdder();
+        _sum = new LongAdder();
+    }
+
+    /** Record one duration of NANOS nanoseconds (negative counts as 0). */
+    void record(long nanos) {
+        _counts.incrementAndGet(index(Math.max(0, nanos)));
+        _total.increment();
+        _sum.add(nanos);
+    }
+
+    /** Returns the number of durations recorded. */
+    long count() {
+        return _total.sum();
+    }
+
+    /** Returns the mean of the durations recorded, or 0 if none. */
+    double mean() {
+        long n = _total.sum();
+        return n == 0 ? 0 : (double) _sum.sum() / n;
+    }
+
+    /** Returns the duration below which (within the bucket precision) the
+     *  fraction P of the recorded durations fall, 0 <= P <= 1, or 0 if
+     *  none were recorded. */
+    long percentile(double p) {
+        long n = 0;
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = _counts.get(i);
+            n += counts[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return highest(i);
+            }
+        }
+        return highest(BUCKETS - 1);
+    }
+
+    /** Returns the largest duration recorded, within the bucket precision,
+     *  or 0 if none. */
+    long max() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (_counts.get(i) != 0) {
+                return highest(i);
+            }
+        }
+        return 0;
+    }
+
+    /** Forget everything recorded. */
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            _counts.set(i, 0);
+        }
+        _total.reset();
+        _sum.reset();
+    }
+
+    /** Returns the bucket of a duration of NANOS >= 0. */
+    static int index(long nanos) {
+        if (nanos < SUB) {
+            return (int) nanos;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(nanos) - SUB_BITS;
+        return (shift << (SUB_BITS - 1)) + (int) (nanos >>> shift);
+    }
+
+    /** Returns the largest duration that falls into bucket I. */
+    static long highest(int i) {
+        if (i < SUB) {
+            return i;
+        }
+        int shift = (i >> (SUB_BITS - 1)) - 1;
+        long m = i - ((long) shift << (SUB_BITS - 1));
+        return ((m + 1) << shift) - 1;
+    }
+
+    /** Bits of a duration kept exactly: its top SUB_BITS bits. */
+    private static final int SUB_BITS = 5;
+
+    /** Durations below this are counted exactly. */
+    private static final int SUB = 1 << SUB_BITS;
+
+    /** Number of buckets, enough for any non-negative long. */
+    private static final int BUCKETS = index(Long.MAX_VALUE) + 1;
+
+    /** Count of durations in each bucket. */
+    private final AtomicLongArray _counts;
+
+    /** Number of durations recorded. */
+    private final LongAdder _total;
+
+    /** Sum of the durations recorded. */
+    private final LongAdder _sum;
+}
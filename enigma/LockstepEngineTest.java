@@ -0,0 +1,72 @@
+package enigma;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the LockstepEngine class.
+ *  @author Jerry
+ */
+public class LockstepEngineTest {
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Check that a LockstepEngine of LANES lanes, using the vector API
+     *  if VECTOR, converts one message fewer than its lanes as a Machine
+     *  does. */
+    private void checkLockstep(boolean vector, int lanes) {
+        String setting = "* B Beta I II III AAAA AAAA (AQ) (EP)";
+        Machine machine = Machine.makeAMachine(NAVALDEFAULT);
+        machine.setupMachine(setting);
+        LockstepEngine engine = new LockstepEngine(machine, lanes, vector);
+        if (!vector) {
+            assertFalse(engine.vectorized());
+        }
+        int[][] msgs = new int[lanes - 1][];
+        String[] starts = new String[msgs.length];
+        for (int l = 0; l < msgs.length; l++) {
+            msgs[l] = new int[500 + 37 * l];
+            for (int t = 0; t < msgs[l].length; t++) {
+                msgs[l][t] = (t * 5 + l) % 26;
+            }
+            starts[l] = "" + (char) ('A' + l) + (char) ('Q' + l % 3)
+                + (char) ('C' + l % 12 * 2) + (char) ('V' - l);
+            int[] posns = new int[4];
+            for (int i = 0; i < 4; i++) {
+                posns[i] = UPPER.toInt(starts[l].charAt(i));
+            }
+            engine.setPositions(l, posns);
+        }
+        int[][] expected = new int[msgs.length][];
+        for (int l = 0; l < msgs.length; l++) {
+            machine.setRotors(starts[l]);
+            expected[l] = new int[msgs[l].length];
+            for (int t = 0; t < msgs[l].length; t++) {
+                expected[l][t] = machine.convert(msgs[l][t]);
+            }
+        }
+        engine.convert(msgs);
+        for (int l = 0; l < msgs.length; l++) {
+            assertArrayEquals(msg("lockstep", "wrong lane %d of %d%s", l,
+                    lanes, engine.vectorized() ? " (vector)" : ""),
+                    expected[l], msgs[l]);
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkLockstepSameAsMachine() {
+        for (boolean vector : new boolean[] { true, false }) {
+            for (int lanes : new int[] { 8, 17, 19 }) {
+                checkLockstep(vector, lanes);
+            }
+        }
+    }
+}
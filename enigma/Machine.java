@@ -4,6 +4,9 @@ import javax.crypto.Mac;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Scanner;
 
 /** Class that represents a complete enigma machine.
@@ -44,6 +47,13 @@ class Machine {
      *    list[n]: ... ...
      *  from 2-n, every line is complete config to initialize a rotor. */
     public static Machine makeAMachine(ArrayList<String> configLines){
+        return makeAMachine(configLines, null);
+    }
+
+    /** Returns a Machine configured by CONFIGLINES, as above, whose rotors
+     *  keep their tables in ARENA unless it is null. */
+    static Machine makeAMachine(ArrayList<String> configLines,
+                                TableArena arena) {
         /* initialize alphabet */
         Alphabet alphabet = new Alphabet(configLines.get(0));
 
@@ -56,13 +66,65 @@ class Machine {
                     " big than numRotors[%d]", numPawls, numRotors));
         }
 
-        /* initialize all supported rotors */
+        /* initialize all supported rotors, sharing equal wirings */
+        Wirings wirings = new Wirings(alphabet, arena);
         ArrayList<Rotor> allRotors = new ArrayList<>();
         for(int i = 2; i < configLines.size(); i++){
-            allRotors.add(Rotor.makeARotor(alphabet, configLines.get(i)));
+            allRotors.add(Rotor.makeARotor(alphabet, configLines.get(i),
+                    wirings));
         }
 
-        return new Machine(alphabet, numRotors, numPawls, allRotors);
+        wirings.loaded();
+        Machine machine = new Machine(alphabet, numRotors, numPawls,
+                allRotors);
+        machine._wirings = wirings;
+        return machine;
+    }
+
+    /** Returns a new machine of the same rotors as this one, each its own
+     *  but sharing the permutation of mine, not yet set up. */
+    Machine copy() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        for (Rotor rotor : _allRotors.values()) {
+            rotors.add(rotor.copy());
+        }
+        Machine result = new Machine(_alphabet, _numRotors, _numPawls,
+                rotors);
+        result._summary = _summary;
+        result._wirings = _wirings;
+        return result;
+    }
+
+    /** Returns a copy of me as set up now, with rotors of its own, that
+     *  records nothing in Metrics or in flight recordings, so that
+     *  conversions may be tried on it without counting as anyone's. */
+    Machine quietCopy() {
+        Machine result = copy();
+        result._quiet = true;
+        Rotor prev = null;
+        for (int i = 0; i < _atWorkRotors.size(); i++) {
+            Rotor mine = _atWorkRotors.get(i);
+            Rotor rotor = result._allRotors.get(mine.name());
+            rotor.setQuiet();
+            rotor.set(mine.setting());
+            rotor.setRingPosition(mine.ringPosition());
+            if (i >= _numRotors - _numPawls) {
+                rotor.setLeftRotor(prev);
+                rotor.setPawl();
+            }
+            result._atWorkRotors.add(rotor);
+            prev = rotor;
+        }
+        result._plugboard = _plugboard;
+        result._ringPositions = _ringPositions;
+        result._configString = _configString;
+        return result;
+    }
+
+    /** Returns the wirings of my catalog, shared among my rotors, or null
+     *  if I was not made from a configuration. */
+    Wirings wirings() {
+        return _wirings;
     }
 
     /** Setup the machine to correct rotors at work according CONFIGSTRING,
@@ -75,19 +137,43 @@ class Machine {
      *    BDFB indicate the Beta - III's Ringstellung settings
      *    (AQ) (EP) ..., the plugboard*/
     void setupMachine(String configString){
+        FlightEvents.Setup event = new FlightEvents.Setup();
+        event.begin();
+        long start = event.isEnabled() ? System.nanoTime() : 0;
+        Setting setting = Setting.parse(configString);
+        if (event.isEnabled()) {
+            event.parseTime = System.nanoTime() - start;
+        }
+        setupMachine(setting, event);
         _configString = configString.trim();
+    }
 
-        String sRotor = _configString.substring(1).trim();
-        String sPlugboard = "";
-        int idx = _configString.indexOf('(');
-        if(idx > 0){
-            sRotor = _configString.substring(1,idx).trim();
-            sPlugboard = _configString.substring(idx).trim();
-        }
-        String[] sNames = sRotor.split("[ \\t]");
-        insertRotors(sNames);
-        Permutation perm = new Permutation(sPlugboard, _alphabet);
+    /** Setup the machine to the already parsed SETTING. */
+    void setupMachine(Setting setting) {
+        FlightEvents.Setup event = new FlightEvents.Setup();
+        event.begin();
+        setupMachine(setting, event);
+    }
+
+    /** Setup the machine to SETTING, committing EVENT, begun before
+     *  SETTING was parsed, if it is slow enough to record. */
+    private void setupMachine(Setting setting, FlightEvents.Setup event) {
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
+        _configString = setting.toString();
+        insertRotors(setting.words());
+        Permutation perm = new Permutation(setting.plugboard(), _alphabet);
         setPlugboard(perm);
+        if (_planner != null) {
+            replan();
+        }
+        if (Metrics.ENABLED) {
+            Metrics.GLOBAL.setup(System.nanoTime() - start);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.setting = _configString;
+            event.commit();
+        }
     }
 
     /** Returns the config string */
@@ -104,6 +190,11 @@ class Machine {
         }
     }
 
+    /** Returns every rotor I can use, in no particular order. */
+    Collection<Rotor> allRotors() {
+        return Collections.unmodifiableCollection(_allRotors.values());
+    }
+
     /** Return the number of rotor slots I have. */
     int numRotors() {
         return _numRotors;
@@ -114,6 +205,22 @@ class Machine {
         return _numPawls;
     }
 
+    /** Return the common alphabet of my rotors. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the rotor in slot I (0 is the reflector), which must have
+     *  been set up by insertRotors. */
+    Rotor rotorAt(int i) {
+        return _atWorkRotors.get(i);
+    }
+
+    /** Return my plugboard, or null if none was set. */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
     /** Returns the current state of rotors position (except reflector) */
     String currentState(){
         StringBuilder result = new StringBuilder();
@@ -132,6 +239,8 @@ class Machine {
      *  available rotors (ROTORS[0] names the reflector).
      *  Initially, all rotors are set at their 0 setting. */
     void insertRotors(String[] rotors) {
+        FlightEvents.RotorInsert event = new FlightEvents.RotorInsert();
+        event.begin();
         /* ignore the empty string in rotorsList */
         ArrayList<String> slRotors = new ArrayList<>();
         for (String s : rotors) {
@@ -148,6 +257,7 @@ class Machine {
         }
 
         /* set the rotor in order. */
+        _rewirings++;
         _atWorkRotors.clear();
         int i = 0;
         Rotor prevRotor = null;
@@ -180,6 +290,13 @@ class Machine {
         if(i + 1 < slRotors.size()){
             setRingPositions(slRotors.get(i + 1));
         }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.rotors = String.join(" ", slRotors.subList(0, _numRotors));
+            event.slots = _numRotors;
+            event.commit();
+        }
     }
 
     /** Set my rotors according to RINGPOSITIONS, which must be a string of
@@ -213,6 +330,13 @@ class Machine {
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
         _plugboard = plugboard;
+        _rewirings++;
+    }
+
+    /** Returns the number of times my rotors or plugboard were changed,
+     *  so that a caller can tell whether they are still as it left them. */
+    int rewirings() {
+        return _rewirings;
     }
 
     /** Returns the result of converting the input character C (as an
@@ -247,12 +371,18 @@ class Machine {
         /* finally through plugboard */
         r = _plugboard.invert(r);
 
+        if (Metrics.ENABLED && !_quiet) {
+            Metrics.GLOBAL.symbols(1);
+        }
         return r;
     }
 
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
+        if (_engine != null && _engineRewirings == _rewirings) {
+            return convertOnEngine(msg);
+        }
         StringBuilder result = new StringBuilder();
         for (char c : msg.toCharArray()) {
             if (!_alphabet.contains(c)) {
@@ -262,12 +392,205 @@ class Machine {
             r = convert(r);
             result.append(_alphabet.toChar(r));
         }
+        _symbolsSinceSetup += result.length();
+        return result.toString();
+    }
+
+    /** Returns the same as convert(MSG), converted on my planned engine,
+     *  which is first given the positions and ring positions of my rotors,
+     *  and then gives them its positions.  Engines know the rotors only as
+     *  tables and do not record FlightEvents.DoubleStep; a machine must
+     *  run without a planner for its double steps to be recorded. */
+    private String convertOnEngine(String msg) {
+        int[] posns = new int[_numRotors - 1];
+        int[] rings = new int[_numRotors - 1];
+        for (int i = 0; i < posns.length; i++) {
+            posns[i] = _atWorkRotors.get(i + 1).setting();
+            rings[i] = _atWorkRotors.get(i + 1).ringPosition();
+        }
+        _engine.setPositions(posns);
+        _engine.setRingPositions(rings);
+        StringBuilder result = new StringBuilder(msg.length());
+        for (int i = 0; i < msg.length(); i++) {
+            char c = msg.charAt(i);
+            if (_alphabet.contains(c)) {
+                result.append(_alphabet.toChar(
+                        _engine.convert(_alphabet.toInt(c))));
+            }
+        }
+        posns = _engine.positions();
+        for (int i = 0; i < posns.length; i++) {
+            _atWorkRotors.get(i + 1).set(posns[i]);
+        }
+        _symbolsSinceSetup += result.length();
+        if (Metrics.ENABLED) {
+            Metrics.GLOBAL.symbols(result.length());
+        }
         return result.toString();
     }
 
+    /** Have PLANNER choose, at each setup from now on, how convert(String)
+     *  converts: through my rotors, or on an engine made from them.  With
+     *  a null PLANNER, always through my rotors. */
+    void setPlanner(EnginePlanner planner) {
+        dropPlan();
+        _planner = planner;
+        if (_planner != null && _atWorkRotors.size() == _numRotors) {
+            replan();
+        }
+    }
+
+    /** Returns the plan of my current setup, or null if I have no
+     *  planner. */
+    EnginePlanner.Plan plan() {
+        return _plan;
+    }
+
+    /** Choose how to convert under my current setup, telling my planner
+     *  how many symbols the last setup converted. */
+    private void replan() {
+        if (_plan != null) {
+            _planner.observe(_symbolsSinceSetup);
+        }
+        dropPlan();
+        _plan = _planner.plan(this);
+        switch (_plan.strategy()) {
+        case TABLE:
+            _engine = new TableEngine(this);
+            break;
+        case SPECIALIZED:
+            _engine = EngineCompiler.specialize(this);
+            break;
+        default:
+            _engine = null;
+        }
+        _engineRewirings = _rewirings;
+        _symbolsSinceSetup = 0;
+    }
+
+    /** Give up my plan and its engine, if any. */
+    private void dropPlan() {
+        if (_plan != null) {
+            _planner.release(_plan);
+        }
+        _plan = null;
+        _engine = null;
+    }
+
+    /** Returns the conversion of MSG, a message that starts with an
+     *  indicator: its first numRotors() - 1 letters, converted from the
+     *  positions GROUND, give the message key, the positions from which
+     *  the rest of MSG is converted.  If DECIPHER, MSG is ciphertext and
+     *  the key is the conversion of the indicator; otherwise MSG starts
+     *  with the key itself, and the indicator takes its place in the
+     *  result.  Only the positions are changed, so the rest of my setup
+     *  (the daily key) serves the next message.  Characters outside my
+     *  alphabet are dropped, as in convert. */
+    String convertIndicated(String msg, String ground, boolean decipher) {
+        setRotors(ground);
+        char[] key = new char[_numRotors - 1];
+        int k = 0;
+        StringBuilder result = new StringBuilder(msg.length());
+        for (int i = 0; i < msg.length(); i++) {
+            char c = msg.charAt(i);
+            if (!_alphabet.contains(c)) {
+                continue;
+            }
+            char r = _alphabet.toChar(convert(_alphabet.toInt(c)));
+            result.append(r);
+            if (k < key.length) {
+                key[k++] = decipher ? r : c;
+                if (k == key.length) {
+                    setRotors(new String(key));
+                }
+            }
+        }
+        if (k < key.length) {
+            throw new EnigmaException(String.format("message[%s] is " +
+                    "shorter than its indicator", msg));
+        }
+        return result.toString();
+    }
+
+    /** Convert PLAINTEXT under each setting line of SETTINGS as a freshly
+     *  set up machine would, writing the result under SETTINGS.get(k) into
+     *  OUT[k] as characters of my alphabet, and return the number of
+     *  letters written to each.  Characters of PLAINTEXT outside my alphabet
+     *  are dropped, as in convert.  My own setup is not changed.
+     *  The plaintext is parsed once, each setting line once, and settings
+     *  that differ only in their plugboards are converted together, sharing
+     *  the stepping and the path through the rotors.  Those groups are
+     *  spread across cores, each on its own copy of this machine. */
+    int sweep(String plaintext, List<String> settings, char[][] out) {
+        int[] plain = new int[plaintext.length()];
+        int len = 0;
+        for (char c : plaintext.toCharArray()) {
+            if (_alphabet.contains(c)) {
+                plain[len++] = _alphabet.toInt(c);
+            }
+        }
+        final int count = len;
+
+        LinkedHashMap<String, List<Integer>> groups = new LinkedHashMap<>();
+        Setting[] parsed = new Setting[settings.size()];
+        for (int k = 0; k < parsed.length; k++) {
+            if (out[k].length < count) {
+                throw new EnigmaException(String.format("output buffer %d " +
+                        "holds %d of %d letters", k, out[k].length, count));
+            }
+            parsed[k] = Setting.parse(settings.get(k));
+            groups.computeIfAbsent(parsed[k].rotorKey(),
+                    key -> new ArrayList<>()).add(k);
+        }
+
+        ThreadLocal<Machine> machines = ThreadLocal.withInitial(this::copy);
+        groups.values().parallelStream().forEach(group -> {
+            Machine machine = machines.get();
+            Setting first = parsed[group.get(0)];
+            machine.setupMachine(new Setting(first.words(), ""));
+            TableEngine engine = new TableEngine(machine);
+            int[] zeros = new int[_numRotors - 1];
+            if (!first.hasPositions(_numRotors)) {
+                engine.setPositions(zeros);
+            }
+            if (!first.hasRingPositions(_numRotors)) {
+                engine.setRingPositions(zeros);
+            }
+
+            int[][] plugIn = new int[group.size()][];
+            int[][] plugOut = new int[group.size()][];
+            for (int g = 0; g < plugIn.length; g++) {
+                Permutation plugboard = new Permutation(
+                        parsed[group.get(g)].plugboard(), _alphabet);
+                plugIn[g] = plugboard.forwardTable();
+                plugOut[g] = plugboard.inverseTable();
+            }
+
+            /* the rotor path at step t, filled in as plugboards need it */
+            int[] path = new int[_alphabet.size()];
+            int[] filled = new int[_alphabet.size()];
+            for (int t = 0; t < count; t++) {
+                engine.step();
+                for (int g = 0; g < plugIn.length; g++) {
+                    int x = plugIn[g][plain[t]];
+                    if (filled[x] != t + 1) {
+                        filled[x] = t + 1;
+                        path[x] = engine.substitute(x);
+                    }
+                    out[group.get(g)][t] =
+                        _alphabet.toChar(plugOut[g][path[x]]);
+                }
+            }
+        });
+        return count;
+    }
+
     /** Common alphabet of my rotors. */
     private  Alphabet _alphabet;
 
+    /** The wirings of my rotors, if I was made from a configuration. */
+    private Wirings _wirings;
+
     /** store all supported rotors */
     private HashMap<String, Rotor> _allRotors;
 
@@ -286,6 +609,27 @@ class Machine {
     /** The ringPositions of rotors at work (except reflector) */
     private String _ringPositions;
 
+    /** Number of changes of rotors or plugboard */
+    private int _rewirings;
+
+    /** Chooses my plan at each setup, or null. */
+    private EnginePlanner _planner;
+
+    /** The plan of my current setup, or null. */
+    private EnginePlanner.Plan _plan;
+
+    /** The engine convert(String) uses, or null to use my rotors. */
+    private TableEngine _engine;
+
+    /** Rewirings when _engine was made; it is stale if they changed. */
+    private int _engineRewirings;
+
+    /** Symbols converted by convert(String) since the last setup. */
+    private long _symbolsSinceSetup;
+
+    /** True iff I record nothing in Metrics, as made by quietCopy. */
+    private boolean _quiet;
+
     /** This machine's plugboard */
     private Permutation _plugboard;
 
@@ -0,0 +1,377 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static enigma.EnigmaException.*;
+
+/** A bounded pool of machines of one configuration, for callers that
+ *  convert many short requests on many threads.  The configuration is
+ *  parsed once, into a catalog machine that is never set up; each machine
+ *  of the pool, up to the capacity, is a copy of it with rotors of its own
+ *  that share the catalog's permutations.  A request leases a machine set
+ *  up as a fresh one would be by a setting line, and gives it back by
+ *  closing the lease:
+ *
+ *      try (MachinePool.Lease lease = pool.acquire(setting)) {
+ *          out = lease.machine().convert(msg);
+ *      }
+ *
+ *  Idle machines wait in an array of slots taken and filled by
+ *  compare-and-set, so the pool has no lock.  Each thread starts its
+ *  search at the slot it last used, so threads that keep to themselves
+ *  keep to their own machines and do not contend.  A machine leased again
+ *  under the same rotors keeps them in place, and under the same plugboard
+ *  keeps that too, so only the positions and ring positions are set.  When
+ *  every machine is leased, acquire waits, spinning then parking, up to a
+ *  time limit.
+ *  @author Jerry
+ */
+class MachinePool {
+
+    /** A machine leased from the pool, given back by close().  Each
+     *  acquire returns a lease of its own, good for one close, so a holder
+     *  that closes it again, or keeps it after, cannot give back or use a
+     *  machine since leased to someone else. */
+    final class Lease implements AutoCloseable {
+
+        /** A lease of the machine of SLOT. */
+        private Lease(Slot slot) {
+            _slot = slot;
+            _open = new AtomicBoolean(true);
+        }
+
+        /** Returns the leased machine.  Its user may set it up again. */
+        Machine machine() {
+            if (!_open.get()) {
+                throw error("lease already closed");
+            }
+            return _slot._machine;
+        }
+
+        /** Give the machine back to the pool, the first time only. */
+        @Override
+        public void close() {
+            if (_open.compareAndSet(true, false)) {
+                release(_slot);
+            }
+        }
+
+        /** The pooled machine. */
+        private final Slot _slot;
+
+        /** True until closed. */
+        private final AtomicBoolean _open;
+    }
+
+    /** A pooled machine, and what is known of how it is set up. */
+    private static final class Slot {
+
+        /** The pooled MACHINE, with NUMROTORS rotor slots. */
+        Slot(Machine machine, int numRotors) {
+            _machine = machine;
+            _numRotors = numRotors;
+        }
+
+        /** Set my machine up by SETTING, which gives positions and ring
+         *  positions, reusing what it already has.  A machine its last
+         *  user set up again is noticed by its rewirings.  Rotors not in
+         *  SETTING are left as on a fresh machine, in case its user sets
+         *  it up again without positions. */
+        void reset(Setting setting) {
+            String[] words = setting.words();
+            String rotors = String.join(" ",
+                    Arrays.copyOf(words, _numRotors));
+            if (_machine.rewirings() != _rewirings) {
+                _rotors = _plugs = null;
+            }
+            if (rotors.equals(_rotors)) {
+                _machine.setRotors(words[_numRotors]);
+                _machine.setRingPositions(words[_numRotors + 1]);
+            } else {
+                _rotors = null;
+                for (Rotor rotor : _machine.allRotors()) {
+                    rotor.set(0);
+                    rotor.setRingPosition(0);
+                }
+                _machine.insertRotors(words);
+                _rotors = rotors;
+            }
+            if (!setting.plugboard().equals(_plugs)) {
+                _plugs = null;
+                _machine.setPlugboard(new Permutation(setting.plugboard(),
+                        _machine.alphabet()));
+                _plugs = setting.plugboard();
+            }
+            _rewirings = _machine.rewirings();
+        }
+
+        /** The machine. */
+        private final Machine _machine;
+
+        /** Number of rotor slots of the machine. */
+        private final int _numRotors;
+
+        /** Names of the rotors in my machine, or null if unknown. */
+        private String _rotors;
+
+        /** Plugboard cycles of my machine, or null if unknown. */
+        private String _plugs;
+
+        /** Rewirings of my machine when I last set it up, so that changes
+         *  made by its user are noticed. */
+        private int _rewirings;
+    }
+
+    /** A pool of at most CAPACITY machines configured by CONFIGLINES,
+     *  made as they are first needed. */
+    MachinePool(ArrayList<String> configLines, int capacity) {
+        if (capacity < 1) {
+            throw error("pool capacity must be positive");
+        }
+        _catalog = Machine.makeAMachine(configLines);
+        Machine first = _catalog.copy();
+        _numRotors = first.numRotors();
+        _zeros = String.valueOf(first.alphabet().toChar(0))
+            .repeat(_numRotors - 1);
+        _idle = new AtomicReferenceArray<>(capacity);
+        _idle.set(0, new Slot(first, _numRotors));
+        _created = new AtomicInteger(1);
+        _inUse = new AtomicInteger();
+        _peakInUse = new AtomicInteger();
+        _acquisitions = new LongAdder();
+        _waits = new LongAdder();
+        _timeouts = new LongAdder();
+        _waitTimes = new LatencyHistogram();
+        _home = ThreadLocal.withInitial(() -> new int[] {
+            (int) (Thread.currentThread().getId() % capacity) });
+        _maxWaitMillis = DEFAULT_MAX_WAIT;
+    }
+
+    /** Set the longest time acquire waits for a machine to MILLIS. */
+    void setMaxWait(long millis) {
+        _maxWaitMillis = millis;
+    }
+
+    /** Returns a lease of a machine set up by the setting line SETTING. */
+    Lease acquire(String setting) {
+        return acquire(Setting.parse(setting));
+    }
+
+    /** Returns a lease of a machine set up by SETTING, as a fresh machine
+     *  would be: positions and ring positions not given are those of the
+     *  first character of the alphabet. */
+    Lease acquire(Setting setting) {
+        Setting full = complete(setting);
+        Slot slot = take();
+        if (slot == null) {
+            slot = await();
+        }
+        Lease lease = new Lease(slot);
+        int inUse = _inUse.incrementAndGet();
+        _peakInUse.accumulateAndGet(inUse, Math::max);
+        _acquisitions.increment();
+        try {
+            slot.reset(full);
+        } catch (EnigmaException excp) {
+            lease.close();
+            throw excp;
+        }
+        return lease;
+    }
+
+    /** Returns the most machines I make. */
+    int capacity() {
+        return _idle.length();
+    }
+
+    /** Returns the number of machines made so far. */
+    int created() {
+        return _created.get();
+    }
+
+    /** Returns the number of machines leased now. */
+    int inUse() {
+        return _inUse.get();
+    }
+
+    /** Returns the most machines leased at once. */
+    int peakInUse() {
+        return _peakInUse.get();
+    }
+
+    /** Returns the number of leases granted. */
+    long acquisitions() {
+        return _acquisitions.sum();
+    }
+
+    /** Returns the number of leases that had to wait for a machine. */
+    long waits() {
+        return _waits.sum();
+    }
+
+    /** Returns the number of acquires that gave up waiting. */
+    long timeouts() {
+        return _timeouts.sum();
+    }
+
+    /** Returns the fraction of leases that found every machine leased. */
+    double saturation() {
+        long n = acquisitions();
+        return n == 0 ? 0 : (double) waits() / n;
+    }
+
+    /** Returns the time the waiting leases waited. */
+    LatencyHistogram waitTimes() {
+        return _waitTimes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MachinePool capacity=%d created=%d inUse=%d "
+                + "peak=%d acquisitions=%d waits=%d timeouts=%d "
+                + "wait p99=%.1f us", capacity(), created(), inUse(),
+                peakInUse(), acquisitions(), waits(), timeouts(),
+                _waitTimes.percentile(0.99) / 1e3);
+    }
+
+    /** Returns SETTING with the positions and ring positions it omits. */
+    private Setting complete(Setting setting) {
+        if (setting.hasRingPositions(_numRotors)) {
+            return setting;
+        }
+        String[] words = setting.words();
+        if (words.length < _numRotors) {
+            throw error("This machine has %d rotors, but only give %d.",
+                    _numRotors, words.length);
+        }
+        String[] full = Arrays.copyOf(words, _numRotors + 2);
+        if (!setting.hasPositions(_numRotors)) {
+            full[_numRotors] = _zeros;
+        }
+        full[_numRotors + 1] = _zeros;
+        return new Setting(full, setting.plugboard());
+    }
+
+    /** Returns an idle or new machine, or null if all are leased. */
+    private Slot take() {
+        int[] home = _home.get();
+        int n = _idle.length();
+        for (int k = 0; k < n; k++) {
+            int i = home[0] + k < n ? home[0] + k : home[0] + k - n;
+            Slot slot = _idle.get(i);
+            if (slot != null && _idle.compareAndSet(i, slot, null)) {
+                home[0] = i;
+                return slot;
+            }
+        }
+        for (int made = _created.get(); made < n; made = _created.get()) {
+            if (_created.compareAndSet(made, made + 1)) {
+                return new Slot(_catalog.copy(), _numRotors);
+            }
+        }
+        return null;
+    }
+
+    /** Wait for a machine to be released, and return it. */
+    private Slot await() {
+        _waits.increment();
+        long start = System.nanoTime();
+        long deadline = start + _maxWaitMillis * 1000000;
+        for (int spins = 0; ; spins++) {
+            if (spins < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+            Slot slot = take();
+            if (slot != null) {
+                _waitTimes.record(System.nanoTime() - start);
+                return slot;
+            }
+            if (System.nanoTime() - deadline > 0) {
+                _timeouts.increment();
+                throw error("no machine free after %d ms; %s",
+                        _maxWaitMillis, this);
+            }
+        }
+    }
+
+    /** Put SLOT back among the idle machines, in the slot this thread
+     *  took it from if that is still empty.  Since no more machines are
+     *  made than there are slots, one is always empty while SLOT is out,
+     *  though others may fill and empty it while I look; after RELEASE_PASSES
+     *  looks that all lose such races the pool is taken to be broken. */
+    private void release(Slot slot) {
+        _inUse.decrementAndGet();
+        int[] home = _home.get();
+        int n = _idle.length();
+        for (int pass = 0; pass < RELEASE_PASSES; pass++) {
+            for (int k = 0; k < n; k++) {
+                int i = home[0] + k < n ? home[0] + k : home[0] + k - n;
+                if (_idle.get(i) == null
+                    && _idle.compareAndSet(i, null, slot)) {
+                    return;
+                }
+            }
+            Thread.onSpinWait();
+        }
+        throw error("no free slot to release a machine to; %s", this);
+    }
+
+    /** Default longest wait for a machine, in milliseconds. */
+    static final long DEFAULT_MAX_WAIT = 1000;
+
+    /** Spins before a waiting acquire starts to park. */
+    private static final int SPINS = 100;
+
+    /** Time a waiting acquire parks between looks. */
+    private static final long PARK_NANOS = 20000;
+
+    /** Looks over every slot a release makes before giving up. */
+    private static final int RELEASE_PASSES = 1000;
+
+    /** The machine parsed from the configuration, only copied. */
+    private final Machine _catalog;
+
+    /** Number of rotor slots of the machines. */
+    private final int _numRotors;
+
+    /** Positions of a fresh machine: the first character, repeated. */
+    private final String _zeros;
+
+    /** Idle machines, null in the empty slots. */
+    private final AtomicReferenceArray<Slot> _idle;
+
+    /** Machines made so far. */
+    private final AtomicInteger _created;
+
+    /** Machines leased now. */
+    private final AtomicInteger _inUse;
+
+    /** Most machines leased at once. */
+    private final AtomicInteger _peakInUse;
+
+    /** Leases granted. */
+    private final LongAdder _acquisitions;
+
+    /** Leases that waited. */
+    private final LongAdder _waits;
+
+    /** Acquires that gave up. */
+    private final LongAdder _timeouts;
+
+    /** Time of each wait. */
+    private final LatencyHistogram _waitTimes;
+
+    /** The slot each thread last took a machine from. */
+    private final ThreadLocal<int[]> _home;
+
+    /** Longest wait for a machine, in milliseconds. */
+    private volatile long _maxWaitMillis;
+}
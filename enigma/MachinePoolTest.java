@@ -0,0 +1,87 @@
+package enigma;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the MachinePool class.
+ *  @author Jerry
+ */
+public class MachinePoolTest {
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkPool() throws Exception {
+        MachinePool pool = new MachinePool(NAVALDEFAULT, 2);
+        String[] settings = {
+            "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+            "* B Beta III IV I AXLE BCDE",
+            "* C Gamma VI VII VIII ZZYM BDFB (AQ) (EP)",
+            "* B Beta I II III",
+        };
+        String plain = "FROM HIS SHOULDER HIAWATHA TOOK THE CAMERA";
+        String[] expected = new String[settings.length];
+        for (int k = 0; k < settings.length; k++) {
+            Machine fresh = Machine.makeAMachine(NAVALDEFAULT);
+            fresh.setupMachine(settings[k]);
+            expected[k] = fresh.convert(plain);
+        }
+        Thread[] threads = new Thread[4];
+        String[] failure = new String[1];
+        for (int t = 0; t < threads.length; t++) {
+            final int first = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 200; i++) {
+                    int k = (first + i) % settings.length;
+                    try (MachinePool.Lease lease = pool.acquire(settings[k])) {
+                        String got = lease.machine().convert(plain);
+                        if (!got.equals(expected[k])) {
+                            failure[0] = settings[k] + ": " + got;
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure[0], failure[0]);
+        assertEquals(800, pool.acquisitions());
+        assertEquals(0, pool.inUse());
+        assertTrue(pool.created() <= 2);
+
+        pool.setMaxWait(10);
+        MachinePool.Lease a = pool.acquire(settings[0]);
+        MachinePool.Lease b = pool.acquire(settings[1]);
+        assertNotSame(a.machine(), b.machine());
+        assertSame(a.machine().rotorAt(4).permutation(),
+                b.machine().rotorAt(4).permutation());
+        try {
+            pool.acquire(settings[2]);
+            fail("acquired more machines than the capacity");
+        } catch (EnigmaException excp) {
+            assertEquals(1, pool.timeouts());
+        }
+        a.close();
+        a.close();
+        assertEquals(1, pool.inUse());
+        MachinePool.Lease c = pool.acquire(settings[2]);
+        try {
+            a.machine();
+            fail("used a closed lease");
+        } catch (EnigmaException excp) {
+            assertEquals(2, pool.inUse());
+        }
+        b.close();
+        c.close();
+        assertEquals(0, pool.inUse());
+    }
+}
@@ -5,6 +5,12 @@ import org.junit.Test;
 import org.junit.rules.Timeout;
 import static org.junit.Assert.*;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static enigma.TestUtils.*;
 
 /** The suite of all JUnit tests for the Machine class.
@@ -63,4 +69,137 @@ public class MachineTest {
                         " ABBC ABCA ACAB ACAC ACBA ACBB ACBC ACCA AAAB ",
                 result.toString());
     }
+
+    @Test
+    public void checkSweep() {
+        Machine machine = Machine.makeAMachine(NAVALDEFAULT);
+        List<String> settings = Arrays.asList(
+                "* B Beta I II III AAAA",
+                "* B Beta I II III AQDV AAAA (AQ) (EP)",
+                "* B Beta I II III AQDV AAAA (AZ) (BY) (CX)",
+                "* C Gamma VI VII VIII ZZYM BDFB",
+                "* B Beta I II III AQDV AAAA",
+                "* C Gamma VI VII VIII ZZYM BDFB (HQ) (EX) (IP)");
+        String plain = "FROM HIS SHOULDER HIAWATHA TOOK THE CAMERA";
+        char[][] out = new char[settings.size()][64];
+        int len = machine.sweep(plain, settings, out);
+        assertEquals(36, len);
+        for (int k = 0; k < settings.size(); k++) {
+            Machine fresh = Machine.makeAMachine(NAVALDEFAULT);
+            fresh.setupMachine(settings.get(k));
+            assertEquals(msg("sweep", "wrong result for %s", settings.get(k)),
+                    fresh.convert(plain), new String(out[k], 0, len));
+        }
+    }
+
+    @Test
+    public void checkSettingWords() {
+        Setting setting = Setting.parse(
+                "* B Beta I\tII III A\u3000\u2003A  AAAA (AQ) (EP)");
+        assertEquals(List.of("B", "Beta", "I", "II", "III",
+                "A\u3000\u2003A", "AAAA"),
+                Arrays.asList(setting.words()));
+        assertEquals("(AQ) (EP)", setting.plugboard());
+    }
+
+    @Test
+    public void checkLargeAlphabet() {
+        int size = 20000;
+        ArrayList<String> config = Workloads.config(size, 5, 3, 1);
+        String setting = Workloads.setting(size, 5, 100, 2);
+        String message = Workloads.message(size, 5000, 3);
+        Machine machine = Machine.makeAMachine(config);
+        machine.setupMachine(setting);
+        TableEngine engine = new TableEngine(machine);
+        String result = machine.convert(message);
+        Alphabet alphabet = machine.alphabet();
+        for (int i = 0; i < message.length(); i++) {
+            assertEquals(result.charAt(i), alphabet.toChar(
+                    engine.convert(alphabet.toInt(message.charAt(i)))));
+        }
+        machine.setupMachine(setting);
+        assertEquals(message, machine.convert(result));
+    }
+
+    @Test
+    public void checkIndicators() throws Exception {
+        String daily = "* B Beta I II III AXLE AAAA (AQ) (EP)";
+        Machine expected = Machine.makeAMachine(NAVALDEFAULT);
+        expected.setupMachine(daily);
+        String indicator = expected.convert("KEYS");
+        expected.setRotors("KEYS");
+        String cipher = indicator + expected.convert("HELLOWORLD");
+
+        Machine machine = Machine.makeAMachine(NAVALDEFAULT);
+        machine.setupMachine(daily);
+        String ground = machine.currentState();
+        assertEquals(cipher, machine.convertIndicated("KEYS HELLO WORLD",
+                ground, false));
+        assertEquals("KEYSHELLOWORLD", machine.convertIndicated(cipher,
+                ground, true));
+
+        Path dir = Files.createTempDirectory("enigma");
+        Path config = dir.resolve("config");
+        Path input = dir.resolve("input");
+        Path output = dir.resolve("output");
+        Files.write(config, NAVALDEFAULT);
+        Files.write(input, Arrays.asList(daily, cipher, "", cipher));
+        Main main = new Main(new String[] { config.toString(),
+            input.toString(), output.toString() });
+        main.setIndicators(true);
+        main.process();
+        assertEquals(Arrays.asList("KEYSH ELLOW ORLD", "",
+                "KEYSH ELLOW ORLD"), Files.readAllLines(output));
+    }
+
+    @Test
+    public void checkPlanner() {
+        Machine machine = Machine.makeAMachine(NAVALDEFAULT);
+        Machine plain = Machine.makeAMachine(NAVALDEFAULT);
+        EnginePlanner.Calibration cal = new EnginePlanner.Calibration();
+        cal.objectNanos = 100;
+        cal.tableNanos = 10;
+        cal.specializedNanos = 5;
+        cal.buildNanos = 2000;
+        cal.specialized = true;
+        EnginePlanner planner = new EnginePlanner(1 << 20, cal);
+        machine.setPlanner(planner);
+        String[] settings = {
+            "* B Beta I II III AAAV AAAA (AQ) (EP)",
+            "* C Gamma IV V VI QDKR ABCD",
+        };
+        for (String setting : settings) {
+            machine.setupMachine(setting);
+            plain.setupMachine(setting);
+            assertTrue(machine.plan().strategy()
+                    != EnginePlanner.Strategy.OBJECT);
+            for (int k = 0; k < 5; k++) {
+                String msg = "FROM HIS SHOULDER HIAWATHA " + k;
+                assertEquals(plain.convert(msg), machine.convert(msg));
+            }
+            machine.rotorAt(2).set(7);
+            plain.rotorAt(2).set(7);
+            assertEquals(plain.convert("TOOKTHECAMERA"),
+                    machine.convert("TOOKTHECAMERA"));
+            assertEquals(plain.currentState(), machine.currentState());
+        }
+        assertTrue(planner.reserved() > 0);
+
+        EnginePlanner.Plan one = planner.plan(machine, 1);
+        EnginePlanner.Plan many = planner.plan(machine, 1000000);
+        assertEquals(EnginePlanner.Strategy.OBJECT, one.strategy());
+        assertEquals(EnginePlanner.Strategy.SPECIALIZED, many.strategy());
+        assertEquals(2000 + 5e6, many.estimatedNanos(), 1e-6);
+        assertEquals(1e8, many.estimatedNanos(EnginePlanner.Strategy.OBJECT),
+                1e-6);
+        planner.release(one);
+        planner.release(many);
+        machine.setPlanner(null);
+        assertEquals(0, planner.reserved());
+
+        EnginePlanner tight = new EnginePlanner(0, cal);
+        machine.setPlanner(tight);
+        assertEquals(EnginePlanner.Strategy.OBJECT,
+                tight.plan(machine, 1000000).strategy());
+    }
 }
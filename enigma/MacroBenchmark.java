@@ -0,0 +1,407 @@
+package enigma;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import static enigma.EnigmaException.*;
+
+/** An end-to-end benchmark of Main.  It generates workloads (a
+ *  configuration file and an input file of setting and message lines),
+ *  runs Main over each in a JVM of its own, and reports the input
+ *  throughput, the median and 99th percentile time per message line, the
+ *  garbage collector pauses, and the peak resident set size.  As these are
+ *  measured for the whole process, and JIT and heap state would otherwise
+ *  carry from one workload to the next, each workload is run by a child
+ *  JVM started with the same JVM options, which is given "-fork false"
+ *  and writes its results for this one to merge.  With "-fork false"
+ *  every workload runs in this JVM.  Results are written as a
+ *  properties file of "workload.metric=value" lines, which can be kept and
+ *  passed back as the baseline of a later run: the run then fails if the
+ *  throughput drops, or the p99 latency grows, by more than the tolerance.
+ *
+ *  The workloads are "default" (the naval configuration, read from the
+ *  -config file), "alphabet" (a 1000-character alphabet) and "catalog" (a
+ *  catalog of 2000 rotors).  Each has -mb megabytes of input in message
+ *  lines of -length characters, with a setting line every -setting-every
+ *  messages.
+ *
+ *  Usage: java enigma.MacroBenchmark [-workloads NAME,...] [-mb N]
+ *             [-length N] [-setting-every N] [-config FILE] [-dir DIR]
+ *             [-out FILE] [-baseline FILE] [-tolerance FRACTION]
+ *             [-fork BOOLEAN]
+ *  @author Jerry
+ */
+final class MacroBenchmark {
+
+    /** Run the benchmark configured by ARGS, as described above, and exit
+     *  with code 1 on a regression. */
+    public static void main(String... args) {
+        try {
+            MacroBenchmark bench = new MacroBenchmark(args);
+            bench.runAll();
+            if (!bench.checkBaseline()) {
+                System.exit(1);
+            }
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** A benchmark configured by the options ARGS. */
+    MacroBenchmark(String... args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("-workloads", "default,alphabet,catalog");
+        options.put("-mb", "16");
+        options.put("-length", "200");
+        options.put("-setting-every", "10");
+        options.put("-dir", System.getProperty("java.io.tmpdir"));
+        options.put("-out", "macro.properties");
+        options.put("-baseline", "");
+        options.put("-tolerance", "0.10");
+        options.put("-config", "../testing/correct/default.conf");
+        options.put("-fork", "true");
+        for (int i = 0; i < args.length; i += 2) {
+            if (!options.containsKey(args[i]) || i + 1 == args.length) {
+                throw error("unknown option %s", args[i]);
+            }
+            options.put(args[i], args[i + 1]);
+        }
+        _workloads = options.get("-workloads").split(",");
+        _bytes = (long) (Double.parseDouble(options.get("-mb")) * MB);
+        _length = Integer.parseInt(options.get("-length"));
+        _settingEvery = Integer.parseInt(options.get("-setting-every"));
+        _dir = new File(options.get("-dir"));
+        _out = new File(options.get("-out"));
+        _baseline = options.get("-baseline");
+        _tolerance = Double.parseDouble(options.get("-tolerance"));
+        _defaultConfig = new File(options.get("-config"));
+        _fork = Boolean.parseBoolean(options.get("-fork"));
+        _options = options;
+        _results = new Properties();
+    }
+
+    /** Run every workload and write the results. */
+    void runAll() {
+        for (String workload : _workloads) {
+            if (_fork) {
+                fork(workload.trim());
+            } else {
+                run(workload.trim());
+            }
+        }
+        try (Writer out = new FileWriter(_out)) {
+            _results.store(out, "enigma.MacroBenchmark results");
+        } catch (IOException excp) {
+            throw error("could not write %s", _out);
+        }
+    }
+
+    /** Returns the results of the workloads run so far. */
+    Properties results() {
+        return _results;
+    }
+
+    /** Run WORKLOAD in a child JVM, adding its results. */
+    void fork(String workload) {
+        File out = new File(_dir, "macro-" + workload + ".properties");
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        command.addAll(ManagementFactory.getRuntimeMXBean()
+                .getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(MacroBenchmark.class.getName());
+        for (Map.Entry<String, String> option : _options.entrySet()) {
+            String value;
+            switch (option.getKey()) {
+            case "-workloads":
+                value = workload;
+                break;
+            case "-out":
+                value = out.getPath();
+                break;
+            case "-baseline":
+                value = "";
+                break;
+            case "-fork":
+                value = "false";
+                break;
+            default:
+                value = option.getValue();
+                break;
+            }
+            command.add(option.getKey());
+            command.add(value);
+        }
+        try {
+            Process child = new ProcessBuilder(command).inheritIO().start();
+            if (child.waitFor() != 0) {
+                throw error("workload %s failed", workload);
+            }
+            try (FileReader in = new FileReader(out)) {
+                _results.load(in);
+            }
+        } catch (IOException excp) {
+            throw error("could not run workload %s", workload);
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted running workload %s", workload);
+        } finally {
+            out.delete();
+        }
+    }
+
+    /** Generate and run WORKLOAD in this JVM, adding its results. */
+    void run(String workload) {
+        File config = new File(_dir, "macro-" + workload + ".conf");
+        File input = new File(_dir, "macro-" + workload + ".in");
+        File output = new File(_dir, "macro-" + workload + ".out");
+        List<String> settings = generate(workload, config, input);
+
+        LatencyHistogram latencies = new LatencyHistogram();
+        long gcCount0 = 0, gcMillis0 = 0;
+        for (GarbageCollectorMXBean gc
+                 : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount0 += Math.max(0, gc.getCollectionCount());
+            gcMillis0 += Math.max(0, gc.getCollectionTime());
+        }
+
+        long start = System.nanoTime();
+        Main main = new Main(new String[] { config.getPath(), input.getPath(),
+                                            output.getPath() });
+        main.setMessageTimer(latencies::record);
+        main.process();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long gcCount = -gcCount0, gcMillis = -gcMillis0;
+        for (GarbageCollectorMXBean gc
+                 : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(0, gc.getCollectionCount());
+            gcMillis += Math.max(0, gc.getCollectionTime());
+        }
+
+        put(workload, "settings", settings.size());
+        put(workload, "messages", latencies.count());
+        put(workload, "input_bytes", input.length());
+        put(workload, "seconds", seconds);
+        put(workload, "mb_per_s", input.length() / MB / seconds);
+        put(workload, "p50_us", latencies.percentile(0.50) / 1e3);
+        put(workload, "p99_us", latencies.percentile(0.99) / 1e3);
+        put(workload, "gc_count", gcCount);
+        put(workload, "gc_ms", gcMillis);
+        put(workload, "peak_rss_kb", peakRss());
+        System.out.printf("%-10s %10.2f MB/s  p50 %9.1f us  p99 %9.1f us  "
+                + "gc %4d/%6d ms  rss %8d kB%n", workload,
+                input.length() / MB / seconds,
+                latencies.percentile(0.50) / 1e3,
+                latencies.percentile(0.99) / 1e3, gcCount, gcMillis,
+                peakRss());
+
+        config.delete();
+        input.delete();
+        output.delete();
+    }
+
+    /** Compare the results with the baseline file, if one was given,
+     *  reporting every regression.  Returns false iff there was one. */
+    boolean checkBaseline() {
+        if (_baseline.isEmpty()) {
+            return true;
+        }
+        Properties baseline = new Properties();
+        try (FileReader in = new FileReader(_baseline)) {
+            baseline.load(in);
+        } catch (IOException excp) {
+            throw error("could not read %s", _baseline);
+        }
+        boolean ok = true;
+        for (String workload : _workloads) {
+            workload = workload.trim();
+            ok &= compare(baseline, workload, "mb_per_s", false);
+            ok &= compare(baseline, workload, "p99_us", true);
+        }
+        return ok;
+    }
+
+    /** Returns false, after reporting it, iff METRIC of WORKLOAD regressed
+     *  from BASELINE by more than the tolerance, where a regression is a
+     *  rise if HIGHERISWORSE and a drop otherwise. */
+    private boolean compare(Properties baseline, String workload,
+                            String metric, boolean higherIsWorse) {
+        String key = workload + "." + metric;
+        if (baseline.getProperty(key) == null
+            || _results.getProperty(key) == null) {
+            return true;
+        }
+        double was = Double.parseDouble(baseline.getProperty(key));
+        double now = Double.parseDouble(_results.getProperty(key));
+        boolean regressed = higherIsWorse ? now > was * (1 + _tolerance)
+            : now < was * (1 - _tolerance);
+        if (regressed) {
+            System.err.printf("Regression: %s is %.3f, baseline %.3f%n", key,
+                    now, was);
+        }
+        return !regressed;
+    }
+
+    /** Write the configuration and input of WORKLOAD to CONFIG and INPUT,
+     *  and return the setting lines used. */
+    private List<String> generate(String workload, File config, File input) {
+        int size, numRotors, catalog;
+        switch (workload) {
+        case "default":
+            size = 26;
+            numRotors = 5;
+            catalog = 0;
+            break;
+        case "alphabet":
+            size = 1000;
+            numRotors = 5;
+            catalog = 3;
+            break;
+        case "catalog":
+            size = 26;
+            numRotors = 5;
+            catalog = 2000;
+            break;
+        default:
+            throw error("unknown workload %s", workload);
+        }
+
+        List<String> settings = new ArrayList<>();
+        try (BufferedWriter conf = new BufferedWriter(new FileWriter(config));
+             BufferedWriter in = new BufferedWriter(new FileWriter(input))) {
+            if (catalog == 0) {
+                conf.write(new String(Files.readAllBytes(
+                        _defaultConfig.toPath())));
+                for (int i = 0; i < 16; i++) {
+                    settings.add(DEFAULT_SETTINGS[i % DEFAULT_SETTINGS.length]);
+                }
+            } else {
+                for (String line : Workloads.config(size, numRotors, catalog,
+                                                    1)) {
+                    conf.write(line);
+                    conf.newLine();
+                }
+                for (int i = 0; i < 16; i++) {
+                    settings.add(Workloads.setting(size, numRotors, 5, i)
+                            .replace(" M0 M1 M2", " M" + (3 * i % catalog)
+                                    + " M" + ((3 * i + 1) % catalog)
+                                    + " M" + ((3 * i + 2) % catalog)));
+                }
+            }
+
+            Random random = new Random(4);
+            String alphabet = catalog == 0 ? Workloads.alphabet(26)
+                : Workloads.alphabet(size);
+            Charset charset = Charset.defaultCharset();
+            int newline = System.lineSeparator().getBytes(charset).length;
+            long written = 0;
+            for (long m = 0; written < _bytes; m++) {
+                if (m % _settingEvery == 0) {
+                    String setting = settings.get(random.nextInt(
+                            settings.size()));
+                    in.write(setting);
+                    in.newLine();
+                    written += setting.getBytes(charset).length + newline;
+                }
+                StringBuilder line = new StringBuilder(_length);
+                for (int i = 0; i < _length; i++) {
+                    line.append(alphabet.charAt(random.nextInt(size)));
+                }
+                String text = line.toString();
+                in.write(text);
+                in.newLine();
+                written += text.getBytes(charset).length + newline;
+            }
+        } catch (IOException excp) {
+            throw error("could not write workload %s in %s", workload, _dir);
+        }
+        return settings;
+    }
+
+    /** Returns the peak resident set size of this process in kB, or -1 if
+     *  it cannot be read (it comes from /proc, so only on Linux). */
+    private static long peakRss() {
+        try {
+            for (String line : Files.readAllLines(
+                    new File("/proc/self/status").toPath())) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException excp) {
+            /* not Linux */
+        }
+        return -1;
+    }
+
+    /** Record VALUE as METRIC of WORKLOAD. */
+    private void put(String workload, String metric, double value) {
+        _results.setProperty(workload + "." + metric,
+                value == Math.rint(value) ? Long.toString((long) value)
+                : String.format("%.3f", value));
+    }
+
+    /** Bytes in a megabyte. */
+    private static final double MB = 1024 * 1024;
+
+    /** Setting lines of the default workload. */
+    private static final String[] DEFAULT_SETTINGS = {
+        "* B Beta I II III AAAA",
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)",
+        "* C Gamma VI VII VIII ZZYM BDFB (AQ) (EP)",
+        "* B Gamma V II IV QRST ABCD (AZ) (BY) (CX) (DW)",
+    };
+
+    /** Workloads to run. */
+    private final String[] _workloads;
+
+    /** Input bytes per workload. */
+    private final long _bytes;
+
+    /** Characters per message line. */
+    private final int _length;
+
+    /** Message lines per setting line. */
+    private final int _settingEvery;
+
+    /** Directory for the generated files. */
+    private final File _dir;
+
+    /** Where to write the results. */
+    private final File _out;
+
+    /** Baseline results file, or empty. */
+    private final String _baseline;
+
+    /** Allowed regression, as a fraction of the baseline. */
+    private final double _tolerance;
+
+    /** Configuration file of the default workload. */
+    private final File _defaultConfig;
+
+    /** True iff each workload runs in a child JVM. */
+    private final boolean _fork;
+
+    /** The options given, with their defaults. */
+    private final Map<String, String> _options;
+
+    /** The results so far. */
+    private final Properties _results;
+}
@@ -1,11 +1,16 @@
 package enigma;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.function.LongConsumer;
 import static enigma.EnigmaException.*;
 
 /** Enigma simulator.
@@ -21,12 +26,63 @@ public final class Main {
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.
+     *  With the arguments --checkpoint FILE CONFIG INPUT OUTPUT, the
+     *  conversion saves its progress in FILE as it goes, and resumes from
+     *  there if run again after a crash (see StreamJob).
+     *  With the arguments --dir CONFIG INDIR OUTDIR [MAXOPEN [MAXMB]],
+     *  every file of INDIR is converted into the file of the same name in
+     *  OUTDIR, concurrently, with at most MAXOPEN files open and MAXMB
+     *  megabytes of input in flight (see DirectoryJob).
+     *  With the arguments --pack CONFIG INPUT OUTPUT, the messages of
+     *  INPUT are converted into the SymbolFile OUTPUT, a section for each
+     *  setting line; with --unpack CONFIG INPUT OUTPUT, each section of
+     *  the SymbolFile INPUT is converted under its setting line and
+     *  written to OUTPUT line for line, as this would have written it.
+     *  With --indicators or --encipher-indicators before the usual
+     *  arguments, each setting line is a daily key and each message line
+     *  starts with its indicator (see setIndicators).
+     *  With -Denigma.planner.budget=MB, an EnginePlanner with that memory
+     *  budget chooses how the machine converts after each setup.
+     *  With -Denigma.arena=FILE, the rotors' tables are kept in the
+     *  TableArena in FILE, shared with other processes using it.
+     *  With -Denigma.catalog.report=true, the number of rotors and of
+     *  distinct wirings in the configuration, and the memory saved by
+     *  sharing them, go to the standard error. */
     public static void main(String... args) {
         try {
+            if (args.length > 0 && args[0].equals("--checkpoint")) {
+                runCheckpointed(args);
+                return;
+            }
+            if (args.length > 0 && args[0].equals("--pack")) {
+                runPack(args);
+                return;
+            }
+            if (args.length > 0 && args[0].equals("--unpack")) {
+                runUnpack(args);
+                return;
+            }
+            if (args.length > 0 && args[0].equals("--dir")) {
+                if (runDirectory(args)) {
+                    return;
+                }
+                System.exit(1);
+            }
+            if (args.length > 0 && (args[0].equals("--indicators")
+                    || args[0].equals("--encipher-indicators"))) {
+                Main main = new Main(Arrays.copyOfRange(args, 1,
+                        args.length));
+                main.setIndicators(args[0].equals("--indicators"));
+                main.process();
+                return;
+            }
             new Main(args).process();
             return;
         } catch (EnigmaException excp) {
+            if (Metrics.ENABLED) {
+                Metrics.GLOBAL.error();
+            }
             System.err.printf("Error: %s%n", excp.getMessage());
         }
         System.exit(1);
@@ -54,6 +110,168 @@ public final class Main {
         }
     }
 
+    /** Run the StreamJob given by ARGS, which are --checkpoint FILE CONFIG
+     *  INPUT OUTPUT. */
+    private static void runCheckpointed(String[] args) {
+        if (args.length != 5) {
+            throw error("Usage: java enigma.Main --checkpoint FILE CONFIG "
+                    + "INPUT OUTPUT");
+        }
+        ArrayList<String> configLines;
+        try (Scanner config = new Scanner(new File(args[2]))) {
+            configLines = readConfigLines(config);
+        } catch (IOException excp) {
+            throw error("could not open %s", args[2]);
+        }
+        new StreamJob(configLines, Path.of(args[3]), Path.of(args[4]),
+                Path.of(args[1])).run();
+    }
+
+    /** Run the DirectoryJob given by ARGS, which are --dir CONFIG INDIR
+     *  OUTDIR [MAXOPEN [MAXMB]], and return true iff every file was
+     *  converted. */
+    private static boolean runDirectory(String[] args) {
+        if (args.length < 4 || args.length > 6) {
+            throw error("Usage: java enigma.Main --dir CONFIG INDIR OUTDIR "
+                    + "[MAXOPEN [MAXMB]]");
+        }
+        ArrayList<String> configLines;
+        try (Scanner config = new Scanner(new File(args[1]))) {
+            configLines = readConfigLines(config);
+        } catch (IOException excp) {
+            throw error("could not open %s", args[1]);
+        }
+        int maxOpen = DirectoryJob.DEFAULT_MAX_OPEN;
+        long maxBytes = DirectoryJob.DEFAULT_MAX_BYTES;
+        try {
+            if (args.length > 4) {
+                maxOpen = Integer.parseInt(args[4]);
+            }
+            if (args.length > 5) {
+                maxBytes = Long.parseLong(args[5]) << 20;
+            }
+        } catch (NumberFormatException excp) {
+            throw error("bad limit %s", excp.getMessage());
+        }
+        DirectoryJob job = new DirectoryJob(configLines, Path.of(args[2]),
+                Path.of(args[3]), maxOpen, maxBytes);
+        job.run();
+        return job.failures().isEmpty();
+    }
+
+    /** Convert the messages of a file into a SymbolFile, as given by
+     *  ARGS, which are --pack CONFIG INPUT OUTPUT.  Each message line
+     *  goes to the engine as a block of alphabet indices, and from it to
+     *  the file as a line of its section.  Empty lines before the first
+     *  setting line, which print as empty lines, go to the first
+     *  section. */
+    private static void runPack(String[] args) {
+        if (args.length != 4) {
+            throw error("Usage: java enigma.Main --pack CONFIG INPUT "
+                    + "OUTPUT");
+        }
+        Machine machine = Machine.makeAMachine(configLines(args[1]),
+                TableArena.fromProperties());
+        Alphabet alphabet = machine.alphabet();
+        TableEngine engine = null;
+        int blank = 0;
+        int[] symbols = new int[SymbolFile.BLOCK_SYMBOLS];
+        try (Scanner input = new Scanner(new File(args[2]));
+             SymbolFile.Writer output =
+                 new SymbolFile.Writer(Path.of(args[3]))) {
+            while (input.hasNextLine()) {
+                String line = input.nextLine().trim();
+                if (line.startsWith("*")) {
+                    machine.setupMachine(line);
+                    engine = EngineCompiler.specialize(machine);
+                    output.startSection(alphabet, line);
+                    for (; blank > 0; blank--) {
+                        output.endLine();
+                    }
+                    continue;
+                }
+                if (engine == null) {
+                    if (line.isEmpty()) {
+                        blank++;
+                        continue;
+                    }
+                    throw error("This machine has not any rotors in.");
+                }
+                if (symbols.length < line.length()) {
+                    symbols = new int[line.length()];
+                }
+                int n = 0;
+                for (int i = 0; i < line.length(); i++) {
+                    char c = line.charAt(i);
+                    if (alphabet.contains(c)) {
+                        symbols[n++] = alphabet.toInt(c);
+                    }
+                }
+                engine.convert(symbols, 0, n);
+                output.write(symbols, 0, n);
+                output.endLine();
+            }
+        } catch (IOException excp) {
+            throw error("could not open %s", args[2]);
+        }
+    }
+
+    /** Convert each section of a SymbolFile into its message lines, as
+     *  given by ARGS, which are --unpack CONFIG INPUT OUTPUT.  Blocks of
+     *  symbols go from the file through the engine without becoming
+     *  characters until they are printed, in groups of five. */
+    private static void runUnpack(String[] args) {
+        if (args.length != 4) {
+            throw error("Usage: java enigma.Main --unpack CONFIG INPUT "
+                    + "OUTPUT");
+        }
+        Machine machine = Machine.makeAMachine(configLines(args[1]),
+                TableArena.fromProperties());
+        Alphabet alphabet = machine.alphabet();
+        String chars = new String(alphabet.toCharArray());
+        int[] symbols = new int[SymbolFile.BLOCK_SYMBOLS];
+        try (SymbolFile.Reader input = new SymbolFile.Reader(
+                 Path.of(args[2]));
+             BufferedWriter output = Files.newBufferedWriter(
+                 Path.of(args[3]))) {
+            while (input.nextSection()) {
+                if (!chars.equals(new String(
+                        input.alphabet().toCharArray()))) {
+                    throw error("%s is of another alphabet", args[2]);
+                }
+                machine.setupMachine(input.setting());
+                TableEngine engine = EngineCompiler.specialize(machine);
+                for (int length : input.lines()) {
+                    for (int written = 0; written < length;) {
+                        int n = input.read(symbols, 0,
+                                Math.min(symbols.length, length - written));
+                        engine.convert(symbols, 0, n);
+                        for (int i = 0; i < n; i++, written++) {
+                            if (written > 0 && written % 5 == 0) {
+                                output.write(' ');
+                            }
+                            output.write(alphabet.toChar(symbols[i]));
+                        }
+                    }
+                    output.newLine();
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not open %s", args[3]);
+        }
+    }
+
+    /** Returns the configuration lines of the file named NAME. */
+    private static ArrayList<String> configLines(String name) {
+        try (Scanner config = new Scanner(new File(name))) {
+            return readConfigLines(config);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        } catch (NoSuchElementException excp) {
+            throw error("configuration file truncated");
+        }
+    }
+
     /** Return a Scanner reading from the file named NAME. */
     private Scanner getInput(String name) {
         try {
@@ -75,9 +293,14 @@ public final class Main {
     /** Configure an Enigma machine from the contents of configuration
      *  file _config and apply it to the messages in _input, sending the
      *  results to _output. */
-    private void process() {
+    void process() {
         /* read configurations to set an Enigma machine */
         Machine machine = readConfig();
+        EnginePlanner planner = EnginePlanner.fromProperties();
+        if (planner != null) {
+            machine.setPlanner(planner);
+        }
+        String ground = null;
 
         /* process(encode/decode) very line, and print the msg */
         while (_input.hasNext()){
@@ -87,61 +310,129 @@ public final class Main {
             /* read setting line from _input, and initialize the machine */
             if( aLine.startsWith("*")){
                 machine.setupMachine(aLine);
+                ground = machine.currentState();
+            }else if (_indicators && !aLine.isEmpty()) {
+                /* a message under the daily key: only the positions change */
+                if (ground == null) {
+                    throw error("This machine has not any rotors in.");
+                }
+                printMessageLine(machine.convertIndicated(aLine, ground,
+                        _decipher));
             }else {
                 /* convert this line and print */
+                FlightEvents.SlowMessage event =
+                    new FlightEvents.SlowMessage();
+                event.begin();
+                boolean timed = _messageTimer != null || Metrics.ENABLED;
+                long start = timed ? System.nanoTime() : 0;
                 aLine = machine.convert(aLine);
                 printMessageLine(aLine);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.length = aLine.length();
+                    event.setting = machine.configString();
+                    event.commit();
+                }
+                if (timed) {
+                    long nanos = System.nanoTime() - start;
+                    if (_messageTimer != null) {
+                        _messageTimer.accept(nanos);
+                    }
+                    if (Metrics.ENABLED) {
+                        Metrics.GLOBAL.line(nanos);
+                    }
+                }
             }
         }
+        _output.flush();
+    }
+
+    /** Have TIMER told the nanoseconds spent converting and printing each
+     *  message line from now on, or nothing if TIMER is null. */
+    void setMessageTimer(LongConsumer timer) {
+        _messageTimer = timer;
+    }
+
+    /** Treat each setting line from now on as a daily key, and each
+     *  message line as a message starting with its indicator, converted
+     *  from the positions of the daily key to give the message key from
+     *  which the rest of the line is converted; each message costs a
+     *  change of positions rather than a setup.  If DECIPHER, the lines
+     *  are ciphertext, and each output line starts with the message key;
+     *  otherwise they start with the message key, and each output line
+     *  with the indicator, so that the one mode undoes the other. */
+    void setIndicators(boolean decipher) {
+        _indicators = true;
+        _decipher = decipher;
     }
 
     /** Return an Enigma machine configured from the contents of configuration
      *  file _config. */
     private Machine readConfig() {
         try {
-            ArrayList<String> arrLines = new ArrayList<>();
-            String prevLine = "";
-            while (_config.hasNext()){
-                String s = _config.nextLine().trim();
-
-                if( s.startsWith("(") ){/* prevLine is not end */
-                    prevLine += " " + s;
-                }else {/* a new rotor config line */
-                    if( !prevLine.isEmpty() ) {
-                        arrLines.add(prevLine);
-                    }
-                    prevLine = s;
-                }
-            }
-            if( !prevLine.isEmpty() ){
-                arrLines.add(prevLine);
+            Machine machine = Machine.makeAMachine(readConfigLines(_config),
+                    TableArena.fromProperties());
+            if (Boolean.getBoolean("enigma.catalog.report")) {
+                System.err.printf("catalog: %s%n", machine.wirings());
             }
+            return machine;
+        } catch (NoSuchElementException excp) {
+            throw error("configuration file truncated");
+        }
+    }
 
-            return Machine.makeAMachine(arrLines);
+    /** Return the lines of the configuration read from CONFIG, with the
+     *  continuation lines of a rotor (those starting with '(') joined to
+     *  the line they continue. */
+    static ArrayList<String> readConfigLines(Scanner config) {
+        ArrayList<String> arrLines = new ArrayList<>();
+        String prevLine = "";
+        while (config.hasNext()){
+            String s = config.nextLine().trim();
 
-        } catch (NoSuchElementException excp) {
+            if( s.startsWith("(") ){/* prevLine is not end */
+                prevLine += " " + s;
+            }else {/* a new rotor config line */
+                if( !prevLine.isEmpty() ) {
+                    arrLines.add(prevLine);
+                }
+                prevLine = s;
+            }
+        }
+        if( !prevLine.isEmpty() ){
+            arrLines.add(prevLine);
+        }
+        if (arrLines.size() < 2) {
             throw error("configuration file truncated");
         }
+        return arrLines;
     }
 
     /** Print MSG in groups of five (except that the last group may
      *  have fewer letters). */
     private void printMessageLine(String msg) {
+        _output.println(messageLine(msg));
+    }
+
+    /** Returns MSG in groups of five (except that the last group may
+     *  have fewer letters) separated by blanks. */
+    static String messageLine(String msg) {
         int cnt = msg.length();
+        StringBuilder result = new StringBuilder(cnt + cnt / 5);
         int index = 0;
         while (index < cnt){
             if(index + 5 > cnt){
-                _output.print(msg.substring(index));
+                result.append(msg, index, cnt);
                 index = cnt;
             } else {
-                _output.print(msg.substring(index, index + 5));
+                result.append(msg, index, index + 5);
                 index += 5;
             }
             if(index < cnt){
-                _output.print(' ');
+                result.append(' ');
             }
         }
-        _output.println();
+        return result.toString();
     }
 
     /** Source of input messages. */
@@ -152,4 +443,13 @@ public final class Main {
 
     /** File for encoded/decoded messages. */
     private PrintStream _output;
+
+    /** Told the time of each message line, or null. */
+    private LongConsumer _messageTimer;
+
+    /** True iff message lines start with indicators. */
+    private boolean _indicators;
+
+    /** True iff indicators are deciphered rather than enciphered. */
+    private boolean _decipher;
 }
@@ -0,0 +1,190 @@
+package enigma;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/** Counters and latency histograms of the work done by Machine and Main:
+ *  symbols converted, message lines, setups and errors, and the time of
+ *  each setup and message line.  Counting is lock-free (striped counters
+ *  and LatencyHistogram), so any number of machines may report at once.
+ *
+ *  Metrics are off unless the JVM is started with -Denigma.metrics=true.
+ *  Then GLOBAL is published as the JMX MBean "enigma:type=Metrics", and a
+ *  summary line is printed to the standard error every
+ *  enigma.metrics.interval seconds (default 60; 0 for none).  Callers
+ *  test ENABLED, a constant to the JIT, before touching GLOBAL, so that
+ *  when metrics are off the instrumentation compiles away.
+ *  @author Jerry
+ */
+final class Metrics implements MetricsMBean {
+
+    /** True iff metrics are collected. */
+    static final boolean ENABLED = Boolean.getBoolean("enigma.metrics");
+
+    /** The metrics of this JVM, or null if not ENABLED. */
+    static final Metrics GLOBAL = ENABLED ? publish(new Metrics()) : null;
+
+    /** Name of the MBean of GLOBAL. */
+    static final String OBJECT_NAME = "enigma:type=Metrics";
+
+    /** Empty metrics. */
+    Metrics() {
+        _symbols = new LongAdder();
+        _lines = new LongAdder();
+        _setups = new LongAdder();
+        _errors = new LongAdder();
+        _setupTimes = new LatencyHistogram();
+        _messageTimes = new LatencyHistogram();
+    }
+
+    /** Count N symbols converted. */
+    void symbols(long n) {
+        _symbols.add(n);
+    }
+
+    /** Count one setup, which took NANOS nanoseconds. */
+    void setup(long nanos) {
+        _setups.increment();
+        _setupTimes.record(nanos);
+    }
+
+    /** Count one message line, which took NANOS nanoseconds to convert and
+     *  print. */
+    void line(long nanos) {
+        _lines.increment();
+        _messageTimes.record(nanos);
+    }
+
+    /** Count one error. */
+    void error() {
+        _errors.increment();
+    }
+
+    @Override
+    public long getSymbols() {
+        return _symbols.sum();
+    }
+
+    @Override
+    public long getLines() {
+        return _lines.sum();
+    }
+
+    @Override
+    public long getSetups() {
+        return _setups.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return _errors.sum();
+    }
+
+    @Override
+    public double getSetupP50Micros() {
+        return _setupTimes.percentile(0.50) / 1e3;
+    }
+
+    @Override
+    public double getSetupP99Micros() {
+        return _setupTimes.percentile(0.99) / 1e3;
+    }
+
+    @Override
+    public double getMessageP50Micros() {
+        return _messageTimes.percentile(0.50) / 1e3;
+    }
+
+    @Override
+    public double getMessageP99Micros() {
+        return _messageTimes.percentile(0.99) / 1e3;
+    }
+
+    @Override
+    public double getMessageMaxMicros() {
+        return _messageTimes.max() / 1e3;
+    }
+
+    @Override
+    public void reset() {
+        _symbols.reset();
+        _lines.reset();
+        _setups.reset();
+        _errors.reset();
+        _setupTimes.reset();
+        _messageTimes.reset();
+    }
+
+    /** Returns a one-line summary of the counts, with the symbol rate over
+     *  the last SECONDS seconds given the count of symbols LASTSYMBOLS at
+     *  their start. */
+    String summary(long lastSymbols, double seconds) {
+        long symbols = getSymbols();
+        return String.format("enigma metrics: symbols=%d (%.0f/s) lines=%d "
+                + "setups=%d errors=%d setup p50/p99=%.1f/%.1f us "
+                + "message p50/p99/max=%.1f/%.1f/%.1f us", symbols,
+                seconds > 0 ? (symbols - lastSymbols) / seconds : 0,
+                getLines(), getSetups(), getErrors(), getSetupP50Micros(),
+                getSetupP99Micros(), getMessageP50Micros(),
+                getMessageP99Micros(), getMessageMaxMicros());
+    }
+
+    /** Print summary() of METRICS to LOG every SECONDS seconds, from a
+     *  daemon thread. */
+    static void report(Metrics metrics, PrintStream log, long seconds) {
+        ScheduledExecutorService timer =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "enigma-metrics");
+                t.setDaemon(true);
+                return t;
+            });
+        long[] last = { 0 };
+        timer.scheduleAtFixedRate(() -> {
+            long now = metrics.getSymbols();
+            log.println(metrics.summary(last[0], seconds));
+            last[0] = now;
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /** Register METRICS as the MBean OBJECT_NAME, start its periodic
+     *  report, and return it. */
+    private static Metrics publish(Metrics metrics) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(metrics, new ObjectName(OBJECT_NAME));
+        } catch (JMException excp) {
+            System.err.printf("enigma metrics: not published: %s%n",
+                    excp.getMessage());
+        }
+        long seconds = Long.getLong("enigma.metrics.interval", 60);
+        if (seconds > 0) {
+            report(metrics, System.err, seconds);
+        }
+        return metrics;
+    }
+
+    /** Symbols converted. */
+    private final LongAdder _symbols;
+
+    /** Message lines processed. */
+    private final LongAdder _lines;
+
+    /** Setups done. */
+    private final LongAdder _setups;
+
+    /** Errors reported. */
+    private final LongAdder _errors;
+
+    /** Time of each setup. */
+    private final LatencyHistogram _setupTimes;
+
+    /** Time of each message line. */
+    private final LatencyHistogram _messageTimes;
+}
@@ -0,0 +1,39 @@
+package enigma;
+
+/** The management interface of Metrics, as seen through JMX under the
+ *  name "enigma:type=Metrics".  Durations are in microseconds.
+ *  @author Jerry
+ */
+public interface MetricsMBean {
+
+    /** Returns the number of symbols converted. */
+    long getSymbols();
+
+    /** Returns the number of message lines processed. */
+    long getLines();
+
+    /** Returns the number of machine setups. */
+    long getSetups();
+
+    /** Returns the number of errors reported. */
+    long getErrors();
+
+    /** Returns the median time of a setup. */
+    double getSetupP50Micros();
+
+    /** Returns the 99th percentile time of a setup. */
+    double getSetupP99Micros();
+
+    /** Returns the median time to convert and print a message line. */
+    double getMessageP50Micros();
+
+    /** Returns the 99th percentile time to convert and print a message
+     *  line. */
+    double getMessageP99Micros();
+
+    /** Returns the largest time to convert and print a message line. */
+    double getMessageMaxMicros();
+
+    /** Forget everything counted so far. */
+    void reset();
+}
@@ -0,0 +1,46 @@
+package enigma;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/** The suite of all JUnit tests for the Metrics class.
+ *  @author Jerry
+ */
+public class MetricsTest {
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkMetrics() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.symbols(40);
+        metrics.line(3000);
+        metrics.line(5000);
+        metrics.setup(1000);
+        metrics.error();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("enigma.test:type=Metrics");
+        server.registerMBean(metrics, name);
+        try {
+            assertEquals(40L, server.getAttribute(name, "Symbols"));
+            assertEquals(2L, server.getAttribute(name, "Lines"));
+            assertEquals(1L, server.getAttribute(name, "Errors"));
+            double p99 = (Double) server.getAttribute(name,
+                    "MessageP99Micros");
+            assertTrue("p99 " + p99, p99 >= 5.0 && p99 < 5.5);
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, server.getAttribute(name, "Symbols"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package enigma;
 
+import java.util.Arrays;
+
 /** Represents a permutation of a range of integers starting at 0 corresponding
  *  to the characters of an alphabet.
  *  @author Jerry
@@ -14,79 +16,186 @@ class Permutation {
     Permutation(String cycles, Alphabet alphabet) {
         _alphabet = alphabet;
 
-        _permutation = _alphabet.toCharArray();
-        _inversion = _alphabet.toCharArray();
-        _cycles = cycles;
+        _size = _alphabet.size();
+        _permutation = IndexTable.identity(_size);
+        _inversion = IndexTable.identity(_size);
+
+        /* scan cycles once, each run of characters between blanks and
+           parentheses being one cycle, so cycles of thousands of
+           characters cost no more than their length */
+        int start = 0;
+        for (int i = 0; i <= cycles.length(); i++) {
+            if (i == cycles.length() || isSeparator(cycles.charAt(i))) {
+                addCycle(cycles, start, i);
+                start = i + 1;
+            }
+        }
+    }
 
-        /* split cycles into a list of small character cycle */
-        String[] cycle = cycles.split("[\\t ()]");
-        for (String s : cycle) {
-            addCycle(s);
+    /** Set this Permutation to the one mapping index i to MAPPING[i] in
+     *  ALPHABET. MAPPING must be a permutation of 0..ALPHABET.size()-1. */
+    Permutation(int[] mapping, Alphabet alphabet) {
+        _alphabet = alphabet;
+        _size = _alphabet.size();
+
+        if (mapping.length != _alphabet.size()) {
+            throw new EnigmaException(String.format("Permutation mapping " +
+                    "size[%d] is not alphabet size[%d]", mapping.length,
+                    _alphabet.size()));
+        }
+        _permutation = IndexTable.identity(mapping.length);
+        _inversion = IndexTable.identity(mapping.length);
+        for (int i = 0; i < mapping.length; i++) {
+            if (mapping[i] < 0 || mapping[i] >= _size) {
+                throw new EnigmaException(String.format("Permutation " +
+                        "mapping[%d] = %d is not in 0..%d", i, mapping[i],
+                        _size - 1));
+            }
+            _permutation.set(i, mapping[i]);
+            _inversion.set(mapping[i], i);
         }
     }
 
-    /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
-     *  c0c1...cm. */
-    private void addCycle(String cycle) {
-        int cycleLen = cycle.length();
+    /** A permutation of ALPHABET whose forward and inverse mappings are
+     *  PERMUTATION and INVERSION. */
+    private Permutation(Alphabet alphabet, IndexTable permutation,
+                        IndexTable inversion) {
+        _alphabet = alphabet;
+        _size = alphabet.size();
+        _permutation = permutation;
+        _inversion = inversion;
+    }
+
+    /** Returns this permutation with its tables in ARENA, shared with
+     *  every process using equal ones. */
+    Permutation share(TableArena arena) {
+        return new Permutation(_alphabet, arena.share(_permutation, _size),
+                arena.share(_inversion, _size));
+    }
+
+    /** Returns true iff CH separates cycles. */
+    private static boolean isSeparator(char ch) {
+        return ch == ' ' || ch == '\t' || ch == '(' || ch == ')';
+    }
+
+    /** Add the cycle c0->c1->...->cm->c0 to the permutation, where
+     *  c0c1...cm is CYCLES from START (inclusive) to END (exclusive). */
+    private void addCycle(String cycles, int start, int end) {
         /* alphabet cycle string's length =1 link to itself, not necessary to set*/
-        if(cycleLen < 2){
+        if(end - start < 2){
             return;
         }
-        /* from c0-cm initialized the _permutation and _inversion index char array */
-        for(int i = 0 ; i < cycleLen; i++){
-            /* forward index */
-            int permIndex = (i+1) % cycleLen;
-            /* backward index */
-            int invertIndex = i>0 ? (i-1) % cycleLen : cycleLen-1;
-
-            int currIndex = _alphabet.toInt(cycle.charAt(i));
-
-            /* current char linked the correct character in forward cycle or backward cycle */
-            _permutation[currIndex] = cycle.charAt(permIndex);
-            _inversion[currIndex] = cycle.charAt(invertIndex);
+        /* link each character to the next, and the last to the first */
+        int first = _alphabet.toInt(cycles.charAt(start));
+        int prev = first;
+        for(int i = start + 1; i < end; i++){
+            int curr = _alphabet.toInt(cycles.charAt(i));
+            _permutation.set(prev, curr);
+            _inversion.set(curr, prev);
+            prev = curr;
         }
+        _permutation.set(prev, first);
+        _inversion.set(first, prev);
     }
 
     /** Return the value of P modulo the size of this permutation. */
     final int wrap(int p) {
-        int r = p % size();
+        int r = p % _size;
         if (r < 0) {
-            r += size();
+            r += _size;
         }
         return r;
     }
 
+    /** Return the value of P modulo N, where -N <= P < 2 * N, without a
+     *  division or a branch. */
+    static int reduce(int p, int n) {
+        p += (p >> 31) & n;
+        p -= n;
+        return p + ((p >> 31) & n);
+    }
+
     /** Returns the size of the alphabet I permute. */
     int size() {
-        return _alphabet.size();
+        return _size;
     }
 
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        int r = wrap(p);
-        return _alphabet.toInt(_permutation[r]);
+        return _permutation.get(wrap(p));
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        int r = wrap(c);
-        return _alphabet.toInt(_inversion[r]);
+        return _inversion.get(wrap(c));
+    }
+
+    /** Return the result of applying this permutation to R, which must be
+     *  in 0..size()-1. */
+    int permuteIndex(int r) {
+        return _permutation.get(r);
+    }
+
+    /** Return the result of applying the inverse of this permutation to R,
+     *  which must be in 0..size()-1. */
+    int invertIndex(int r) {
+        return _inversion.get(r);
     }
 
     /** Return the result of applying this permutation to the index of P
      *  in ALPHABET, and converting the result to a character of ALPHABET. */
     char permute(char p) {
-        int r = wrap(_alphabet.toInt(p));
-        return _permutation[r];
+        return _alphabet.toChar(_permutation.get(_alphabet.toInt(p)));
     }
 
     /** Return the result of applying the inverse of this permutation to C. */
     char invert(char c) {
-        int r = wrap(_alphabet.toInt(c));
-        return _inversion[r];
+        return _alphabet.toChar(_inversion.get(_alphabet.toInt(c)));
+    }
+
+    /** Returns my forward mapping as a new array of alphabet indices. */
+    int[] forwardTable() {
+        return _permutation.toArray();
+    }
+
+    /** Returns my inverse mapping as a new array of alphabet indices. */
+    int[] inverseTable() {
+        return _inversion.toArray();
+    }
+
+    /** Returns the lengths of my cycles (including fixed points), longest
+     *  first. */
+    int[] cycleLengths() {
+        return cycleLengths(forwardTable());
+    }
+
+    /** Returns the lengths of the cycles of the permutation MAPPING of
+     *  0..MAPPING.length-1, longest first. */
+    static int[] cycleLengths(int[] mapping) {
+        boolean[] seen = new boolean[mapping.length];
+        int[] lengths = new int[mapping.length];
+        int count = 0;
+        for (int i = 0; i < mapping.length; i++) {
+            if (seen[i]) {
+                continue;
+            }
+            int len = 0;
+            for (int j = i; !seen[j]; j = mapping[j]) {
+                seen[j] = true;
+                len++;
+            }
+            lengths[count++] = len;
+        }
+        int[] result = Arrays.copyOf(lengths, count);
+        Arrays.sort(result);
+        for (int i = 0, j = count - 1; i < j; i++, j--) {
+            int t = result[i];
+            result[i] = result[j];
+            result[j] = t;
+        }
+        return result;
     }
 
     /** Return the alphabet used to initialize this Permutation. */
@@ -98,7 +207,7 @@ class Permutation {
      *  permutation for which no value maps to itself). */
     boolean derangement() {
         for(int i = 0 ; i < size(); i++){
-            if(_inversion[i] == _alphabet.toChar(i)) {
+            if(_inversion.get(i) == i) {
                 return false;
             }
         }
@@ -108,10 +217,12 @@ class Permutation {
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
 
-    /** My permutation string */
-    private char[] _permutation;
-    /** My inversion string, add this filed for performance considerations */
-    private char[] _inversion;
-    /** My cycles string */
-    private String _cycles;
+    /** Size of my alphabet. */
+    private final int _size;
+
+    /** My forward mapping of alphabet indices, in the narrowest table
+     *  for my alphabet. */
+    private IndexTable _permutation;
+    /** My inverse mapping, add this filed for performance considerations */
+    private IndexTable _inversion;
 }
@@ -94,4 +94,57 @@ public class PermutationTest {
                 'S', perm.invert(c));
     }
 
+    @Test
+    public void checkTableWidths() {
+        assertEquals(1, IndexTable.identity(26).width());
+        assertEquals(1, IndexTable.identity(256).width());
+        assertEquals(2, IndexTable.identity(257).width());
+        assertEquals(2, IndexTable.identity(65536).width());
+        assertEquals(4, IndexTable.identity(65537).width());
+        for (int n : new int[] { 256, 300 }) {
+            StringBuilder chars = new StringBuilder();
+            for (int i = 0; i < n; i++) {
+                chars.append((char) (0x4e00 + i));
+            }
+            Alphabet big = new Alphabet(chars.toString());
+            int[] mapping = new int[n];
+            for (int i = 0; i < n; i++) {
+                mapping[i] = (i + 7) % n;
+            }
+            perm = new Permutation(mapping, big);
+            for (int i = 0; i < n; i++) {
+                assertEquals(mapping[i], perm.permute(i));
+                assertEquals(i, perm.invert(mapping[i]));
+            }
+            mapping[n - 1] = n;
+            try {
+                new Permutation(mapping, big);
+                fail("mapped outside the alphabet");
+            } catch (EnigmaException excp) {
+                /* expected */
+            }
+            char last = chars.charAt(n - 1);
+            perm = new Permutation("(" + chars.charAt(0) + last + ")", big);
+            assertEquals(n - 1, perm.permute(0));
+            assertEquals(last, perm.invert(chars.charAt(0)));
+            assertArrayEquals(perm.forwardTable(), perm.inverseTable());
+        }
+    }
+
+    @Test
+    public void checkLongCycle() {
+        String chars = Workloads.alphabet(20000);
+        Alphabet big = new Alphabet(chars);
+        perm = new Permutation("(" + chars + ")", big);
+        for (int i = 0; i < chars.length(); i++) {
+            assertEquals((i + 1) % chars.length(), perm.permute(i));
+        }
+        perm = new Permutation("\t(" + chars.substring(0, 3) + ")  "
+                + chars.substring(5, 7) + "(" + chars.charAt(9) + ")", big);
+        assertEquals(1, perm.permute(0));
+        assertEquals(0, perm.permute(2));
+        assertEquals(6, perm.permute(5));
+        assertEquals(9, perm.permute(9));
+        assertEquals(3, perm.permute(3));
+    }
 }
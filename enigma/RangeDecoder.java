@@ -0,0 +1,337 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+
+/** Random access to the plaintext of a large ciphertext file, such as
+ *  Main writes: the conversion of symbols FROM (inclusive) to TO
+ *  (exclusive), counting only the characters of the alphabet, so that the
+ *  blanks between the groups of five, the line ends and anything else not
+ *  in the alphabet are skipped.  The file is memory-mapped and read as
+ *  UTF-8.
+ *
+ *  On first access the file is scanned once, stepping (not converting) a
+ *  machine, to build a sparse index: for every STRIDE-th symbol, its byte
+ *  offset and the rotor positions before it.  A range is then decoded by
+ *  setting the positions from the entry at or before FROM, reading from
+ *  its offset, stepping over fewer than STRIDE symbols and converting the
+ *  rest.  The index may be kept in a file of its own, which is used again
+ *  while the ciphertext, the configuration and the setting are unchanged;
+ *  it records a digest of the configuration, which the setting line alone
+ *  does not pin down.
+ *
+ *  Usage: java enigma.RangeDecoder CONFIG FILE SETTING FROM TO
+ *  @author Jerry
+ */
+class RangeDecoder {
+
+    /** Print the symbols ARGS[3] to ARGS[4] of the ciphertext file ARGS[1]
+     *  under the setting line ARGS[2], for the configuration file ARGS[0],
+     *  keeping the index in ARGS[1] + ".idx". */
+    public static void main(String... args) {
+        try {
+            if (args.length != 5) {
+                throw error("Usage: java enigma.RangeDecoder CONFIG FILE "
+                        + "SETTING FROM TO");
+            }
+            ArrayList<String> config;
+            try (Scanner scanner = new Scanner(new File(args[0]))) {
+                config = Main.readConfigLines(scanner);
+            } catch (IOException excp) {
+                throw error("could not open %s", args[0]);
+            }
+            RangeDecoder decoder = new RangeDecoder(config, args[2],
+                    Path.of(args[1]), Path.of(args[1] + ".idx"));
+            System.out.println(decoder.decode(Long.parseLong(args[3]),
+                    Long.parseLong(args[4])));
+        } catch (EnigmaException | NumberFormatException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** A decoder of FILE, converted under the setting line SETTING by the
+     *  machine configured by CONFIGLINES, keeping its index in INDEXFILE,
+     *  or only in memory if INDEXFILE is null. */
+    RangeDecoder(ArrayList<String> configLines, String setting, Path file,
+                 Path indexFile) {
+        Machine machine = Machine.makeAMachine(configLines);
+        machine.setupMachine(setting);
+        _setting = machine.configString();
+        _config = digest(configLines);
+        _alphabet = machine.alphabet();
+        _engine = new TableEngine(machine);
+        _start = _engine.positions();
+        _file = file;
+        _indexFile = indexFile;
+        try (FileChannel channel = FileChannel.open(file,
+                 StandardOpenOption.READ)) {
+            _length = channel.size();
+            _segments = new MappedByteBuffer[(int) ((_length + SEGMENT - 1)
+                                                    / SEGMENT)];
+            for (int i = 0; i < _segments.length; i++) {
+                long at = (long) i * SEGMENT;
+                _segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, at,
+                        Math.min(SEGMENT, _length - at));
+            }
+            _modified = Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException excp) {
+            throw error("could not map %s", file);
+        }
+    }
+
+    /** Returns the number of symbols of the alphabet in the file. */
+    long symbols() {
+        index();
+        return _symbols;
+    }
+
+    /** Returns the conversion of the symbols FROM (inclusive) to TO
+     *  (exclusive) of the file. */
+    synchronized String decode(long from, long to) {
+        index();
+        if (from < 0 || to > _symbols || from > to) {
+            throw error("range [%d, %d) is not within the %d symbols of %s",
+                    from, to, _symbols, _file);
+        }
+        if (from == to) {
+            return "";
+        }
+        int entry = (int) (from / STRIDE);
+        int n = _start.length;
+        int[] posns = new int[n];
+        System.arraycopy(_positions, entry * n, posns, 0, n);
+        _engine.setPositions(posns);
+        long symbol = (long) entry * STRIDE;
+        long at = _offsets[entry];
+        StringBuilder result = new StringBuilder((int) (to - from));
+        while (symbol < to) {
+            int c = charAt(at);
+            at += _charLength;
+            if (!_alphabet.contains((char) c)) {
+                continue;
+            }
+            if (symbol >= from) {
+                result.append(_alphabet.toChar(
+                        _engine.convert(_alphabet.toInt((char) c))));
+            } else {
+                _engine.step();
+            }
+            symbol++;
+        }
+        return result.toString();
+    }
+
+    /** Build the index, or load it from the index file, if not yet done. */
+    private synchronized void index() {
+        if (_offsets != null || load()) {
+            return;
+        }
+        int n = _start.length;
+        ArrayList<Long> offsets = new ArrayList<>();
+        int[] positions = new int[64 * n];
+        _engine.setPositions(_start);
+        long symbol = 0;
+        for (long at = 0; at < _length; at += _charLength) {
+            int c = charAt(at);
+            if (!_alphabet.contains((char) c)) {
+                continue;
+            }
+            if (symbol % STRIDE == 0) {
+                if ((offsets.size() + 1) * n > positions.length) {
+                    positions = Arrays.copyOf(positions,
+                            2 * positions.length);
+                }
+                System.arraycopy(_engine.positions(), 0, positions,
+                        offsets.size() * n, n);
+                offsets.add(at);
+            }
+            _engine.step();
+            symbol++;
+        }
+        if (offsets.isEmpty()) {
+            System.arraycopy(_start, 0, positions, 0, n);
+            offsets.add(_length);
+        }
+        _offsets = new long[offsets.size()];
+        for (int i = 0; i < _offsets.length; i++) {
+            _offsets[i] = offsets.get(i);
+        }
+        _positions = Arrays.copyOf(positions, _offsets.length * n);
+        _symbols = symbol;
+        save();
+    }
+
+    /** Returns the character of the UTF-8 sequence at byte AT of the file,
+     *  or -1 if it is not a valid character of the Basic Multilingual
+     *  Plane, setting _charLength to the bytes it takes. */
+    private int charAt(long at) {
+        int b = byteAt(at);
+        if (b < 0x80) {
+            _charLength = 1;
+            return b;
+        } else if (b >= 0xc0 && b < 0xe0 && at + 1 < _length) {
+            _charLength = 2;
+            return (b & 0x1f) << 6 | (byteAt(at + 1) & 0x3f);
+        } else if (b >= 0xe0 && b < 0xf0 && at + 2 < _length) {
+            _charLength = 3;
+            return (b & 0x0f) << 12 | (byteAt(at + 1) & 0x3f) << 6
+                | (byteAt(at + 2) & 0x3f);
+        }
+        _charLength = 1;
+        return -1;
+    }
+
+    /** Returns the byte at AT of the file, 0..255. */
+    private int byteAt(long at) {
+        return _segments[(int) (at / SEGMENT)].get((int) (at % SEGMENT))
+            & 0xff;
+    }
+
+    /** Read the index from the index file, if there is one made from this
+     *  file, configuration and setting, and return true iff it was. */
+    private boolean load() {
+        if (_indexFile == null || !Files.exists(_indexFile)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(_indexFile)))) {
+            if (in.readInt() != MAGIC || in.readLong() != _length
+                || in.readLong() != _modified
+                || !in.readUTF().equals(_setting)
+                || in.readInt() != STRIDE) {
+                return false;
+            }
+            byte[] config = new byte[_config.length];
+            in.readFully(config);
+            if (!Arrays.equals(config, _config)) {
+                return false;
+            }
+            _symbols = in.readLong();
+            long[] offsets = new long[in.readInt()];
+            int[] positions = new int[offsets.length * _start.length];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = in.readLong();
+            }
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = in.readInt();
+            }
+            _positions = positions;
+            _offsets = offsets;
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Write the index to the index file, if any.  Failing to is not an
+     *  error: the index is built again next time. */
+    private void save() {
+        if (_indexFile == null) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(_indexFile)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(_length);
+            out.writeLong(_modified);
+            out.writeUTF(_setting);
+            out.writeInt(STRIDE);
+            out.write(_config);
+            out.writeLong(_symbols);
+            out.writeInt(_offsets.length);
+            for (long offset : _offsets) {
+                out.writeLong(offset);
+            }
+            for (int posn : _positions) {
+                out.writeInt(posn);
+            }
+        } catch (IOException excp) {
+            /* kept in memory only */
+        }
+    }
+
+    /** Returns the SHA-256 digest of the lines of CONFIGLINES, by which an
+     *  index file tells the configuration it was made with. */
+    private static byte[] digest(ArrayList<String> configLines) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String line : configLines) {
+                digest.update(line.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException excp) {
+            throw error("no SHA-256 digest");
+        }
+    }
+
+    /** Symbols between entries of the index. */
+    static final int STRIDE = 4096;
+
+    /** First word of an index file. */
+    private static final int MAGIC = 0x454e5232;
+
+    /** Bytes mapped by each buffer. */
+    private static final long SEGMENT = 1L << 30;
+
+    /** The setting line of the ciphertext. */
+    private final String _setting;
+
+    /** Digest of the configuration of the machine. */
+    private final byte[] _config;
+
+    /** Alphabet of the machine. */
+    private final Alphabet _alphabet;
+
+    /** The machine, stepped to each range. */
+    private final TableEngine _engine;
+
+    /** Rotor positions after setup. */
+    private final int[] _start;
+
+    /** The ciphertext file. */
+    private final Path _file;
+
+    /** Where the index is kept, or null. */
+    private final Path _indexFile;
+
+    /** Length of the file in bytes. */
+    private final long _length;
+
+    /** Time the file was last modified, in milliseconds. */
+    private final long _modified;
+
+    /** The file, mapped. */
+    private final MappedByteBuffer[] _segments;
+
+    /** Bytes of the character last read by charAt. */
+    private int _charLength;
+
+    /** Number of symbols in the file, once indexed. */
+    private long _symbols;
+
+    /** Byte offset of every STRIDE-th symbol, or null until indexed. */
+    private long[] _offsets;
+
+    /** Rotor positions before every STRIDE-th symbol, a row of
+     *  numRotors - 1 per entry. */
+    private int[] _positions;
+}
@@ -0,0 +1,80 @@
+package enigma;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the RangeDecoder class.
+ *  @author Jerry
+ */
+public class RangeDecoderTest {
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkRangeDecoder() throws Exception {
+        String setting = "* B Beta III IV I AXLE BCDE (HQ) (EX) (IP)";
+        Machine machine = Machine.makeAMachine(NAVALDEFAULT);
+        machine.setupMachine(setting);
+        StringBuilder plain = new StringBuilder();
+        StringBuilder file = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            String line = Workloads.message(26, 3 + i % 150, i);
+            plain.append(line);
+            file.append(Main.messageLine(machine.convert(line)))
+                .append(i % 3 == 0 ? "\r\n" : "\n");
+        }
+        Path dir = Files.createTempDirectory("enigma");
+        Path cipher = dir.resolve("cipher.txt");
+        Path index = dir.resolve("cipher.idx");
+        Files.writeString(cipher, file);
+
+        RangeDecoder decoder = new RangeDecoder(NAVALDEFAULT, setting, cipher,
+                index);
+        assertEquals(plain.length(), decoder.symbols());
+        assertTrue(Files.exists(index));
+        long[][] ranges = { {0, 10}, {4090, 4100}, {9000, 9000},
+                            {0, plain.length()}, {12345, plain.length()} };
+        for (long[] r : ranges) {
+            assertEquals(plain.substring((int) r[0], (int) r[1]),
+                    decoder.decode(r[0], r[1]));
+        }
+        RangeDecoder again = new RangeDecoder(NAVALDEFAULT, setting, cipher,
+                index);
+        assertEquals(plain.substring(8191, 8300), again.decode(8191, 8300));
+        try {
+            again.decode(0, plain.length() + 1);
+            fail("decoded past the end");
+        } catch (EnigmaException excp) {
+            /* expected */
+        }
+
+        ArrayList<String> other = new ArrayList<>(NAVALDEFAULT);
+        other.set(2, other.get(2).replace(" I MQ ", " I MA "));
+        RangeDecoder stale = new RangeDecoder(other, setting, cipher, index);
+        RangeDecoder fresh = new RangeDecoder(other, setting, cipher, null);
+        assertEquals(fresh.decode(8191, 8300), stale.decode(8191, 8300));
+
+        long end = 2 * RangeDecoder.STRIDE;
+        machine.setupMachine(setting);
+        Files.writeString(cipher, Main.messageLine(
+                machine.convert(Workloads.message(26, (int) end, 1))));
+        RangeDecoder even = new RangeDecoder(NAVALDEFAULT, setting, cipher,
+                null);
+        assertEquals(end, even.symbols());
+        assertEquals("", even.decode(end, end));
+        Files.delete(index);
+        Files.delete(cipher);
+        Files.delete(dir);
+    }
+}
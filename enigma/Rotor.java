@@ -1,5 +1,6 @@
 package enigma;
 
+import java.util.BitSet;
 import java.util.Scanner;
 
 /** Superclass that represents a rotor in the enigma machine.
@@ -13,7 +14,7 @@ class Rotor {
         _permutation = perm;
 
         _type = NOMOVING;
-        _notches = "";
+        _notches = new BitSet();
         _leftRotor = null;
         _position = 0;
         _ringOffset = 0;
@@ -21,6 +22,14 @@ class Rotor {
     }
 
     static public Rotor makeARotor(Alphabet alphabet, String config){
+        return makeARotor(alphabet, config, null);
+    }
+
+    /** Returns the rotor of ALPHABET described by the configuration line
+     *  CONFIG, whose wiring is interned among WIRINGS unless it is
+     *  null. */
+    static Rotor makeARotor(Alphabet alphabet, String config,
+                            Wirings wirings) {
         Scanner scanner = new Scanner(config);
 
         String name = scanner.next();
@@ -30,7 +39,8 @@ class Rotor {
             notches = type.substring(1);
         }
         String permute = scanner.nextLine();
-        Permutation perm = new Permutation(permute, alphabet);
+        Permutation perm = wirings == null
+            ? new Permutation(permute, alphabet) : wirings.intern(permute);
 
         Rotor rotor;
         if( type.charAt(0) == Rotor.MOVING ){
@@ -71,6 +81,11 @@ class Rotor {
         return _type == MOVING;
     }
 
+    /** Return my ring offset (Ringstellung). */
+    int ringPosition() {
+        return _ringOffset;
+    }
+
     /** Return true iff I reflect. */
     boolean reflecting() {
         return _type == REFLECTOR;
@@ -155,7 +170,11 @@ class Rotor {
                         " not in alphabet",c));
             }
         }
-        _notches = notches;
+        BitSet notchSet = new BitSet(size());
+        for (int i = 0; i < notches.length(); i++) {
+            notchSet.set(alphabet().toInt(notches.charAt(i)));
+        }
+        _notches = notchSet;
     }
 
     /** Setup the left rotor */
@@ -166,25 +185,38 @@ class Rotor {
     /** Return the conversion of P (an integer in the range 0..size()-1)
      *  according to my permutation. */
     int convertForward(int p) {
-        int offset = _position + _ringOffset;
-        return _permutation.wrap(_permutation.permute(p + offset) - offset);
+        int n = _permutation.size();
+        int offset = Permutation.reduce(_position + _ringOffset, n);
+        int r = _permutation.permuteIndex(Permutation.reduce(p + offset, n));
+        return Permutation.reduce(r - offset, n);
     }
 
     /** Return the conversion of E (an integer in the range 0..size()-1)
      *  according to the inverse of my permutation. */
     int convertBackward(int e) {
-        int offset = _position + _ringOffset;
-        return _permutation.wrap(_permutation.invert(e + offset) - offset);
+        int n = _permutation.size();
+        int offset = Permutation.reduce(_position + _ringOffset, n);
+        int r = _permutation.invertIndex(Permutation.reduce(e + offset, n));
+        return Permutation.reduce(r - offset, n);
+    }
+
+    /** Returns true iff the character at INDEX of my alphabet is one of
+     *  my notches. */
+    boolean notchAt(int index) {
+        return _notches.get(index);
+    }
+
+    /** Return my left rotor, or null if I have none. */
+    Rotor leftRotor() {
+        return _leftRotor;
     }
 
     /** Returns true iff I am positioned to allow the rotor to my left
      *  to advance. */
     boolean atNotch() {
-        int r = _permutation.wrap(_position + _ringOffset);
-        char c =_permutation.alphabet().toChar(r);
-
-        /* check the current position linked character in the notches */
-        return _notches.indexOf(c) >= 0;
+        /* check the current position is one of the notches */
+        return _notches.get(Permutation.reduce(_position + _ringOffset,
+                _permutation.size()));
     }
 
     /** Advance me one position, if possible. By default, does nothing. */
@@ -213,10 +245,36 @@ class Rotor {
         if(!atNotch() && !leftHadAdvance && _leftRotor != null
                 && _leftRotor.atNotch() && _leftRotor._leftRotor.hasAPawl())
         {
+            FlightEvents.DoubleStep event = new FlightEvents.DoubleStep();
+            if (!_quiet && event.isEnabled()) {
+                event.rotor = _leftRotor.name();
+                event.position = _leftRotor.setting();
+                event.commit();
+            }
             _leftRotor.advance();
         }
     }
 
+    /** Record no flight events from now on. */
+    void setQuiet() {
+        _quiet = true;
+    }
+
+    /** Returns a new rotor of my kind, with my name, permutation and
+     *  notches, in its 0 setting and with no left rotor or pawl. */
+    Rotor copy() {
+        Rotor result;
+        if (rotates()) {
+            result = new MovingRotor(_name, _permutation, "");
+        } else if (reflecting()) {
+            result = new Reflector(_name, _permutation);
+        } else {
+            result = new FixedRotor(_name, _permutation);
+        }
+        result._notches = _notches;
+        return result;
+    }
+
     /** return my type */
     char type(){
         return _type;
@@ -247,12 +305,15 @@ class Rotor {
     /** My type */
     private char _type;
 
-    /** My notches */
-    private String _notches;
+    /** My notches, as indices into my alphabet */
+    private BitSet _notches;
 
     /** My pawl */
     private boolean _hasAPawl;
 
     /** My left MOVING rotor of this rotor */
     private Rotor _leftRotor;
+
+    /** True iff I record no flight events. */
+    private boolean _quiet;
 }
@@ -0,0 +1,535 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Scanner;
+
+import static enigma.EnigmaException.*;
+
+/** Coordinates a crib search over a keyspace too large for one process.
+ *  The keyspace of rotor orders (reflector first) x ring positions x start
+ *  positions is cut into leases of consecutive start positions, which are
+ *  handed to SearchWorker processes connecting over a local socket.  By
+ *  default the orders are every legal one of the configuration, as given
+ *  by CycleCatalog.allOrders, and the ring positions only the first
+ *  letter for every rotor: a rotor converts, and turns at its notches,
+ *  by the sum of its position and ring position, so any other ring
+ *  setting only repeats keys already searched under other positions.
+ *  Ring positions may still be given, with -rings, to search those too.
+ *  Leases are numbered, and made from their numbers as they are handed
+ *  out, so only those handed out and not yet done are kept.  A worker
+ *  that stays silent longer than the timeout loses its connection and its
+ *  lease goes back to the queue.  The best K candidates, scored by how
+ *  many crib letters they convert before their first miss, are merged
+ *  from all results.  Settings are searched without a plugboard.
+ *
+ *  The protocol is lines of tab-separated words.  On connecting, the
+ *  coordinator sends "CONFIG n" and n configuration lines, "CRIB", the
+ *  plaintext and ciphertext lines, and "TIMEOUT ms".  It then sends
+ *  "LEASE id from to order rings" and waits for any number of "ALIVE"
+ *  lines followed by "RESULT id k" and k lines "score position", or by
+ *  "ERROR id message" from a worker that cannot set up the lease, which
+ *  is then dropped rather than handed to the next worker.  When the
+ *  search is finished it sends "DONE".  Orders and rings are checked
+ *  against the configuration before any lease is made, so that should
+ *  not happen.
+ *
+ *  Usage: java enigma.SearchCoordinator CONFIG PLAIN CIPHER [-port N]
+ *             [-lease N] [-top K] [-timeout MS] [-order ORDER]...
+ *             [-rings RINGS]...
+ *  @author Jerry
+ */
+class SearchCoordinator {
+
+    /** A candidate setting and the number of crib letters it converts. */
+    static final class Candidate implements Comparable<Candidate> {
+
+        /** A candidate SETTING line with SCORE. */
+        Candidate(String setting, int score) {
+            _setting = setting;
+            _score = score;
+        }
+
+        /** Returns my setting line. */
+        String setting() {
+            return _setting;
+        }
+
+        /** Returns my score. */
+        int score() {
+            return _score;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            if (_score != other._score) {
+                return Integer.compare(_score, other._score);
+            }
+            return other._setting.compareTo(_setting);
+        }
+
+        @Override
+        public String toString() {
+            return _score + " " + _setting;
+        }
+
+        /** Setting line. */
+        private final String _setting;
+
+        /** Crib letters converted before the first miss. */
+        private final int _score;
+    }
+
+    /** Search the configuration file ARGS[0] for the settings converting
+     *  the crib ARGS[1] to ARGS[2], with the options that follow, as
+     *  described above, and print the best candidates, best first.  The
+     *  port is printed to the standard error when the coordinator is
+     *  listening, so that workers may be started. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 3) {
+                throw error("Usage: java enigma.SearchCoordinator CONFIG "
+                        + "PLAIN CIPHER [-port N] [-lease N] [-top K] "
+                        + "[-timeout MS] [-order ORDER]... [-rings RINGS]...");
+            }
+            ArrayList<String> config;
+            try (Scanner scanner = new Scanner(new File(args[0]))) {
+                config = Main.readConfigLines(scanner);
+            } catch (IOException excp) {
+                throw error("could not open %s", args[0]);
+            }
+            Map<String, String> options = new HashMap<>();
+            options.put("-port", "0");
+            options.put("-lease", "" + DEFAULT_LEASE);
+            options.put("-top", "" + SearchWorker.DEFAULT_TOPK);
+            options.put("-timeout", "" + DEFAULT_TIMEOUT);
+            List<String> orders = new ArrayList<>();
+            List<String> rings = new ArrayList<>();
+            for (int i = 3; i < args.length; i += 2) {
+                if (i + 1 == args.length) {
+                    throw error("option %s needs a value", args[i]);
+                } else if (args[i].equals("-order")) {
+                    orders.add(args[i + 1]);
+                } else if (args[i].equals("-rings")) {
+                    rings.add(args[i + 1]);
+                } else if (options.containsKey(args[i])) {
+                    options.put(args[i], args[i + 1]);
+                } else {
+                    throw error("unknown option %s", args[i]);
+                }
+            }
+            SearchCoordinator coordinator = new SearchCoordinator(config,
+                    args[1], args[2], orders.isEmpty() ? null : orders,
+                    rings.isEmpty() ? null : rings,
+                    Long.parseLong(options.get("-lease")),
+                    Integer.parseInt(options.get("-top")));
+            coordinator.setTimeout(Integer.parseInt(options.get("-timeout")));
+            int port = coordinator.start(
+                    Integer.parseInt(options.get("-port")));
+            System.err.printf("search coordinator on port %d, %d leases%n",
+                    port, coordinator.numLeases());
+            for (Candidate candidate : coordinator.await(Long.MAX_VALUE)) {
+                System.out.println(candidate);
+            }
+            for (String failure : coordinator.failures()) {
+                System.err.printf("Error: %s%n", failure);
+            }
+        } catch (EnigmaException | NumberFormatException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** A search of the machine configured by CONFIGLINES for the settings
+     *  converting PLAIN to CIPHER, over every rotor order, with rings at
+     *  the first letter, and all start positions, in leases of LEASESIZE
+     *  positions, keeping the best TOPK candidates. */
+    SearchCoordinator(ArrayList<String> configLines, String plain,
+                      String cipher, long leaseSize, int topK) {
+        this(configLines, plain, cipher, null, null, leaseSize, topK);
+    }
+
+    /** A search as above, but over only the rotor ORDERS (such as
+     *  "B Beta I II III"), or every one if null, and the RINGS ring
+     *  positions (such as "AAAA"), or only the first letter if null. */
+    SearchCoordinator(ArrayList<String> configLines, String plain,
+                      String cipher, List<String> orders, List<String> rings,
+                      long leaseSize, int topK) {
+        if (leaseSize < 1) {
+            throw error("lease size must be positive");
+        }
+        _configLines = configLines;
+        _plain = plain;
+        _cipher = cipher;
+        _topK = topK;
+        _timeout = DEFAULT_TIMEOUT;
+        _requeued = new ArrayDeque<>();
+        _outstanding = new HashSet<>();
+        _best = new PriorityQueue<>();
+        _failures = new ArrayList<>();
+
+        Machine machine = Machine.makeAMachine(configLines);
+        _alphabet = machine.alphabet();
+        _numPositions = machine.numRotors() - 1;
+        _orders = orders != null ? new ArrayList<>(orders)
+            : CycleCatalog.allOrders(configLines);
+        String first = String.valueOf(_alphabet.toChar(0))
+            .repeat(_numPositions);
+        _rings = rings != null ? new ArrayList<>(rings) : List.of(first);
+        if (_orders.isEmpty() || _rings.isEmpty()) {
+            throw error("no rotor orders or ring positions to search");
+        }
+        for (String order : _orders) {
+            check(machine, order, first);
+        }
+        for (String ring : _rings) {
+            check(machine, _orders.get(0), ring);
+        }
+        _leaseSize = leaseSize;
+        try {
+            _positions = power(_alphabet.size(), _numPositions);
+            _numRings = _rings.size();
+            _leasesPerKey = (_positions + leaseSize - 1) / leaseSize;
+            _numLeases = Math.multiplyExact(Math.multiplyExact(
+                    (long) _orders.size(), _numRings), _leasesPerKey);
+        } catch (ArithmeticException excp) {
+            throw error("keyspace too large to number");
+        }
+    }
+
+    /** Check that MACHINE can be set up with the rotor ORDER and the ring
+     *  positions RINGS, throwing an EnigmaException if not. */
+    private void check(Machine machine, String order, String rings) {
+        for (int i = 0; i < rings.length(); i++) {
+            if (!_alphabet.contains(rings.charAt(i))) {
+                throw error("ring positions %s are not in the alphabet",
+                        rings);
+            }
+        }
+        try {
+            machine.setupMachine("* " + order + " "
+                    + String.valueOf(_alphabet.toChar(0))
+                        .repeat(_numPositions) + " " + rings);
+        } catch (EnigmaException excp) {
+            throw error("cannot search %s %s: %s", order, rings,
+                    excp.getMessage());
+        }
+    }
+
+    /** Set the time a worker may stay silent to MILLIS. */
+    void setTimeout(int millis) {
+        _timeout = millis;
+    }
+
+    /** Returns the number of leases in the whole search. */
+    long numLeases() {
+        return _numLeases;
+    }
+
+    /** Returns the leases dropped because a worker could not set them up,
+     *  each as "lease ID: MESSAGE". */
+    synchronized List<String> failures() {
+        return new ArrayList<>(_failures);
+    }
+
+    /** Returns the number of leases that were taken back from silent
+     *  workers. */
+    synchronized int reissued() {
+        return _reissued;
+    }
+
+    /** Start accepting workers on PORT of the loopback address (0 for any
+     *  free port), and return the port. */
+    int start(int port) {
+        try {
+            _server = new ServerSocket(port, 50,
+                    InetAddress.getLoopbackAddress());
+        } catch (IOException excp) {
+            throw error("could not listen on port %d", port);
+        }
+        Thread acceptor = new Thread(this::acceptWorkers, "coordinator");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return _server.getLocalPort();
+    }
+
+    /** Wait at most MILLIS for every lease to be done, stop accepting
+     *  workers, and return the best candidates, best first. */
+    List<Candidate> await(long millis) {
+        long now = System.currentTimeMillis();
+        long deadline = millis > Long.MAX_VALUE - now ? Long.MAX_VALUE
+            : now + millis;
+        synchronized (this) {
+            while (!finished()) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    throw error("search timed out with %d of %d leases done",
+                            _doneCount, _numLeases);
+                }
+                try {
+                    wait(left);
+                } catch (InterruptedException excp) {
+                    throw error("interrupted");
+                }
+            }
+        }
+        try {
+            _server.close();
+        } catch (IOException excp) {
+            /* ignore: workers are told DONE anyway */
+        }
+        synchronized (this) {
+            List<Candidate> result = new ArrayList<>(_best);
+            Collections.sort(result, Collections.reverseOrder());
+            return result;
+        }
+    }
+
+    /** Accept workers until the server socket is closed. */
+    private void acceptWorkers() {
+        while (!_server.isClosed()) {
+            try {
+                Socket socket = _server.accept();
+                Thread handler = new Thread(() -> serve(socket), "lease");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException excp) {
+                return;
+            }
+        }
+    }
+
+    /** Hand leases to the worker on SOCKET until the search is done or the
+     *  worker fails. */
+    private void serve(Socket socket) {
+        String[] lease = null;
+        try (Socket s = socket) {
+            s.setSoTimeout(_timeout);
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    s.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                    s.getOutputStream(), StandardCharsets.UTF_8));
+            out.println("CONFIG\t" + _configLines.size());
+            for (String line : _configLines) {
+                out.println(line);
+            }
+            out.println("CRIB");
+            out.println(_plain);
+            out.println(_cipher);
+            out.println("TIMEOUT\t" + _timeout);
+            out.flush();
+
+            while (true) {
+                lease = take();
+                if (lease == null) {
+                    if (finished()) {
+                        out.println("DONE");
+                        out.flush();
+                        return;
+                    }
+                    continue;
+                }
+                out.println("LEASE\t" + String.join("\t", lease));
+                out.flush();
+                String line = in.readLine();
+                while (line != null && line.equals("ALIVE")) {
+                    line = in.readLine();
+                }
+                if (line != null && line.startsWith("ERROR\t")) {
+                    drop(lease, line.split("\t", 3)[2]);
+                    lease = null;
+                    continue;
+                }
+                if (line == null || !line.startsWith("RESULT\t")) {
+                    throw new IOException("bad reply " + line);
+                }
+                String[] words = line.split("\t");
+                List<Candidate> found = new ArrayList<>();
+                for (int k = Integer.parseInt(words[2]); k > 0; k--) {
+                    String[] result = in.readLine().split("\t");
+                    found.add(new Candidate(settingOf(lease,
+                            Long.parseLong(result[1])),
+                            Integer.parseInt(result[0])));
+                }
+                complete(lease, found);
+                lease = null;
+            }
+        } catch (IOException | RuntimeException | InterruptedException excp) {
+            /* a silent worker times out here, too */
+            giveBack(lease);
+        }
+    }
+
+    /** Returns true iff every lease is done. */
+    private synchronized boolean finished() {
+        return _next == _numLeases && _outstanding.isEmpty();
+    }
+
+    /** Returns the next lease to hand out, one given back first, waiting
+     *  up to POLL_MILLIS for one if every lease is out; or null if there
+     *  is none. */
+    private synchronized String[] take() throws InterruptedException {
+        if (_requeued.isEmpty() && _next == _numLeases && !finished()) {
+            wait(POLL_MILLIS);
+        }
+        if (!_requeued.isEmpty()) {
+            return lease(_requeued.removeFirst());
+        } else if (_next < _numLeases) {
+            _outstanding.add(_next);
+            return lease(_next++);
+        }
+        return null;
+    }
+
+    /** Returns lease number ID as {id, from, to, order, rings}. */
+    private String[] lease(long id) {
+        long key = id / _leasesPerKey;
+        long from = id % _leasesPerKey * _leaseSize;
+        String order = _orders.get((int) (key / _numRings));
+        String rings = _rings.get((int) (key % _numRings));
+        return new String[] {
+            Long.toString(id), Long.toString(from),
+            Long.toString(Math.min(_positions, from + _leaseSize)),
+            order, rings };
+    }
+
+    /** Returns BASE to the power EXPONENT, failing on overflow. */
+    private static long power(long base, int exponent) {
+        long result = 1;
+        for (int i = 0; i < exponent; i++) {
+            result = Math.multiplyExact(result, base);
+        }
+        return result;
+    }
+
+    /** Record that LEASE is done with the candidates FOUND. */
+    private synchronized void complete(String[] lease, List<Candidate> found) {
+        if (!_outstanding.remove(Long.parseLong(lease[0]))) {
+            return;
+        }
+        _doneCount++;
+        for (Candidate candidate : found) {
+            _best.add(candidate);
+            if (_best.size() > _topK) {
+                _best.poll();
+            }
+        }
+        notifyAll();
+    }
+
+    /** Record that LEASE is dropped, unsearched, because of MESSAGE. */
+    private synchronized void drop(String[] lease, String message) {
+        if (_outstanding.remove(Long.parseLong(lease[0]))) {
+            _doneCount++;
+            _failures.add("lease " + lease[0] + ": " + message);
+            notifyAll();
+        }
+    }
+
+    /** Put LEASE, if any, back at the front of the queue. */
+    private synchronized void giveBack(String[] lease) {
+        if (lease != null && _outstanding.contains(Long.parseLong(lease[0]))) {
+            _reissued++;
+            _requeued.addFirst(Long.parseLong(lease[0]));
+            notifyAll();
+        }
+    }
+
+    /** Returns the setting line of start position number POSITION of
+     *  LEASE. */
+    private String settingOf(String[] lease, long position) {
+        return "* " + lease[3] + " " + TableEngine.positionName(position,
+                _alphabet, _numPositions) + " " + lease[4];
+    }
+
+    /** Default time a worker may stay silent, in milliseconds. */
+    static final int DEFAULT_TIMEOUT = 30000;
+
+    /** Default start positions per lease. */
+    static final long DEFAULT_LEASE = 1 << 20;
+
+    /** Time a handler waits for a lease before checking for the end. */
+    private static final int POLL_MILLIS = 50;
+
+    /** Configuration sent to the workers. */
+    private final ArrayList<String> _configLines;
+
+    /** Alphabet of the machine. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotors with a position. */
+    private final int _numPositions;
+
+    /** Rotor orders searched. */
+    private final List<String> _orders;
+
+    /** Ring positions searched. */
+    private final List<String> _rings;
+
+    /** Number of ring positions searched per order. */
+    private final long _numRings;
+
+    /** Number of start positions per order and ring positions. */
+    private final long _positions;
+
+    /** Start positions per lease. */
+    private final long _leaseSize;
+
+    /** Leases per order and ring positions. */
+    private final long _leasesPerKey;
+
+    /** Crib plaintext. */
+    private final String _plain;
+
+    /** Crib ciphertext. */
+    private final String _cipher;
+
+    /** Number of candidates kept. */
+    private final int _topK;
+
+    /** Time a worker may stay silent, in milliseconds. */
+    private int _timeout;
+
+    /** Number of leases. */
+    private final long _numLeases;
+
+    /** Number of the next lease never handed out. */
+    private long _next;
+
+    /** Numbers of the leases taken back from workers, to hand out first. */
+    private final ArrayDeque<Long> _requeued;
+
+    /** Numbers of the leases handed out, or taken back, and not done. */
+    private final HashSet<Long> _outstanding;
+
+    /** Number of leases done. */
+    private long _doneCount;
+
+    /** The best candidates so far, worst first. */
+    private final PriorityQueue<Candidate> _best;
+
+    /** Leases dropped, each "lease ID: MESSAGE". */
+    private final List<String> _failures;
+
+    /** Number of leases taken back from silent workers. */
+    private int _reissued;
+
+    /** Socket the workers connect to. */
+    private ServerSocket _server;
+}
@@ -0,0 +1,224 @@
+package enigma;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the SearchCoordinator class.
+ *  @author Jerry
+ */
+public class SearchCoordinatorTest {
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Start a thread running a worker for the coordinator on PORT. */
+    private void startWorker(int port) {
+        Thread worker = new Thread(() -> {
+            try {
+                new SearchWorker(null, port, 3).run();
+            } catch (EnigmaException excp) {
+                /* the coordinator went away */
+            }
+        });
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /** Connect to the coordinator on PORT, take a lease and never answer. */
+    private Socket startSilentWorker(int port) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                socket.getInputStream()));
+        String line = in.readLine();
+        while (line != null && !line.startsWith("LEASE")) {
+            line = in.readLine();
+        }
+        return socket;
+    }
+
+    /** Returns a process running the class MAIN of this classpath with
+     *  the arguments ARGS. */
+    private Process launch(String main, String... args) throws IOException {
+        List<String> command = new ArrayList<>(List.of(
+                ProcessHandle.current().info().command().orElse("java"),
+                "-cp", System.getProperty("java.class.path"), main));
+        command.addAll(Arrays.asList(args));
+        return new ProcessBuilder(command).start();
+    }
+
+    /** A small machine whose whole keyspace is searched in a moment. */
+    private static final List<String> SMALL = List.of(
+        "ABCDEF",
+        " 3 2",
+        " I MA      (AFBECD)",
+        " II MC     (ADBFCE)",
+        " III ME    (ABCDEF)",
+        " B R       (AB) (CD) (EF)");
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkSearchWithSilentWorker() throws IOException {
+        Machine machine = Machine.makeAMachine(NAVALDEFAULT);
+        machine.setupMachine("* B Beta III II I AZQD BAAA");
+        String plain = "WETTERVORHERSAGE";
+        String cipher = machine.convert(plain);
+
+        List<String> orders = Arrays.asList("B Beta I II III",
+                "B Beta III II I");
+        SearchCoordinator coordinator = new SearchCoordinator(NAVALDEFAULT,
+                plain, cipher, orders, null, 26 * 26 * 26, 2);
+        coordinator.setTimeout(300);
+        int port = coordinator.start(0);
+
+        Socket silent = startSilentWorker(port);
+        for (int i = 0; i < 3; i++) {
+            startWorker(port);
+        }
+        List<SearchCoordinator.Candidate> best = coordinator.await(4500);
+        silent.close();
+
+        assertEquals(2 * 26, coordinator.numLeases());
+        assertTrue("no lease was reissued", coordinator.reissued() >= 1);
+        /* a ring position adds to the position of its rotor, so a ring of
+           B on Beta is found as a position of B, and only once */
+        assertEquals(2, best.size());
+        assertEquals("* B Beta III II I BZQD AAAA", best.get(0).setting());
+        assertEquals(16, best.get(0).score());
+        assertTrue(best.get(1).score() < 16);
+    }
+
+    @Test
+    public void checkWholeKeyspace() {
+        long positions = 26 * 26 * 26 * 26;
+        SearchCoordinator coordinator = new SearchCoordinator(NAVALDEFAULT,
+                "WETTER", "ABCDEF", positions / 2, 1);
+        assertEquals(CycleCatalog.allOrders(NAVALDEFAULT).size() * 2L,
+                coordinator.numLeases());
+    }
+
+    @Test
+    public void checkWorkerProcesses() throws Exception {
+        String setting = "* B III I CE BD";
+        Machine machine = Machine.makeAMachine(new ArrayList<>(SMALL));
+        machine.setupMachine(setting);
+        String plain = "FACADEBADBED";
+        String cipher = machine.convert(plain);
+        Path config = Files.createTempFile("enigma", ".conf");
+        Files.write(config, SMALL);
+        Process coordinator = launch("enigma.SearchCoordinator",
+                config.toString(), plain, cipher, "-lease", "16",
+                "-top", "100");
+        List<Process> workers = new ArrayList<>();
+        try {
+            BufferedReader err = new BufferedReader(new InputStreamReader(
+                    coordinator.getErrorStream()));
+            String started = err.readLine();
+            assertEquals("search coordinator on port %d, 18 leases",
+                    started.replaceFirst("port \\d+", "port %d"));
+            String port = started.split(" ")[4].replace(",", "");
+            for (int i = 0; i < 2; i++) {
+                workers.add(launch("enigma.SearchWorker", port));
+            }
+            BufferedReader out = new BufferedReader(new InputStreamReader(
+                    coordinator.getInputStream()));
+            List<String> best = new ArrayList<>();
+            for (String line = out.readLine(); line != null;
+                 line = out.readLine()) {
+                best.add(line);
+            }
+            assertEquals(0, coordinator.waitFor());
+            assertTrue(best.get(0), best.get(0).startsWith("12 * "));
+            /* the rings BD only add to the positions CE */
+            assertTrue(best.toString(), best.contains("12 * B III I DB AA"));
+        } finally {
+            coordinator.destroy();
+            for (Process worker : workers) {
+                worker.destroy();
+            }
+            Files.delete(config);
+        }
+    }
+
+    @Test
+    public void checkBadOrdersAndRings() {
+        String[][] bad = {
+            { "B Beta III II X", "AAAA" },
+            { "B Beta III II I", "AA" },
+            { "B Beta III II I", "AA1A" },
+        };
+        for (String[] key : bad) {
+            try {
+                new SearchCoordinator(NAVALDEFAULT, "WETTER", "ABCDEF",
+                        List.of(key[0]), List.of(key[1]), 1000, 1);
+                fail("accepted " + key[0] + " " + key[1]);
+            } catch (EnigmaException excp) {
+                /* checked before any worker sees it */
+            }
+        }
+    }
+
+    @Test
+    public void checkLeaseErrors() throws IOException {
+        SearchCoordinator coordinator = new SearchCoordinator(
+                new ArrayList<>(SMALL), "FACADE", "BADBED",
+                List.of("B III I"), null, 36, 3);
+        int port = coordinator.start(0);
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                                        port)) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream()));
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            String line = in.readLine();
+            while (!line.startsWith("LEASE")) {
+                line = in.readLine();
+            }
+            out.println("ERROR\t" + line.split("\t")[1] + "\tbroken");
+            assertTrue(coordinator.await(2000).isEmpty());
+        }
+        assertEquals(List.of("lease 0: broken"), coordinator.failures());
+        assertEquals(0, coordinator.reissued());
+
+        try (ServerSocket server = new ServerSocket(0, 1,
+                 InetAddress.getLoopbackAddress())) {
+            startWorker(server.getLocalPort());
+            try (Socket socket = server.accept()) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(
+                        socket.getInputStream()));
+                PrintWriter out = new PrintWriter(socket.getOutputStream(),
+                        true);
+                out.println("CONFIG\t" + SMALL.size());
+                for (String line : SMALL) {
+                    out.println(line);
+                }
+                out.println("CRIB\nFACADE\nBADBED\nTIMEOUT\t1000");
+                out.println("LEASE\t7\t0\t36\tB III X\tAA");
+                String reply = in.readLine();
+                assertTrue(reply, reply.startsWith("ERROR\t7\t"));
+                out.println("LEASE\t8\t0\t36\tB III I\tA");
+                reply = in.readLine();
+                assertTrue(reply, reply.startsWith("ERROR\t8\t"));
+                out.println("DONE");
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+
+import static enigma.EnigmaException.*;
+
+/** A worker of a SearchCoordinator.  It loads the configuration and crib
+ *  the coordinator sends once, then searches each lease it is given with a
+ *  KeySearch and replies with the best candidates of the lease.  It keeps
+ *  nothing else between leases, so any worker can take any lease.
+ *
+ *  Usage: java enigma.SearchWorker PORT [HOST]
+ *  @author Jerry
+ */
+final class SearchWorker {
+
+    /** Run a worker for the coordinator on port ARGS[0] of host ARGS[1]
+     *  (default the loopback address). */
+    public static void main(String... args) {
+        try {
+            if (args.length < 1 || args.length > 2) {
+                throw error("usage: SearchWorker PORT [HOST]");
+            }
+            String host = args.length > 1 ? args[1] : null;
+            new SearchWorker(host, Integer.parseInt(args[0]), DEFAULT_TOPK)
+                .run();
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** A worker for the coordinator on PORT of HOST (null for the loopback
+     *  address), replying with at most TOPK candidates per lease. */
+    SearchWorker(String host, int port, int topK) {
+        _host = host;
+        _port = port;
+        _topK = topK;
+    }
+
+    /** Serve leases until the coordinator says DONE or goes away. */
+    void run() {
+        try (Socket socket = new Socket(_host, _port)) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                    socket.getOutputStream(), StandardCharsets.UTF_8));
+
+            String[] words = expect(in, "CONFIG");
+            ArrayList<String> config = new ArrayList<>();
+            for (int i = Integer.parseInt(words[1]); i > 0; i--) {
+                config.add(in.readLine());
+            }
+            expect(in, "CRIB");
+            String plain = in.readLine();
+            String cipher = in.readLine();
+            int timeout = Integer.parseInt(expect(in, "TIMEOUT")[1]);
+
+            Machine machine = Machine.makeAMachine(config);
+            KeySearch search = new KeySearch(plain, cipher,
+                    machine.alphabet());
+            while (true) {
+                String line = in.readLine();
+                if (line == null || line.equals("DONE")) {
+                    return;
+                }
+                String[] lease = line.split("\t");
+                if (!lease[0].equals("LEASE")) {
+                    throw error("unexpected %s from coordinator", line);
+                }
+                serve(machine, search, lease, timeout, out);
+            }
+        } catch (IOException excp) {
+            throw error("lost coordinator on port %d", _port);
+        }
+    }
+
+    /** Search LEASE {"LEASE", id, from, to, order, rings} of MACHINE with
+     *  SEARCH, telling the coordinator on OUT I am alive at least every
+     *  third of TIMEOUT, and send it the best candidates, or an error if
+     *  the lease cannot be set up. */
+    private void serve(Machine machine, KeySearch search, String[] lease,
+                       int timeout, PrintWriter out) {
+        TableEngine base;
+        try {
+            machine.setupMachine("* " + lease[4]);
+            base = new TableEngine(machine);
+            base.setRingPositions(ringsOf(machine, lease[5]));
+        } catch (EnigmaException excp) {
+            out.println("ERROR\t" + lease[1] + "\t" + excp.getMessage());
+            out.flush();
+            return;
+        }
+        long from = Long.parseLong(lease[2]);
+        long to = Long.parseLong(lease[3]);
+
+        /* worst first, so the head is the one to drop */
+        PriorityQueue<long[]> best = new PriorityQueue<>((a, b) ->
+            a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(b[1], a[1]));
+        SlicedEngine engine = new SlicedEngine(base);
+        int[] prefix = new int[KeySearch.BLOCK];
+        long lastSent = System.currentTimeMillis();
+        for (long first = from; first < to; first += KeySearch.BLOCK) {
+            int count = (int) Math.min(KeySearch.BLOCK, to - first);
+            search.match(engine, first, count, prefix);
+            for (int l = 0; l < count; l++) {
+                if (best.size() < _topK || prefix[l] > best.peek()[0]) {
+                    best.add(new long[] {prefix[l], first + l});
+                    if (best.size() > _topK) {
+                        best.poll();
+                    }
+                }
+            }
+            if (System.currentTimeMillis() - lastSent > timeout / 3) {
+                out.println("ALIVE");
+                out.flush();
+                lastSent = System.currentTimeMillis();
+            }
+        }
+
+        out.println("RESULT\t" + lease[1] + "\t" + best.size());
+        for (long[] candidate : best) {
+            out.println(candidate[0] + "\t" + candidate[1]);
+        }
+        out.flush();
+    }
+
+    /** Returns the ring positions RINGS of MACHINE as alphabet indices. */
+    private static int[] ringsOf(Machine machine, String rings) {
+        int[] result = new int[machine.numRotors() - 1];
+        if (rings.length() != result.length) {
+            throw error("need %d ring positions, but given %s",
+                    result.length, rings);
+        }
+        for (int i = 0; i < result.length; i++) {
+            result[i] = machine.alphabet().toInt(rings.charAt(i));
+        }
+        return result;
+    }
+
+    /** Read a line from IN that must start with the word WORD, and return
+     *  its words. */
+    private static String[] expect(BufferedReader in, String word)
+        throws IOException {
+        String line = in.readLine();
+        if (line == null || !line.split("\t")[0].equals(word)) {
+            throw error("expected %s from coordinator, got %s", word, line);
+        }
+        return line.split("\t");
+    }
+
+    /** Candidates per lease when run from the command line. */
+    static final int DEFAULT_TOPK = 10;
+
+    /** Host of the coordinator, or null for the loopback address. */
+    private final String _host;
+
+    /** Port of the coordinator. */
+    private final int _port;
+
+    /** Candidates sent per lease. */
+    private final int _topK;
+}
@@ -0,0 +1,474 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static enigma.EnigmaException.*;
+
+/** Sessions of a long-running service, each a machine stepping on its own,
+ *  kept in a memory-mapped file so that they outlive the process.  Every
+ *  session is a fixed-size record: whether it is open, the ids of its
+ *  rotors and of its plugboard, the bytes it has converted, and the
+ *  position and ring position of each rotor.  The rotor names and
+ *  plugboards themselves, few and shared by many sessions, are numbered in
+ *  a small dictionary file beside the store, appended to and forced before
+ *  any record refers to a new entry.
+ *
+ *  A conversion is plain stores into the mapping; the operating system
+ *  writes it out, and flush() or a flushing thread forces it at an
+ *  interval, so a crash loses at most the last interval of steps.  Opened
+ *  again, the store is usable at once: a session's machine is made on its
+ *  first conversion from a TableEngine compiled once per rotors and
+ *  plugboard, with the positions read from its record, so neither the
+ *  traffic nor a setup per session is replayed.
+ *
+ *  Sessions are numbered from 0 to capacity() - 1.  Conversions of
+ *  different sessions may run on different threads at once.
+ *  @author Jerry
+ */
+class SessionStore implements AutoCloseable {
+
+    /** A store in FILE of up to CAPACITY sessions of the machine
+     *  configured by CONFIGLINES.  If FILE exists, its sessions are kept
+     *  and its own capacity is used. */
+    SessionStore(ArrayList<String> configLines, Path file, int capacity) {
+        _configLines = new ArrayList<>(configLines);
+        Machine machine = Machine.makeAMachine(_configLines);
+        _alphabet = machine.alphabet();
+        _numRotors = machine.numRotors();
+        _recordSize = (RECORD_HEADER + 4 * (_numRotors - 1) + 7) & ~7;
+        _file = file;
+        _dictionaryFile = file.resolveSibling(file.getFileName() + ".dict");
+        _settings = new ArrayList<>();
+        _plugboards = new ArrayList<>();
+        _ids = new HashMap<>();
+        _templates = new ConcurrentHashMap<>();
+        _locks = new Object[LOCKS];
+        for (int i = 0; i < LOCKS; i++) {
+            _locks[i] = new Object();
+        }
+
+        try (FileChannel channel = FileChannel.open(file,
+                 StandardOpenOption.READ, StandardOpenOption.WRITE,
+                 StandardOpenOption.CREATE)) {
+            boolean fresh = channel.size() == 0;
+            if (!fresh) {
+                capacity = readHeader(channel);
+            } else if (capacity < 1 || capacity
+                       > (Integer.MAX_VALUE - HEADER) / _recordSize) {
+                throw error("bad session store capacity %d", capacity);
+            }
+            _capacity = capacity;
+            _records = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER + (long) capacity * _recordSize);
+        } catch (IOException excp) {
+            throw error("could not map %s", file);
+        }
+        _records.putInt(0, MAGIC);
+        _records.putInt(4, _numRotors);
+        _records.putInt(8, _capacity);
+        loadDictionary();
+
+        _free = new int[_capacity];
+        for (int id = _capacity - 1; id >= 0; id--) {
+            if (_records.getInt(at(id)) == OPEN) {
+                _open++;
+            } else {
+                _free[_numFree++] = id;
+            }
+        }
+    }
+
+    /** Returns the id of a new session set up by the setting line SETTING,
+     *  as a fresh machine would be: positions and ring positions not given
+     *  are those of the first character of the alphabet. */
+    int open(String setting) {
+        Setting parsed = Setting.parse(setting);
+        String[] words = parsed.words();
+        if (words.length < _numRotors) {
+            throw error("This machine has %d rotors, but only give %d.",
+                    _numRotors, words.length);
+        }
+        String names = String.join(" ", Arrays.copyOf(words, _numRotors));
+        int[] posns = indices(words, _numRotors);
+        int[] rings = indices(words, _numRotors + 1);
+        int settingId, plugboardId;
+        synchronized (this) {
+            settingId = _ids.getOrDefault("S" + names, -1);
+            plugboardId = _ids.getOrDefault("P" + parsed.plugboard(), -1);
+        }
+        if (settingId < 0 || plugboardId < 0) {
+            TableEngine engine = compile(names, parsed.plugboard());
+            settingId = intern(_settings, 'S', names);
+            plugboardId = intern(_plugboards, 'P', parsed.plugboard());
+            _templates.putIfAbsent(key(settingId, plugboardId), engine);
+        }
+
+        int id;
+        synchronized (this) {
+            if (_numFree == 0) {
+                throw error("all %d sessions of %s are open", _capacity,
+                        _file);
+            }
+            id = _free[--_numFree];
+            _open++;
+        }
+        synchronized (lock(id)) {
+            int at = at(id);
+            _records.putInt(at + 4, settingId);
+            _records.putInt(at + 8, plugboardId);
+            _records.putLong(at + 16, 0);
+            for (int i = 0; i < _numRotors - 1; i++) {
+                _records.putChar(at + RECORD_HEADER + 2 * i,
+                        (char) posns[i]);
+                _records.putChar(at + RECORD_HEADER
+                        + 2 * (_numRotors - 1 + i), (char) rings[i]);
+            }
+            _records.putInt(at, OPEN);
+        }
+        return id;
+    }
+
+    /** Returns the conversion of TEXT by session ID, dropping the
+     *  characters that are not in the alphabet, as Machine.convert does. */
+    String convert(int id, String text) {
+        synchronized (lock(id)) {
+            int at = checkOpen(id);
+            TableEngine engine = new TableEngine(template(
+                    _records.getInt(at + 4), _records.getInt(at + 8)));
+            int n = _numRotors - 1;
+            int[] posns = new int[n], rings = new int[n];
+            for (int i = 0; i < n; i++) {
+                posns[i] = _records.getChar(at + RECORD_HEADER + 2 * i);
+                rings[i] = _records.getChar(at + RECORD_HEADER
+                        + 2 * (n + i));
+            }
+            engine.setPositions(posns);
+            engine.setRingPositions(rings);
+
+            StringBuilder result = new StringBuilder(text.length());
+            long bytes = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                bytes += c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+                if (_alphabet.contains(c)) {
+                    result.append(_alphabet.toChar(
+                            engine.convert(_alphabet.toInt(c))));
+                }
+            }
+
+            posns = engine.positions();
+            for (int i = 0; i < n; i++) {
+                _records.putChar(at + RECORD_HEADER + 2 * i,
+                        (char) posns[i]);
+            }
+            _records.putLong(at + 16, _records.getLong(at + 16) + bytes);
+            return result.toString();
+        }
+    }
+
+    /** End session ID, freeing its record. */
+    void close(int id) {
+        synchronized (lock(id)) {
+            _records.putInt(checkOpen(id), 0);
+        }
+        synchronized (this) {
+            _free[_numFree++] = id;
+            _open--;
+        }
+    }
+
+    /** Returns true iff session ID is open. */
+    boolean isOpen(int id) {
+        return id >= 0 && id < _capacity
+            && _records.getInt(at(id)) == OPEN;
+    }
+
+    /** Returns the bytes of text, in UTF-8, session ID has converted. */
+    long bytesProcessed(int id) {
+        synchronized (lock(id)) {
+            return _records.getLong(checkOpen(id) + 16);
+        }
+    }
+
+    /** Returns the current positions of session ID, leftmost rotor first,
+     *  as in Machine.currentState(). */
+    String positions(int id) {
+        synchronized (lock(id)) {
+            int at = checkOpen(id);
+            StringBuilder result = new StringBuilder();
+            for (int i = 0; i < _numRotors - 1; i++) {
+                result.append(_alphabet.toChar(
+                        _records.getChar(at + RECORD_HEADER + 2 * i)));
+            }
+            return result.toString();
+        }
+    }
+
+    /** Returns the number of open sessions. */
+    synchronized int sessions() {
+        return _open;
+    }
+
+    /** Returns the most sessions I hold. */
+    int capacity() {
+        return _capacity;
+    }
+
+    /** Force the records to the file. */
+    void flush() {
+        _records.force();
+    }
+
+    /** Force the records to the file every MILLIS milliseconds until I am
+     *  closed. */
+    synchronized void startFlushing(long millis) {
+        if (_flusher != null) {
+            throw error("already flushing");
+        }
+        _flusher = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Thread.sleep(millis);
+                    flush();
+                }
+            } catch (InterruptedException excp) {
+                /* closed */
+            }
+        }, "enigma-session-flush");
+        _flusher.setDaemon(true);
+        _flusher.start();
+    }
+
+    /** Stop flushing, and force the records to the file. */
+    @Override
+    public void close() {
+        Thread flusher;
+        synchronized (this) {
+            flusher = _flusher;
+            _flusher = null;
+        }
+        if (flusher != null) {
+            flusher.interrupt();
+            try {
+                flusher.join();
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    /** Returns the capacity recorded in the header of CHANNEL, checking
+     *  that it is a store of my machine. */
+    private int readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        channel.read(header, 0);
+        int capacity = header.getInt(8);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != _numRotors
+            || capacity < 1 || channel.size()
+               < HEADER + (long) capacity * _recordSize) {
+            throw error("%s is not a session store of this machine", _file);
+        }
+        return capacity;
+    }
+
+    /** Read the rotor names and plugboards numbered so far. */
+    private void loadDictionary() {
+        if (!Files.exists(_dictionaryFile)) {
+            return;
+        }
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(_dictionaryFile,
+                    StandardCharsets.UTF_8);
+        } catch (IOException excp) {
+            throw error("could not read %s", _dictionaryFile);
+        }
+        for (String line : lines) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            List<String> entries = line.charAt(0) == 'S' ? _settings
+                : _plugboards;
+            _ids.put(line, entries.size());
+            entries.add(line.substring(1));
+        }
+    }
+
+    /** Returns the id of VALUE among ENTRIES, of KIND 'S' or 'P', adding
+     *  it to the dictionary file, forced, if it is new. */
+    private synchronized int intern(List<String> entries, char kind,
+                                    String value) {
+        String key = kind + value;
+        Integer id = _ids.get(key);
+        if (id != null) {
+            return id;
+        }
+        byte[] line = (key + "\n").getBytes(StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(_dictionaryFile,
+                 StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                 StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(line);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException excp) {
+            throw error("could not write %s", _dictionaryFile);
+        }
+        _ids.put(key, entries.size());
+        entries.add(value);
+        return entries.size() - 1;
+    }
+
+    /** Returns the engine of the rotors SETTINGID and plugboard
+     *  PLUGBOARDID, compiling it on first use. */
+    private TableEngine template(int settingId, int plugboardId) {
+        long key = key(settingId, plugboardId);
+        TableEngine result = _templates.get(key);
+        if (result == null) {
+            String names, plugboard;
+            synchronized (this) {
+                names = _settings.get(settingId);
+                plugboard = _plugboards.get(plugboardId);
+            }
+            result = compile(names, plugboard);
+            TableEngine other = _templates.putIfAbsent(key, result);
+            if (other != null) {
+                result = other;
+            }
+        }
+        return result;
+    }
+
+    /** Returns the engine of a fresh machine with the rotors NAMES and the
+     *  PLUGBOARD, at the first positions and ring positions. */
+    private TableEngine compile(String names, String plugboard) {
+        String zeros = String.valueOf(_alphabet.toChar(0))
+            .repeat(_numRotors - 1);
+        String[] words = Arrays.copyOf(names.split(" "), _numRotors + 2);
+        words[_numRotors] = words[_numRotors + 1] = zeros;
+        Machine machine = Machine.makeAMachine(_configLines);
+        machine.setupMachine(new Setting(words, plugboard));
+        return new TableEngine(machine);
+    }
+
+    /** Returns the key of the engine of SETTINGID and PLUGBOARDID. */
+    private static long key(int settingId, int plugboardId) {
+        return (long) settingId << 32 | plugboardId;
+    }
+
+    /** Returns the alphabet indices of the characters of WORDS[K], or of
+     *  the first character if there is no such word. */
+    private int[] indices(String[] words, int k) {
+        int[] result = new int[_numRotors - 1];
+        if (k < words.length) {
+            if (words[k].length() != result.length) {
+                throw error("This machine need set %d rotors, but given %d",
+                        result.length, words[k].length());
+            }
+            for (int i = 0; i < result.length; i++) {
+                result[i] = _alphabet.toInt(words[k].charAt(i));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the offset of the record of session ID, which must be
+     *  open. */
+    private int checkOpen(int id) {
+        if (!isOpen(id)) {
+            throw error("no session %d", id);
+        }
+        return at(id);
+    }
+
+    /** Returns the offset of the record of session ID. */
+    private int at(int id) {
+        return HEADER + id * _recordSize;
+    }
+
+    /** Returns the lock of session ID. */
+    private Object lock(int id) {
+        return _locks[id & (LOCKS - 1)];
+    }
+
+    /** First word of a store. */
+    private static final int MAGIC = 0x454e5353;
+
+    /** Bytes before the first record. */
+    private static final int HEADER = 64;
+
+    /** Bytes of a record before its positions: state, rotors id,
+     *  plugboard id, unused, and bytes converted. */
+    private static final int RECORD_HEADER = 24;
+
+    /** State of an open record. */
+    private static final int OPEN = 1;
+
+    /** Number of locks among which the sessions are spread. */
+    private static final int LOCKS = 64;
+
+    /** Configuration of the machines. */
+    private final ArrayList<String> _configLines;
+
+    /** Alphabet of the machines. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots of the machines. */
+    private final int _numRotors;
+
+    /** Bytes of each record. */
+    private final int _recordSize;
+
+    /** Most sessions. */
+    private final int _capacity;
+
+    /** The store. */
+    private final Path _file;
+
+    /** The file of rotor names and plugboards. */
+    private final Path _dictionaryFile;
+
+    /** The records, mapped. */
+    private final MappedByteBuffer _records;
+
+    /** Rotor names by id. */
+    private final ArrayList<String> _settings;
+
+    /** Plugboards by id. */
+    private final ArrayList<String> _plugboards;
+
+    /** Ids of the dictionary entries, by kind and value. */
+    private final HashMap<String, Integer> _ids;
+
+    /** Compiled engines by rotors and plugboard ids. */
+    private final ConcurrentHashMap<Long, TableEngine> _templates;
+
+    /** Locks of the sessions. */
+    private final Object[] _locks;
+
+    /** Ids of the free records, the next to use last. */
+    private final int[] _free;
+
+    /** Number of free records. */
+    private int _numFree;
+
+    /** Number of open sessions. */
+    private int _open;
+
+    /** Thread forcing the records, or null. */
+    private Thread _flusher;
+}
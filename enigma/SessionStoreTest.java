@@ -0,0 +1,63 @@
+package enigma;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the SessionStore class.
+ *  @author Jerry
+ */
+public class SessionStoreTest {
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkSessionStore() throws Exception {
+        Path dir = Files.createTempDirectory("enigma");
+        Path file = dir.resolve("sessions");
+        String[] settings = {
+            "* B Beta I II III AAAV AAAA (AQ) (EP)",
+            "* C Gamma IV V VI QDKR ABCD",
+        };
+        String plain = "FROM HIS SHOULDER HIAWATHA TOOK THE CAMERA OF "
+            + "ROSEWOOD";
+        int[] ids = new int[settings.length];
+        try (SessionStore store = new SessionStore(NAVALDEFAULT, file, 4)) {
+            store.startFlushing(10);
+            for (int k = 0; k < settings.length; k++) {
+                ids[k] = store.open(settings[k]);
+                store.convert(ids[k], "FROM HIS SHOULDER");
+                store.convert(ids[k], "FROM HIS SHOULDER");
+            }
+            int extra = store.open(settings[0]);
+            store.close(extra);
+            assertEquals(2, store.sessions());
+        }
+        try (SessionStore store = new SessionStore(NAVALDEFAULT, file, 1)) {
+            assertEquals(4, store.capacity());
+            assertEquals(2, store.sessions());
+            for (int k = 0; k < settings.length; k++) {
+                Machine machine = Machine.makeAMachine(NAVALDEFAULT);
+                machine.setupMachine(settings[k]);
+                machine.convert("FROMHISSHOULDER");
+                machine.convert("FROMHISSHOULDER");
+                assertEquals(machine.convert(plain), store.convert(ids[k],
+                        plain));
+                assertEquals(2 * 17 + plain.length(),
+                        store.bytesProcessed(ids[k]));
+            }
+            store.close(ids[0]);
+            assertFalse(store.isOpen(ids[0]));
+            assertEquals(ids[0], store.open(settings[1]));
+        }
+    }
+}
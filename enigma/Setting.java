@@ -0,0 +1,94 @@
+package enigma;
+
+import java.util.ArrayList;
+
+/** A parsed setting line, such as "* B Beta I II III AAAR BDFB (AQ) (EP)":
+ *  the rotor names (reflector first), optionally followed by the positions
+ *  and the ring positions(Ringstellung), then the plugboard cycles.  Parsing
+ *  a line once lets it be applied to many machines without splitting the
+ *  string again.
+ *  @author Jerry
+ */
+class Setting {
+
+    /** A setting of rotor names, positions and ring positions WORDS, and
+     *  plugboard cycles PLUGBOARD. */
+    Setting(String[] words, String plugboard) {
+        _words = words;
+        _plugboard = plugboard;
+    }
+
+    /** Returns the setting given by LINE, which starts with '*'.  Words
+     *  are separated by spaces and tabs only, as they always were: large
+     *  alphabets may use other whitespace, such as U+3000, as position
+     *  letters. */
+    static Setting parse(String line) {
+        String s = line.trim();
+        if (!s.startsWith("*")) {
+            throw new EnigmaException(String.format("setting line[%s] does"
+                    + " not start with '*'", s));
+        }
+        String sRotor = s.substring(1);
+        String sPlugboard = "";
+        int idx = s.indexOf('(');
+        if (idx > 0) {
+            sRotor = s.substring(1, idx);
+            sPlugboard = s.substring(idx).trim();
+        }
+
+        ArrayList<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= sRotor.length(); i++) {
+            boolean blank = i == sRotor.length()
+                || sRotor.charAt(i) == ' ' || sRotor.charAt(i) == '\t';
+            if (blank && start >= 0) {
+                words.add(sRotor.substring(start, i));
+                start = -1;
+            } else if (!blank && start < 0) {
+                start = i;
+            }
+        }
+        return new Setting(words.toArray(new String[0]), sPlugboard);
+    }
+
+    /** Returns the rotor names, then the positions and ring positions if
+     *  given, as taken by Machine.insertRotors. */
+    String[] words() {
+        return _words;
+    }
+
+    /** Returns the plugboard cycles, possibly empty. */
+    String plugboard() {
+        return _plugboard;
+    }
+
+    /** Returns true iff I give the positions of a machine with NUMROTORS
+     *  rotor slots. */
+    boolean hasPositions(int numRotors) {
+        return _words.length > numRotors;
+    }
+
+    /** Returns true iff I give the ring positions of a machine with
+     *  NUMROTORS rotor slots. */
+    boolean hasRingPositions(int numRotors) {
+        return _words.length > numRotors + 1;
+    }
+
+    /** Returns a key that is equal for two settings iff they differ at
+     *  most in their plugboards. */
+    String rotorKey() {
+        return String.join(" ", _words);
+    }
+
+    @Override
+    public String toString() {
+        String result = "* " + rotorKey();
+        return _plugboard.isEmpty() ? result : result + " " + _plugboard;
+    }
+
+    /** Rotor names, then optionally positions and ring positions. */
+    private final String[] _words;
+
+    /** Plugboard cycles. */
+    private final String _plugboard;
+}
@@ -0,0 +1,271 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Properties;
+
+import static enigma.EnigmaException.*;
+
+/** A run of Main over an input file too long to start again after a
+ *  crash.  Every so many message lines it saves a checkpoint: the setting
+ *  line, the position and ring position of every rotor, and the byte
+ *  offsets reached in the input and the output.  The output is forced to
+ *  disk first, and the checkpoint is written to a temporary file, forced,
+ *  and renamed over the last one, so a crash at any moment leaves a
+ *  checkpoint that matches the output.  Run again with the same files, the
+ *  job truncates the output to the checkpoint, seeks the input to it, sets
+ *  the machine as it was, and carries on, giving the same output as a run
+ *  that never stopped.  The checkpoint is removed when the job finishes.
+ *
+ *  Lines end with "\n" or "\r\n", and blank lines at the end of the input
+ *  are dropped, as Main does.
+ *  @author Jerry
+ */
+class StreamJob {
+
+    /** A job converting INPUT into OUTPUT with the machine configured by
+     *  CONFIGLINES, saving its progress in CHECKPOINT. */
+    StreamJob(ArrayList<String> configLines, Path input, Path output,
+              Path checkpoint) {
+        _machine = Machine.makeAMachine(configLines);
+        _input = input;
+        _output = output;
+        _checkpoint = checkpoint;
+        _interval = DEFAULT_INTERVAL;
+        _charset = Charset.defaultCharset();
+    }
+
+    /** Save a checkpoint every LINES message lines. */
+    void setInterval(int lines) {
+        _interval = lines;
+    }
+
+    /** Returns the number of message lines converted by this run, not
+     *  counting those done before the checkpoint it resumed from. */
+    long linesConverted() {
+        return _lines;
+    }
+
+    /** Returns true iff this run resumed from a checkpoint. */
+    boolean resumed() {
+        return _resumed;
+    }
+
+    /** Convert the input from the last checkpoint, or from the start if
+     *  there is none, to the end. */
+    void run() {
+        run(Long.MAX_VALUE);
+    }
+
+    /** Convert the input from the last checkpoint, or from the start if
+     *  there is none, to the end, or stop after LIMIT message lines as an
+     *  interrupted job would, keeping the checkpoint, and return true iff
+     *  the input was finished. */
+    boolean run(long limit) {
+        long inputOffset = 0, outputOffset = 0;
+        if (Files.exists(_checkpoint)) {
+            Properties saved = load();
+            inputOffset = Long.parseLong(saved.getProperty("input"));
+            outputOffset = Long.parseLong(saved.getProperty("output"));
+            restore(saved);
+            _resumed = true;
+        }
+        byte[] newline = System.lineSeparator().getBytes(_charset);
+        try (FileChannel in = FileChannel.open(_input,
+                 StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(_output,
+                 StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            if (in.size() < inputOffset || out.size() < outputOffset) {
+                throw error("files are shorter than checkpoint %s",
+                        _checkpoint);
+            }
+            out.truncate(outputOffset);
+            out.position(outputOffset);
+            in.position(inputOffset);
+            InputStream reader = new BufferedInputStream(
+                    Channels.newInputStream(in), BUFFER);
+            OutputStream writer = new BufferedOutputStream(
+                    Channels.newOutputStream(out), BUFFER);
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+            long at = inputOffset, written = outputOffset;
+            int blanks = 0, sinceCheckpoint = 0;
+            while (true) {
+                int len = readLine(reader, line);
+                if (len < 0) {
+                    break;
+                }
+                at += len;
+                String text = line.toString(_charset.name()).trim();
+                if (text.isEmpty()) {
+                    blanks++;
+                    continue;
+                }
+                for (; blanks > 0; blanks--) {
+                    writer.write(newline);
+                    written += newline.length;
+                }
+                if (text.startsWith("*")) {
+                    _machine.setupMachine(text);
+                    _setting = text;
+                    continue;
+                }
+                byte[] result = Main.messageLine(_machine.convert(text))
+                    .getBytes(_charset);
+                writer.write(result);
+                writer.write(newline);
+                written += result.length + newline.length;
+                _lines++;
+                if (++sinceCheckpoint >= _interval) {
+                    writer.flush();
+                    out.force(false);
+                    save(at, written);
+                    sinceCheckpoint = 0;
+                }
+                if (_lines == limit) {
+                    writer.flush();
+                    return false;
+                }
+            }
+            writer.flush();
+            out.force(false);
+        } catch (IOException excp) {
+            throw error("could not convert %s to %s: %s", _input, _output,
+                    excp.getMessage());
+        }
+        try {
+            Files.deleteIfExists(_checkpoint);
+        } catch (IOException excp) {
+            throw error("could not remove %s", _checkpoint);
+        }
+        return true;
+    }
+
+    /** Read the next line of IN, without its line end, into LINE, and
+     *  return the bytes read including the line end, or -1 at the end of
+     *  the input. */
+    private static int readLine(InputStream in, ByteArrayOutputStream line)
+        throws IOException {
+        line.reset();
+        int len = 0;
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                return len == 0 ? -1 : len;
+            }
+            len++;
+            if (b == '\n') {
+                return len;
+            } else if (b != '\r') {
+                line.write(b);
+            }
+        }
+    }
+
+    /** Save the state of the machine, with INPUTOFFSET and OUTPUTOFFSET
+     *  as the offsets reached, as the new checkpoint. */
+    private void save(long inputOffset, long outputOffset) throws IOException {
+        Properties saved = new Properties();
+        saved.setProperty("input", Long.toString(inputOffset));
+        saved.setProperty("output", Long.toString(outputOffset));
+        if (_setting != null) {
+            saved.setProperty("setting", _setting);
+        }
+        Alphabet alphabet = _machine.alphabet();
+        for (Rotor rotor : _machine.allRotors()) {
+            saved.setProperty("rotor." + rotor.name(),
+                    alphabet.toChar(rotor.setting()) + ""
+                    + alphabet.toChar(rotor.ringPosition()));
+        }
+        Path temp = _checkpoint.resolveSibling(_checkpoint.getFileName()
+                + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp,
+                 StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer writer = Channels.newWriter(channel, "UTF-8");
+            saved.store(writer, "enigma.StreamJob checkpoint");
+            writer.flush();
+            channel.force(true);
+        }
+        Files.move(temp, _checkpoint, StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Returns the checkpoint last saved. */
+    private Properties load() {
+        Properties saved = new Properties();
+        try (Reader reader = Files.newBufferedReader(_checkpoint)) {
+            saved.load(reader);
+        } catch (IOException excp) {
+            throw error("could not read checkpoint %s", _checkpoint);
+        }
+        if (saved.getProperty("input") == null
+            || saved.getProperty("output") == null) {
+            throw error("checkpoint %s is incomplete", _checkpoint);
+        }
+        return saved;
+    }
+
+    /** Set the machine as it was when SAVED was saved. */
+    private void restore(Properties saved) {
+        _setting = saved.getProperty("setting");
+        if (_setting != null) {
+            _machine.setupMachine(_setting);
+        }
+        Alphabet alphabet = _machine.alphabet();
+        for (Rotor rotor : _machine.allRotors()) {
+            String state = saved.getProperty("rotor." + rotor.name());
+            if (state != null && state.length() == 2) {
+                rotor.set(state.charAt(0));
+                rotor.setRingPosition(state.charAt(1));
+            }
+        }
+    }
+
+    /** Default message lines between checkpoints. */
+    static final int DEFAULT_INTERVAL = 10000;
+
+    /** Size of the file buffers. */
+    private static final int BUFFER = 1 << 16;
+
+    /** The machine. */
+    private final Machine _machine;
+
+    /** File of setting and message lines. */
+    private final Path _input;
+
+    /** File of converted lines. */
+    private final Path _output;
+
+    /** File of the last checkpoint. */
+    private final Path _checkpoint;
+
+    /** Encoding of the input and output, that of Main. */
+    private final Charset _charset;
+
+    /** Message lines between checkpoints. */
+    private int _interval;
+
+    /** The setting line last applied, or null. */
+    private String _setting;
+
+    /** Message lines converted by this run. */
+    private long _lines;
+
+    /** True iff this run resumed from a checkpoint. */
+    private boolean _resumed;
+}
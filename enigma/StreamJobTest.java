@@ -0,0 +1,67 @@
+package enigma;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the StreamJob class.
+ *  @author Jerry
+ */
+public class StreamJobTest {
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkStreamJobResume() throws Exception {
+        Path dir = Files.createTempDirectory("enigma");
+        Path input = dir.resolve("in.txt");
+        Path expected = dir.resolve("expected.txt");
+        Path output = dir.resolve("out.txt");
+        Path checkpoint = dir.resolve("job.ckpt");
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 120; i++) {
+            if (i % 25 == 0) {
+                text.append(i % 50 == 0 ? "* B Beta III IV I AXLE (HQ) (EX)"
+                        : "* C Gamma VI VII VIII ZZYM").append("\r\n");
+            }
+            text.append(i % 9 == 4 ? "" : Workloads.message(26, i % 37, i))
+                .append(i % 2 == 0 ? "\n" : "\r\n");
+        }
+        text.append("\n  \n");
+        Files.writeString(input, text, Charset.defaultCharset());
+        new Main(new String[] { "../testing/correct/default.conf",
+                                input.toString(), expected.toString() })
+            .process();
+
+        StreamJob job = new StreamJob(NAVALDEFAULT, input, output, checkpoint);
+        job.setInterval(7);
+        assertFalse(job.run(40));
+        assertTrue(Files.exists(checkpoint));
+        for (int k = 0; k < 3; k++) {
+            job = new StreamJob(NAVALDEFAULT, input, output, checkpoint);
+            job.setInterval(7);
+            assertFalse(job.run(23));
+            assertTrue(job.resumed());
+        }
+        job = new StreamJob(NAVALDEFAULT, input, output, checkpoint);
+        job.setInterval(7);
+        assertTrue(job.run(Long.MAX_VALUE));
+        assertFalse(Files.exists(checkpoint));
+        assertEquals(Files.readString(expected, Charset.defaultCharset()),
+                Files.readString(output, Charset.defaultCharset()));
+        for (Path p : new Path[] { input, expected, output }) {
+            Files.delete(p);
+        }
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,512 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** Files of alphabet indices packed into as few bits as the alphabet
+ *  needs: 5 for 26 characters, against about 9.6 for the same text
+ *  written in groups of five.  A file is a run of sections, each the
+ *  symbols converted under one setting line:
+ *
+ *      int     MAGIC
+ *      short   VERSION
+ *      byte    bits per symbol, ceil(log2(alphabet size))
+ *      byte    0
+ *      int     symbols per block
+ *      long    symbols in the section
+ *      long    lines in the section
+ *      int, bytes   the alphabet, in UTF-8
+ *      int, bytes   the setting line, in UTF-8
+ *      (zeros up to a multiple of 8 bytes)
+ *      blocks  the symbols, first bit highest
+ *      ints    the number of symbols in each line, in order
+ *
+ *  A line is the symbols of one message line, ended by Writer.endLine,
+ *  so that a section can be written back as the lines it came from,
+ *  empty ones included.  Symbols written after the last endLine of a
+ *  section make one more line.
+ *
+ *  Every block but the last holds the same number of symbols, a multiple
+ *  of 8, so whole bytes, and a Reader finds the block of any symbol
+ *  without reading those before it.  Symbols are written and read as
+ *  ints, a block at a time, so that they go between a file and an engine
+ *  without becoming characters.
+ *  @author Jerry
+ */
+final class SymbolFile {
+
+    /** Not instantiated. */
+    private SymbolFile() {
+    }
+
+    /** Returns the bits per symbol for an alphabet of SIZE. */
+    static int bits(int size) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(size - 1));
+    }
+
+    /** A writer of a new symbol file. */
+    static final class Writer implements AutoCloseable {
+
+        /** A writer of a new FILE, replacing any there was. */
+        Writer(Path file) {
+            _file = file;
+            try {
+                _channel = FileChannel.open(file, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+            } catch (IOException excp) {
+                throw error("could not open %s", file);
+            }
+            _out = ByteBuffer.allocate(BUFFER_BYTES);
+        }
+
+        /** End the section being written, if any, and start one of the
+         *  symbols of ALPHABET converted under the setting line
+         *  SETTING. */
+        void startSection(Alphabet alphabet, String setting) {
+            endSection();
+            _size = alphabet.size();
+            _bits = bits(_size);
+            _count = 0;
+            _lineStart = 0;
+            _numLines = 0;
+            byte[] chars = new String(alphabet.toCharArray())
+                .getBytes(StandardCharsets.UTF_8);
+            byte[] line = setting.getBytes(StandardCharsets.UTF_8);
+            int header = (int) align(FIXED_HEADER + 8 + chars.length
+                    + line.length);
+            ByteBuffer buffer = ByteBuffer.allocate(header);
+            buffer.putInt(MAGIC).putShort(VERSION).put((byte) _bits)
+                .put((byte) 0).putInt(BLOCK_SYMBOLS).putLong(0).putLong(0)
+                .putInt(chars.length).put(chars)
+                .putInt(line.length).put(line);
+            buffer.clear();
+            try {
+                _start = _channel.position();
+                writeFully(buffer);
+            } catch (IOException excp) {
+                throw error("could not write %s", _file);
+            }
+        }
+
+        /** Append the LEN symbols of SYMBOLS from OFF, each an index into
+         *  the alphabet of the section. */
+        void write(int[] symbols, int off, int len) {
+            if (_bits == 0) {
+                throw error("no section started in %s", _file);
+            }
+            for (int i = off; i < off + len; i++) {
+                int s = symbols[i];
+                if (s < 0 || s >= _size) {
+                    throw error("symbol %d is not in the alphabet", s);
+                }
+                _acc = (_acc << _bits) | s;
+                _accBits += _bits;
+                while (_accBits >= Byte.SIZE) {
+                    _accBits -= Byte.SIZE;
+                    if (!_out.hasRemaining()) {
+                        drain();
+                    }
+                    _out.put((byte) (_acc >>> _accBits));
+                }
+            }
+            _count += len;
+        }
+
+        /** End the line of the symbols written since the last one, or
+         *  since the section started, which may be none. */
+        void endLine() {
+            if (_bits == 0) {
+                throw error("no section started in %s", _file);
+            }
+            if (_numLines == _lines.length) {
+                _lines = Arrays.copyOf(_lines, 2 * _lines.length);
+            }
+            _lines[_numLines++] = (int) (_count - _lineStart);
+            _lineStart = _count;
+        }
+
+        /** End the section being written, filling its last byte, ending
+         *  its last line if it has symbols, and recording its lengths. */
+        void endSection() {
+            if (_bits == 0) {
+                return;
+            }
+            if (_count > _lineStart) {
+                endLine();
+            }
+            if (_accBits > 0) {
+                if (!_out.hasRemaining()) {
+                    drain();
+                }
+                _out.put((byte) (_acc << (Byte.SIZE - _accBits)));
+                _accBits = 0;
+            }
+            for (int i = 0; i < _numLines; i++) {
+                if (_out.remaining() < Integer.BYTES) {
+                    drain();
+                }
+                _out.putInt(_lines[i]);
+            }
+            drain();
+            ByteBuffer lengths = ByteBuffer.allocate(2 * Long.BYTES);
+            lengths.putLong(_count).putLong(_numLines).flip();
+            try {
+                _channel.write(lengths, _start + COUNT_OFFSET);
+            } catch (IOException excp) {
+                throw error("could not write %s", _file);
+            }
+            _bits = 0;
+        }
+
+        /** End the section being written and close the file. */
+        @Override
+        public void close() {
+            try {
+                endSection();
+            } finally {
+                try {
+                    _channel.close();
+                } catch (IOException excp) {
+                    throw error("could not close %s", _file);
+                }
+            }
+        }
+
+        /** Write out the bytes packed so far. */
+        private void drain() {
+            _out.flip();
+            try {
+                writeFully(_out);
+            } catch (IOException excp) {
+                throw error("could not write %s", _file);
+            }
+            _out.clear();
+        }
+
+        /** Write all of BUFFER at the end of the file. */
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                _channel.write(buffer);
+            }
+        }
+
+        /** The file. */
+        private final Path _file;
+
+        /** Its channel. */
+        private final FileChannel _channel;
+
+        /** Bytes packed and not yet written. */
+        private final ByteBuffer _out;
+
+        /** Offset of the section being written. */
+        private long _start;
+
+        /** Size of its alphabet. */
+        private int _size;
+
+        /** Bits per symbol, or 0 if no section is being written. */
+        private int _bits;
+
+        /** Symbols written to it. */
+        private long _count;
+
+        /** Value of _count when the last line ended. */
+        private long _lineStart;
+
+        /** Symbols in each line ended so far, the first _numLines. */
+        private int[] _lines = new int[16];
+
+        /** Lines ended so far. */
+        private int _numLines;
+
+        /** Bits not yet written, the last _accBits of them. */
+        private long _acc;
+
+        /** Number of bits in _acc, less than 8. */
+        private int _accBits;
+    }
+
+    /** A reader of a symbol file, a section at a time. */
+    static final class Reader implements AutoCloseable {
+
+        /** A reader of FILE, before its first section. */
+        Reader(Path file) {
+            _file = file;
+            try {
+                _channel = FileChannel.open(file, StandardOpenOption.READ);
+            } catch (IOException excp) {
+                throw error("could not open %s", file);
+            }
+            _next = 0;
+        }
+
+        /** Go to the next section, and return true iff there is one. */
+        boolean nextSection() {
+            try {
+                if (_next >= _channel.size()) {
+                    return false;
+                }
+                ByteBuffer fixed = ByteBuffer.allocate(FIXED_HEADER + 4);
+                readFully(fixed, _next);
+                if (fixed.getInt(0) != MAGIC
+                    || fixed.getShort(4) != VERSION) {
+                    throw error("%s is not a symbol file", _file);
+                }
+                _bits = fixed.get(6);
+                _blockSymbols = fixed.getInt(8);
+                _count = fixed.getLong(COUNT_OFFSET);
+                _numLines = fixed.getLong(LINES_OFFSET);
+                byte[] chars = readString(_next + FIXED_HEADER);
+                byte[] line = readString(_next + FIXED_HEADER + 4
+                        + chars.length);
+                _alphabet = new Alphabet(new String(chars,
+                        StandardCharsets.UTF_8));
+                _setting = new String(line, StandardCharsets.UTF_8);
+                if (_bits != bits(_alphabet.size()) || _blockSymbols <= 0
+                    || _blockSymbols % Byte.SIZE != 0 || _count < 0
+                    || _numLines < 0
+                    || _numLines > Integer.MAX_VALUE / Integer.BYTES) {
+                    throw error("%s is not a symbol file", _file);
+                }
+                _data = _next + align(FIXED_HEADER + 8 + chars.length
+                        + line.length);
+                _lineTable = _data + (_count * _bits + Byte.SIZE - 1)
+                    / Byte.SIZE;
+                _next = _lineTable + _numLines * Integer.BYTES;
+                if (_next > _channel.size()) {
+                    throw error("%s is truncated", _file);
+                }
+            } catch (IOException excp) {
+                throw error("could not read %s", _file);
+            }
+            if (_block == null || _block.length != _blockSymbols) {
+                _block = new int[_blockSymbols];
+                _bytes = ByteBuffer.allocate(_blockSymbols / Byte.SIZE
+                        * Integer.SIZE);
+            }
+            _blockIndex = -1;
+            _position = 0;
+            return true;
+        }
+
+        /** Returns the alphabet of this section. */
+        Alphabet alphabet() {
+            return _alphabet;
+        }
+
+        /** Returns the setting line of this section. */
+        String setting() {
+            return _setting;
+        }
+
+        /** Returns the number of symbols in this section. */
+        long symbols() {
+            return _count;
+        }
+
+        /** Returns the number of symbols in each line of this section, in
+         *  order.  They add up to symbols(). */
+        int[] lines() {
+            ByteBuffer table = ByteBuffer.allocate((int) _numLines
+                    * Integer.BYTES);
+            try {
+                readFully(table, _lineTable);
+            } catch (IOException excp) {
+                throw error("could not read %s", _file);
+            }
+            int[] result = new int[(int) _numLines];
+            long total = 0;
+            for (int i = 0; i < result.length; i++) {
+                result[i] = table.getInt(i * Integer.BYTES);
+                if (result[i] < 0) {
+                    throw error("%s is not a symbol file", _file);
+                }
+                total += result[i];
+            }
+            if (total != _count) {
+                throw error("%s is not a symbol file", _file);
+            }
+            return result;
+        }
+
+        /** Returns the index of the next symbol read in this section. */
+        long position() {
+            return _position;
+        }
+
+        /** Make SYMBOL, 0 <= SYMBOL <= symbols(), the next one read, reading
+         *  only its block. */
+        void seek(long symbol) {
+            if (symbol < 0 || symbol > _count) {
+                throw error("no symbol %d in a section of %d", symbol,
+                        _count);
+            }
+            _position = symbol;
+        }
+
+        /** Read up to LEN symbols of this section into SYMBOLS from OFF,
+         *  and return the number read, 0 at its end. */
+        int read(int[] symbols, int off, int len) {
+            int n = 0;
+            while (n < len && _position < _count) {
+                long k = _position / _blockSymbols;
+                if (k != _blockIndex) {
+                    loadBlock(k);
+                }
+                int j = (int) (_position - k * _blockSymbols);
+                int m = (int) Math.min(Math.min(len - n, _blockSymbols - j),
+                        _count - _position);
+                System.arraycopy(_block, j, symbols, off + n, m);
+                n += m;
+                _position += m;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() {
+            try {
+                _channel.close();
+            } catch (IOException excp) {
+                throw error("could not close %s", _file);
+            }
+        }
+
+        /** Unpack block K of this section into _block. */
+        private void loadBlock(long k) {
+            long first = k * _blockSymbols;
+            int n = (int) Math.min(_blockSymbols, _count - first);
+            int bytes = (int) (((long) n * _bits + Byte.SIZE - 1)
+                    / Byte.SIZE);
+            _bytes.clear().limit(bytes);
+            try {
+                readFully(_bytes, _data + first / Byte.SIZE * _bits);
+            } catch (IOException excp) {
+                throw error("could not read %s", _file);
+            }
+            long acc = 0;
+            int accBits = 0;
+            int mask = (1 << _bits) - 1;
+            int size = _alphabet.size();
+            for (int i = 0, b = 0; i < n; i++) {
+                while (accBits < _bits) {
+                    acc = (acc << Byte.SIZE) | (_bytes.get(b++) & 0xff);
+                    accBits += Byte.SIZE;
+                }
+                accBits -= _bits;
+                int s = (int) (acc >>> accBits) & mask;
+                if (s >= size) {
+                    throw error("%s holds symbol %d, not in its alphabet",
+                            _file, s);
+                }
+                _block[i] = s;
+            }
+            _blockIndex = k;
+        }
+
+        /** Returns the bytes of the string whose length is at AT. */
+        private byte[] readString(long at) throws IOException {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            readFully(length, at);
+            int n = length.getInt(0);
+            if (n < 0 || at + 4 + n > _channel.size()) {
+                throw error("%s is not a symbol file", _file);
+            }
+            ByteBuffer result = ByteBuffer.allocate(n);
+            readFully(result, at + 4);
+            return result.array();
+        }
+
+        /** Fill BUFFER from the file at AT. */
+        private void readFully(ByteBuffer buffer, long at)
+            throws IOException {
+            while (buffer.hasRemaining()) {
+                int n = _channel.read(buffer, at);
+                if (n < 0) {
+                    throw error("%s is truncated", _file);
+                }
+                at += n;
+            }
+        }
+
+        /** The file. */
+        private final Path _file;
+
+        /** Its channel. */
+        private final FileChannel _channel;
+
+        /** Offset of the next section. */
+        private long _next;
+
+        /** Offset of the blocks of this section. */
+        private long _data;
+
+        /** Offset of the line lengths of this section. */
+        private long _lineTable;
+
+        /** Alphabet of this section. */
+        private Alphabet _alphabet;
+
+        /** Setting line of this section. */
+        private String _setting;
+
+        /** Bits per symbol of this section. */
+        private int _bits;
+
+        /** Symbols per block of this section. */
+        private int _blockSymbols;
+
+        /** Symbols in this section. */
+        private long _count;
+
+        /** Lines in this section. */
+        private long _numLines;
+
+        /** Index of the next symbol read. */
+        private long _position;
+
+        /** The block unpacked last. */
+        private int[] _block;
+
+        /** Its index, or -1. */
+        private long _blockIndex;
+
+        /** Bytes of a block, read. */
+        private ByteBuffer _bytes;
+    }
+
+    /** Returns N rounded up to a multiple of 8. */
+    private static long align(long n) {
+        return (n + 7) & ~7L;
+    }
+
+    /** Symbols per block.  A block of 5-bit symbols is 2560 bytes. */
+    static final int BLOCK_SYMBOLS = 4096;
+
+    /** Marks a section. */
+    private static final int MAGIC = 0x454e5359;
+
+    /** Version of the layout. */
+    private static final short VERSION = 2;
+
+    /** Bytes of a section header before the alphabet. */
+    private static final int FIXED_HEADER = 28;
+
+    /** Offset in a section header of the symbol count. */
+    private static final int COUNT_OFFSET = 12;
+
+    /** Offset in a section header of the line count. */
+    private static final int LINES_OFFSET = 20;
+
+    /** Bytes packed before they are written. */
+    private static final int BUFFER_BYTES = 1 << 16;
+}
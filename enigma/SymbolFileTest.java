@@ -0,0 +1,116 @@
+package enigma;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the SymbolFile class.
+ *  @author Jerry
+ */
+public class SymbolFileTest {
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkSymbolFile() throws Exception {
+        Path dir = Files.createTempDirectory("enigma");
+        Path file = dir.resolve("symbols");
+        StringBuilder chars = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            chars.append((char) (0x100 + i));
+        }
+        Alphabet wide = new Alphabet(chars.toString());
+        Alphabet upper = new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+        assertEquals(5, SymbolFile.bits(upper.size()));
+        assertEquals(9, SymbolFile.bits(wide.size()));
+        int n = 3 * SymbolFile.BLOCK_SYMBOLS + 11;
+        int[] symbols = new int[n];
+        for (int i = 0; i < n; i++) {
+            symbols[i] = (i * 7919) % wide.size();
+        }
+        try (SymbolFile.Writer out = new SymbolFile.Writer(file)) {
+            out.startSection(wide, "* WIDE");
+            out.write(symbols, 0, 5);
+            out.endLine();
+            out.endLine();
+            out.write(symbols, 5, n - 5);
+            out.startSection(upper, "* EMPTY");
+            out.startSection(upper, "* UPPER");
+            out.write(new int[] { 25, 0, 7 }, 0, 3);
+            out.endLine();
+        }
+        try (SymbolFile.Reader in = new SymbolFile.Reader(file)) {
+            assertTrue(in.nextSection());
+            assertEquals("* WIDE", in.setting());
+            assertEquals(n, in.symbols());
+            assertArrayEquals(new int[] { 5, 0, n - 5 }, in.lines());
+            int[] got = new int[n + 1];
+            assertEquals(n, in.read(got, 0, 1000) + in.read(got, 1000,
+                    n + 1 - 1000));
+            for (int i = 0; i < n; i++) {
+                assertEquals(symbols[i], got[i]);
+            }
+            for (int i : new int[] { n - 1, SymbolFile.BLOCK_SYMBOLS, 1 }) {
+                in.seek(i);
+                assertEquals(1, in.read(got, 0, 1));
+                assertEquals(symbols[i], got[0]);
+            }
+            assertTrue(in.nextSection());
+            assertEquals(0, in.symbols());
+            assertEquals(0, in.lines().length);
+            assertEquals(0, in.read(got, 0, 10));
+            assertTrue(in.nextSection());
+            assertEquals(26, in.alphabet().size());
+            assertArrayEquals(new int[] { 3 }, in.lines());
+            assertEquals(3, in.read(got, 0, 10));
+            assertEquals(25, got[0]);
+            assertEquals(7, got[2]);
+            assertFalse(in.nextSection());
+        }
+        assertTrue(Files.size(file) < 9 * n / 8 + 1000);
+
+        Path plain = dir.resolve("plain.in");
+        Path packed = dir.resolve("cipher.ens");
+        Path back = dir.resolve("back.out");
+        String setting = "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+        String msg = "FROM HIS SHOULDER HIAWATHA TOOK THE CAMERA OF ROSEWOOD";
+        List<String> text = Arrays.asList("", setting, msg, "", msg, "",
+                "* B Beta I II III AAAA", msg, "");
+        Files.write(plain, text);
+        String config = "../testing/correct/default.conf";
+        Main.main("--pack", config, plain.toString(), packed.toString());
+        Machine machine = Machine.makeAMachine(NAVALDEFAULT);
+        machine.setupMachine(setting);
+        String cipher = machine.convert(msg + msg);
+        try (SymbolFile.Reader in = new SymbolFile.Reader(packed)) {
+            assertTrue(in.nextSection());
+            assertEquals(setting, in.setting());
+            assertArrayEquals(new int[] { 0, 46, 0, 46, 0 }, in.lines());
+            int[] got = new int[cipher.length()];
+            assertEquals(cipher.length(), in.read(got, 0, got.length));
+            for (int i = 0; i < got.length; i++) {
+                assertEquals(cipher.charAt(i), in.alphabet().toChar(got[i]));
+            }
+        }
+        Main.main("--unpack", config, packed.toString(), back.toString());
+        List<String> expected = new ArrayList<>();
+        for (String line : text) {
+            if (!line.startsWith("*")) {
+                expected.add(Main.messageLine(line.replace(" ", "")));
+            }
+        }
+        assertEquals(expected, Files.readAllLines(back));
+    }
+}
@@ -0,0 +1,461 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static enigma.EnigmaException.*;
+
+/** Read-only index tables kept outside the heap, in a file mapped shared
+ *  by every process on the host that opens it, so that processes loading
+ *  the same rotors use one physical copy of their tables, and the garbage
+ *  collector never scans them.
+ *
+ *  The file is a header, giving the bytes in use, followed by the tables
+ *  one after another, each with its length, alphabet size, width and a
+ *  hash of its entries.  share() looks a table up by its contents and
+ *  returns the copy in the file, appending one if there is none.  Appends
+ *  take a lock on the file, so processes may share into it at once; each
+ *  writes a table before the header counts it, so a process never sees
+ *  half of one.  Tables are never changed or removed once written, so
+ *  those returned stay valid: remap() maps the file again when it has
+ *  grown, by this process or another, and picks up tables appended by
+ *  others, and close() stops sharing but leaves the tables already
+ *  returned readable, their mappings living until they are unreachable.
+ *
+ *  Tables are stored in the byte order of the host, which the header
+ *  records, so a file is not moved between hosts of different orders.
+ *  @author Jerry
+ */
+class TableArena implements AutoCloseable {
+
+    /** An arena in FILE, made with room for CAPACITY bytes if it does not
+     *  exist, and growing as needed. */
+    TableArena(Path file, long capacity) {
+        _file = file;
+        _offsets = new HashMap<>();
+        try {
+            _channel = FileChannel.open(file, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            FileLock lock = _channel.lock();
+            try {
+                if (_channel.size() == 0) {
+                    map(Math.max(capacity, HEADER));
+                    _buffer.putInt(0, MAGIC);
+                    _buffer.putInt(4, VERSION);
+                    _buffer.putLong(8, HEADER);
+                } else {
+                    map(_channel.size());
+                    if (_buffer.getInt(0) != MAGIC
+                        || _buffer.getInt(4) != VERSION) {
+                        throw error("%s is not a table arena", file);
+                    }
+                }
+                _scanned = HEADER;
+                scan();
+            } finally {
+                lock.release();
+            }
+        } catch (IOException excp) {
+            throw error("could not map %s", file);
+        }
+        _open = true;
+    }
+
+    /** Returns the arena of this process named by the system property
+     *  enigma.arena, made with room for enigma.arena.capacity megabytes
+     *  (default DEFAULT_CAPACITY_MB), or null if it is not set. */
+    static TableArena fromProperties() {
+        return Shared.ARENA;
+    }
+
+    /** Returns a read-only copy in this arena of TABLE, indices into an
+     *  alphabet of SIZE, which is shared with every process that shares an
+     *  equal table. */
+    synchronized IndexTable share(IndexTable table, int size) {
+        if (!_open) {
+            throw error("table arena %s is closed", _file);
+        }
+        int hash = hash(table, size);
+        IndexTable result = find(table, size, hash);
+        if (result != null) {
+            _hits++;
+            return result;
+        }
+        try {
+            FileLock lock = _channel.lock();
+            try {
+                refresh();
+                result = find(table, size, hash);
+                if (result != null) {
+                    _hits++;
+                    return result;
+                }
+                result = append(table, size, hash);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", _file);
+        }
+        return result;
+    }
+
+    /** Map my file again if it has grown since I last mapped it, and note
+     *  the tables appended to it by other processes. */
+    synchronized void remap() {
+        if (!_open) {
+            throw error("table arena %s is closed", _file);
+        }
+        try {
+            FileLock lock = _channel.lock(0, Long.MAX_VALUE, true);
+            try {
+                refresh();
+            } finally {
+                lock.release();
+            }
+        } catch (IOException excp) {
+            throw error("could not map %s", _file);
+        }
+    }
+
+    /** Stop sharing tables.  Those returned so far stay readable. */
+    @Override
+    public synchronized void close() {
+        if (!_open) {
+            return;
+        }
+        _open = false;
+        _offsets.clear();
+        _buffer = null;
+        try {
+            _channel.close();
+        } catch (IOException excp) {
+            throw error("could not close %s", _file);
+        }
+    }
+
+    /** Returns true iff I have not been closed. */
+    synchronized boolean isOpen() {
+        return _open;
+    }
+
+    /** Returns the number of tables in my file, as last mapped. */
+    synchronized int tables() {
+        return _tables;
+    }
+
+    /** Returns the bytes in use in my file, as last mapped. */
+    synchronized long used() {
+        return _scanned;
+    }
+
+    /** Returns the bytes of my file mapped. */
+    synchronized long capacity() {
+        return _buffer == null ? 0 : _buffer.capacity();
+    }
+
+    /** Returns the number of tables shared that were already in my
+     *  file. */
+    synchronized long hits() {
+        return _hits;
+    }
+
+    /** Returns the table already in my file equal to TABLE, whose alphabet
+     *  has SIZE and whose hash is HASH, or null if there is none. */
+    private IndexTable find(IndexTable table, int size, int hash) {
+        ArrayList<Long> offsets = _offsets.get(hash);
+        if (offsets == null) {
+            return null;
+        }
+        for (long offset : offsets) {
+            IndexTable candidate = view(offset);
+            if (_buffer.getInt((int) offset + 4) == size
+                && candidate.size() == table.size()
+                && equal(candidate, table)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /** Returns the copy of TABLE, whose alphabet has SIZE and whose hash is
+     *  HASH, appended to my file, which this process has locked. */
+    private IndexTable append(IndexTable table, int size, int hash)
+        throws IOException {
+        int width = IndexTable.of(0, size).width();
+        long offset = _scanned;
+        long end = align(offset + ENTRY_HEADER
+                + (long) table.size() * width);
+        if (end > Integer.MAX_VALUE) {
+            throw error("table arena %s is full", _file);
+        }
+        if (end > _buffer.capacity()) {
+            map(Math.min(Integer.MAX_VALUE,
+                    Math.max(end, 2L * _buffer.capacity())));
+        }
+        int at = (int) offset;
+        _buffer.putInt(at, table.size());
+        _buffer.putInt(at + 4, size);
+        _buffer.putInt(at + 8, width);
+        _buffer.putInt(at + 12, hash);
+        at += ENTRY_HEADER;
+        for (int i = 0; i < table.size(); i++, at += width) {
+            int v = table.get(i);
+            if (width == Byte.BYTES) {
+                _buffer.put(at, (byte) v);
+            } else if (width == Short.BYTES) {
+                _buffer.putShort(at, (short) v);
+            } else {
+                _buffer.putInt(at, v);
+            }
+        }
+        _buffer.putLong(8, end);
+        scan();
+        return view(offset);
+    }
+
+    /** Map my file again if another process has grown it, and note the
+     *  tables it has appended.  My file is locked. */
+    private void refresh() throws IOException {
+        if (_channel.size() > _buffer.capacity()) {
+            map(_channel.size());
+        }
+        scan();
+    }
+
+    /** Note the tables between those I have noted and the end of the
+     *  tables recorded in the header. */
+    private void scan() {
+        long end = _buffer.getLong(8);
+        if (end < HEADER || end > _buffer.capacity()) {
+            throw error("%s is not a table arena", _file);
+        }
+        while (_scanned < end) {
+            int at = (int) _scanned;
+            int length = _buffer.getInt(at);
+            int width = _buffer.getInt(at + 8);
+            long next = align(_scanned + ENTRY_HEADER
+                    + (long) length * width);
+            if (length < 0 || (width != Byte.BYTES && width != Short.BYTES
+                               && width != Integer.BYTES) || next > end) {
+                throw error("%s is not a table arena", _file);
+            }
+            _offsets.computeIfAbsent(_buffer.getInt(at + 12),
+                    k -> new ArrayList<>()).add(_scanned);
+            _tables++;
+            _scanned = next;
+        }
+    }
+
+    /** Map the first BYTES of my file, making it that long if it is
+     *  shorter. */
+    private void map(long bytes) throws IOException {
+        _buffer = _channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        _buffer.order(ByteOrder.nativeOrder());
+    }
+
+    /** Returns a view of the table at OFFSET in my file. */
+    private IndexTable view(long offset) {
+        int at = (int) offset;
+        int length = _buffer.getInt(at);
+        int width = _buffer.getInt(at + 8);
+        ByteBuffer entries = _buffer.duplicate()
+            .position(at + ENTRY_HEADER)
+            .limit(at + ENTRY_HEADER + length * width)
+            .slice().order(ByteOrder.nativeOrder());
+        if (width == Byte.BYTES) {
+            return new ByteView(entries);
+        } else if (width == Short.BYTES) {
+            return new ShortView(entries.asShortBuffer());
+        }
+        return new IntView(entries.asIntBuffer());
+    }
+
+    /** Returns a hash of the entries of TABLE and the alphabet SIZE. */
+    private static int hash(IndexTable table, int size) {
+        int result = size;
+        for (int i = 0; i < table.size(); i++) {
+            result = 31 * result + table.get(i);
+        }
+        return result;
+    }
+
+    /** Returns true iff A and B, of one size, have the same entries. */
+    private static boolean equal(IndexTable a, IndexTable b) {
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns N rounded up to a multiple of 8. */
+    private static long align(long n) {
+        return (n + 7) & ~7L;
+    }
+
+    /** A table of unsigned bytes in an arena. */
+    private static final class ByteView extends IndexTable {
+
+        /** A table of the bytes of ENTRIES. */
+        ByteView(ByteBuffer entries) {
+            _entries = entries;
+        }
+
+        @Override
+        int size() {
+            return _entries.capacity();
+        }
+
+        @Override
+        int get(int i) {
+            return _entries.get(i) & 0xff;
+        }
+
+        @Override
+        void set(int i, int v) {
+            throw error("tables in an arena are read-only");
+        }
+
+        @Override
+        int width() {
+            return Byte.BYTES;
+        }
+
+        /** The entries. */
+        private final ByteBuffer _entries;
+    }
+
+    /** A table of unsigned shorts in an arena. */
+    private static final class ShortView extends IndexTable {
+
+        /** A table of the shorts of ENTRIES. */
+        ShortView(ShortBuffer entries) {
+            _entries = entries;
+        }
+
+        @Override
+        int size() {
+            return _entries.capacity();
+        }
+
+        @Override
+        int get(int i) {
+            return _entries.get(i) & 0xffff;
+        }
+
+        @Override
+        void set(int i, int v) {
+            throw error("tables in an arena are read-only");
+        }
+
+        @Override
+        int width() {
+            return Short.BYTES;
+        }
+
+        /** The entries. */
+        private final ShortBuffer _entries;
+    }
+
+    /** A table of ints in an arena. */
+    private static final class IntView extends IndexTable {
+
+        /** A table of the ints of ENTRIES. */
+        IntView(IntBuffer entries) {
+            _entries = entries;
+        }
+
+        @Override
+        int size() {
+            return _entries.capacity();
+        }
+
+        @Override
+        int get(int i) {
+            return _entries.get(i);
+        }
+
+        @Override
+        void set(int i, int v) {
+            throw error("tables in an arena are read-only");
+        }
+
+        @Override
+        int width() {
+            return Integer.BYTES;
+        }
+
+        /** The entries. */
+        private final IntBuffer _entries;
+    }
+
+    /** Holds the arena of this process, opened when first asked for. */
+    private static final class Shared {
+
+        /** The arena, or null. */
+        static final TableArena ARENA = open();
+
+        /** Returns the arena named by the system properties, or null. */
+        private static TableArena open() {
+            String file = System.getProperty("enigma.arena");
+            if (file == null) {
+                return null;
+            }
+            return new TableArena(Path.of(file),
+                    Long.getLong("enigma.arena.capacity",
+                            DEFAULT_CAPACITY_MB) << 20);
+        }
+    }
+
+    /** Room made in a new arena of this process, in megabytes, by
+     *  default. */
+    static final long DEFAULT_CAPACITY_MB = 1;
+
+    /** Marks a table arena, in the byte order it was written in. */
+    private static final int MAGIC = 0x454e5441;
+
+    /** Version of the layout. */
+    private static final int VERSION = 1;
+
+    /** Bytes of the header. */
+    private static final int HEADER = 64;
+
+    /** Bytes before the entries of each table. */
+    private static final int ENTRY_HEADER = 16;
+
+    /** My file. */
+    private final Path _file;
+
+    /** Channel of my file, open until I am closed. */
+    private final FileChannel _channel;
+
+    /** My file, as mapped last, or null once closed. */
+    private MappedByteBuffer _buffer;
+
+    /** Offsets of the tables noted, by hash. */
+    private final HashMap<Integer, ArrayList<Long>> _offsets;
+
+    /** Offset of the end of the tables noted. */
+    private long _scanned;
+
+    /** Number of tables noted. */
+    private int _tables;
+
+    /** Tables shared that were already in my file. */
+    private long _hits;
+
+    /** True until I am closed. */
+    private boolean _open;
+}
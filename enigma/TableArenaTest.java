@@ -0,0 +1,78 @@
+package enigma;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the TableArena class.
+ *  @author Jerry
+ */
+public class TableArenaTest {
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkTableArena() throws Exception {
+        Path file = Files.createTempDirectory("enigma").resolve("tables");
+        String setting = "* B Beta I II III AAAV AAAA (AQ) (EP)";
+        String plain = "FROM HIS SHOULDER HIAWATHA TOOK THE CAMERA OF "
+            + "ROSEWOOD";
+        Machine expected = Machine.makeAMachine(NAVALDEFAULT);
+        expected.setupMachine(setting);
+        String cipher = expected.convert(plain);
+
+        TableArena first = new TableArena(file, 128);
+        Machine machine = Machine.makeAMachine(NAVALDEFAULT, first);
+        machine.setupMachine(setting);
+        assertEquals(cipher, machine.convert(plain));
+        assertTrue(first.capacity() > 128);
+        long used = first.used();
+        int tables = first.tables();
+
+        TableArena second = new TableArena(file, 128);
+        assertEquals(tables, second.tables());
+        Machine other = Machine.makeAMachine(NAVALDEFAULT, second).copy();
+        other.setupMachine(setting);
+        assertEquals(cipher, other.convert(plain));
+        assertEquals(used, second.used());
+        assertTrue(second.hits() > 0);
+
+        StringBuilder chars = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            chars.append((char) (0x100 + i));
+        }
+        Alphabet wide = new Alphabet(chars.toString());
+        int[] mapping = new int[wide.size()];
+        for (int i = 0; i < mapping.length; i++) {
+            mapping[i] = (i * 7 + 3) % mapping.length;
+        }
+        Permutation perm = new Permutation(mapping, wide).share(first);
+        for (int i = 0; i < mapping.length; i++) {
+            assertEquals(mapping[i], perm.permute(i));
+            assertEquals(i, perm.invert(mapping[i]));
+        }
+        second.remap();
+        assertEquals(first.tables(), second.tables());
+        assertEquals(first.used(), second.used());
+
+        first.close();
+        second.close();
+        machine.setupMachine(setting);
+        assertEquals(cipher, machine.convert(plain));
+        try {
+            perm.share(first);
+            fail("shared into a closed arena");
+        } catch (EnigmaException excp) {
+            assertFalse(first.isOpen());
+        }
+    }
+}
@@ -0,0 +1,479 @@
+package enigma;
+
+/** A compiled snapshot of the rotors at work in a Machine.  Steps and
+ *  converts exactly like Machine.convert, but on plain int tables and an
+ *  int array of positions instead of the Rotor and Permutation objects,
+ *  so it is cheap enough for tools that run the machine billions of times.
+ *  The Machine it was made from is not modified.
+ *  @author Jerry
+ */
+class TableEngine {
+
+    /** A new engine with the rotors, ring settings, positions and
+     *  plugboard that MACHINE is currently set up with. */
+    TableEngine(Machine machine) {
+        _size = machine.alphabet().size();
+        _numRotors = machine.numRotors();
+        _forward = new int[_numRotors][];
+        _inverse = new int[_numRotors][];
+        _notches = new boolean[_numRotors][];
+        _notchOffsets = new int[_numRotors][];
+        _ring = new int[_numRotors];
+        _pos = new int[_numRotors];
+        _moving = new boolean[_numRotors];
+        _pawl = new boolean[_numRotors];
+        _left = new int[_numRotors];
+
+        Rotor[] rotors = new Rotor[_numRotors];
+        for (int i = 0; i < _numRotors; i++) {
+            rotors[i] = machine.rotorAt(i);
+        }
+        for (int i = 0; i < _numRotors; i++) {
+            Rotor rotor = rotors[i];
+            _forward[i] = rotor.permutation().forwardTable();
+            _inverse[i] = rotor.permutation().inverseTable();
+            _notches[i] = new boolean[_size];
+            int count = 0;
+            for (int k = 0; k < _size; k++) {
+                _notches[i][k] = rotor.rotates() && rotor.notchAt(k);
+                count += _notches[i][k] ? 1 : 0;
+            }
+            _notchOffsets[i] = new int[count];
+            for (int k = 0, j = 0; k < _size; k++) {
+                if (_notches[i][k]) {
+                    _notchOffsets[i][j++] = k;
+                }
+            }
+            _ring[i] = rotor.ringPosition();
+            _pos[i] = rotor.setting();
+            _moving[i] = rotor.rotates();
+            _pawl[i] = rotor.hasAPawl();
+            _left[i] = -1;
+            for (int k = 0; k < i; k++) {
+                if (rotors[k] == rotor.leftRotor()) {
+                    _left[i] = k;
+                }
+            }
+        }
+
+        Permutation plugboard = machine.plugboard();
+        if (plugboard == null) {
+            plugboard = new Permutation("", machine.alphabet());
+        }
+        _plugForward = plugboard.forwardTable();
+        _plugInverse = plugboard.inverseTable();
+        _derangement = rotors[0].permutation().derangement();
+    }
+
+    /** A new engine sharing the tables of ENGINE, starting at its current
+     *  positions and ring settings. */
+    TableEngine(TableEngine engine) {
+        _size = engine._size;
+        _numRotors = engine._numRotors;
+        _forward = engine._forward;
+        _inverse = engine._inverse;
+        _notches = engine._notches;
+        _notchOffsets = engine._notchOffsets;
+        _ring = engine._ring.clone();
+        _pos = engine._pos.clone();
+        _moving = engine._moving;
+        _pawl = engine._pawl;
+        _left = engine._left;
+        _plugForward = engine._plugForward;
+        _plugInverse = engine._plugInverse;
+        _derangement = engine._derangement;
+    }
+
+    /** Returns the size of my alphabet. */
+    int size() {
+        return _size;
+    }
+
+    /** Returns the number of rotor slots, including the reflector. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Returns the positions of my rotors except the reflector, leftmost
+     *  first, as in Machine.currentState(). */
+    int[] positions() {
+        int[] result = new int[_numRotors - 1];
+        System.arraycopy(_pos, 1, result, 0, result.length);
+        return result;
+    }
+
+    /** Set the positions of my rotors except the reflector to POSNS,
+     *  leftmost first. */
+    void setPositions(int[] posns) {
+        if (posns.length != _numRotors - 1) {
+            throw new EnigmaException(String.format("This machine need set " +
+                    "%d rotors, but given %d", _numRotors - 1, posns.length));
+        }
+        for (int i = 0; i < posns.length; i++) {
+            _pos[i + 1] = Math.floorMod(posns[i], _size);
+        }
+    }
+
+    /** Set the positions of my rotors except the reflector to those
+     *  numbered NUMBER, counting with the leftmost rotor most significant,
+     *  as in positionOf. */
+    void setPosition(long number) {
+        for (int i = _numRotors - 1; i > 0; i--) {
+            _pos[i] = (int) (number % _size);
+            number /= _size;
+        }
+    }
+
+    /** Returns the number of different start positions of my rotors
+     *  except the reflector. */
+    long numPositions() {
+        long result = 1;
+        for (int i = 1; i < _numRotors; i++) {
+            result *= _size;
+        }
+        return result;
+    }
+
+    /** Returns the positions numbered P among those of N rotors with an
+     *  alphabet of SIZE, leftmost rotor most significant. */
+    static int[] positionOf(long p, int size, int n) {
+        int[] result = new int[n];
+        for (int i = n - 1; i >= 0; i--) {
+            result[i] = (int) (p % size);
+            p /= size;
+        }
+        return result;
+    }
+
+    /** Returns the positions numbered P as a string of ALPHABET, as in
+     *  Machine.currentState(), for N rotors. */
+    static String positionName(long p, Alphabet alphabet, int n) {
+        StringBuilder result = new StringBuilder();
+        for (int posn : positionOf(p, alphabet.size(), n)) {
+            result.append(alphabet.toChar(posn));
+        }
+        return result.toString();
+    }
+
+    /** Set the ring settings of my rotors except the reflector to RINGS,
+     *  leftmost first. */
+    void setRingPositions(int[] rings) {
+        if (rings.length != _numRotors - 1) {
+            throw new EnigmaException(String.format("This machine need set " +
+                    "%d rotors ringposition, but given %d", _numRotors - 1,
+                    rings.length));
+        }
+        for (int i = 0; i < rings.length; i++) {
+            _ring[i + 1] = Math.floorMod(rings[i], _size);
+        }
+    }
+
+    /** Advance the rotors one keypress, as Machine.convert does before
+     *  each character. */
+    void step() {
+        advance(_numRotors - 1);
+    }
+
+    /** Advance the rotors N keypresses without converting anything, as
+     *  N calls of step() would, in time that does not grow with N: each
+     *  rotor moves by arithmetic between the notches of the rotor to its
+     *  right, and the turns of that rotor are folded once they repeat. */
+    void skip(long n) {
+        if (n < 0) {
+            throw new EnigmaException(String.format("cannot skip %d "
+                    + "keypresses", n));
+        }
+        skip(_numRotors - 1, n);
+    }
+
+    /** Returns the conversion of C (an index in the alphabet) at the
+     *  current positions, without advancing. */
+    int substitute(int c) {
+        int r = _plugForward[c];
+        for (int i = _numRotors - 1; i > 0; i--) {
+            r = through(_forward[i], offset(i), r);
+        }
+        r = through(_forward[0], offset(0), r);
+        for (int i = 1; i < _numRotors; i++) {
+            r = through(_inverse[i], offset(i), r);
+        }
+        return _plugInverse[r];
+    }
+
+    /** Returns the conversion of C after first advancing the rotors, the
+     *  same as Machine.convert(int). */
+    int convert(int c) {
+        step();
+        return substitute(c);
+    }
+
+    /** Convert the LEN alphabet indices of SYMBOLS starting at OFF in
+     *  place, advancing before each one. */
+    void convert(int[] symbols, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            symbols[i] = convert(symbols[i]);
+        }
+    }
+
+    /** Returns the current substitution of the whole alphabet, that is,
+     *  substitute(c) for every index c. */
+    int[] substitution() {
+        int[] result = new int[_size];
+        for (int c = 0; c < _size; c++) {
+            result[c] = substitute(c);
+        }
+        return result;
+    }
+
+    /** Returns the forward wiring of slot I as alphabet indices.  The
+     *  array is shared and must not be modified. */
+    int[] forward(int i) {
+        return _forward[i];
+    }
+
+    /** Returns the inverse wiring of slot I as alphabet indices.  The
+     *  array is shared and must not be modified. */
+    int[] inverse(int i) {
+        return _inverse[i];
+    }
+
+    /** Returns true iff no symbol ever converts to itself, which is so
+     *  iff the wiring of my reflector is a derangement: the rotors and
+     *  plugboard on either side of it only relabel its fixed points. */
+    boolean derangement() {
+        return _derangement;
+    }
+
+    /** Returns the plugboard applied on the way in.  The array is shared
+     *  and must not be modified. */
+    int[] plugForward() {
+        return _plugForward;
+    }
+
+    /** Returns the plugboard applied on the way out.  The array is shared
+     *  and must not be modified. */
+    int[] plugInverse() {
+        return _plugInverse;
+    }
+
+    /** Returns the ring setting of slot I. */
+    int ring(int i) {
+        return _ring[i];
+    }
+
+    /** Returns true iff the rotor in slot I can move. */
+    boolean moving(int i) {
+        return _moving[i];
+    }
+
+    /** Returns true iff the rotor in slot I has a pawl. */
+    boolean hasPawl(int i) {
+        return _pawl[i];
+    }
+
+    /** Returns the slot of the left rotor of slot I, or -1. */
+    int left(int i) {
+        return _left[i];
+    }
+
+    /** Returns true iff the rotor in slot I is at one of its notches when
+     *  its offset is OFFSET. */
+    boolean notchAt(int i, int offset) {
+        return _notches[i][offset];
+    }
+
+    /** Returns the offset (position plus ring setting) of slot I, in the
+     *  range 0..size()-1. */
+    int offset(int i) {
+        int off = _pos[i] + _ring[i];
+        return off >= _size ? off - _size : off;
+    }
+
+    /** Returns the conversion of P through TABLE turned by OFFSET. */
+    private int through(int[] table, int offset, int p) {
+        int x = p + offset;
+        if (x >= _size) {
+            x -= _size;
+        }
+        int y = table[x] - offset;
+        return y < 0 ? y + _size : y;
+    }
+
+    /** Returns true iff the rotor in slot I is at one of its notches. */
+    private boolean atNotch(int i) {
+        return _notches[i][offset(i)];
+    }
+
+    /** Advance the rotor in slot I N times, as N calls of advance(I)
+     *  would.  Its left rotor moves only as advance(I) moves it, and then
+     *  moves the rotors further left as it would itself, so I count its
+     *  moves first and then skip it by as many. */
+    private void skip(int i, long n) {
+        if (n == 0 || !_moving[i]) {
+            return;
+        }
+        int left = _left[i];
+        if (left < 0 || !_moving[left]) {
+            _pos[i] = (int) ((_pos[i] + n % _size) % _size);
+            return;
+        }
+        int[] at = { _pos[i], _pos[left] };
+        long moves = turns(i, left, at, n / _size);
+        moves += moves(i, left, at, n % _size);
+        _pos[i] = at[0];
+        skip(left, moves);
+    }
+
+    /** Returns the number of moves of the rotor in slot LEFT, the left
+     *  rotor of slot I, while slot I makes TURNS whole turns, their
+     *  positions starting as AT[0] and AT[1].  AT[1] is left as the
+     *  position LEFT ends at.  As slot I is in the same position after
+     *  every turn, each turn depends only on where LEFT starts it, so the
+     *  turns repeat within size() of them and the repeats are counted by
+     *  arithmetic. */
+    private long turns(int i, int left, int[] at, long turns) {
+        int most = (int) Math.min(turns, _size);
+        int[] seen = new int[_size];
+        java.util.Arrays.fill(seen, -1);
+        int[] starts = new int[most + 1];
+        long[] before = new long[most + 1];
+        long result = 0;
+        for (int t = 0; t < turns; t++) {
+            int s = seen[at[1]];
+            if (s >= 0) {
+                int period = t - s;
+                long rest = turns - t;
+                int r = (int) (rest % period);
+                result += rest / period * (result - before[s])
+                    + before[s + r] - before[s];
+                at[1] = starts[s + r];
+                return result;
+            }
+            seen[at[1]] = t;
+            starts[t] = at[1];
+            before[t] = result;
+            result += moves(i, left, at, _size);
+        }
+        return result;
+    }
+
+    /** Returns the number of moves of the rotor in slot LEFT, the left
+     *  rotor of slot I, while slot I advances N times, their positions
+     *  starting as AT[0] and AT[1], which are left as the positions they
+     *  end at.  Between the notches of I, and while LEFT is off its own,
+     *  only I moves, so those stretches are taken whole. */
+    private long moves(int i, int left, int[] at, long n) {
+        boolean doubles = _left[left] >= 0 && _pawl[_left[left]];
+        long result = 0;
+        while (n > 0) {
+            boolean notched = _notches[i][offsetAt(i, at[0])];
+            if (!notched
+                && !(doubles && _notches[left][offsetAt(left, at[1])])) {
+                long k = Math.min(n, untilNotch(i, offsetAt(i, at[0])));
+                at[0] = (int) ((at[0] + k % _size) % _size);
+                n -= k;
+                continue;
+            }
+            if (notched) {
+                result += 1;
+                at[1] = at[1] + 1 == _size ? 0 : at[1] + 1;
+            }
+            at[0] = at[0] + 1 == _size ? 0 : at[0] + 1;
+            if (!notched && !_notches[i][offsetAt(i, at[0])]) {
+                result += 1;
+                at[1] = at[1] + 1 == _size ? 0 : at[1] + 1;
+            }
+            n -= 1;
+        }
+        return result;
+    }
+
+    /** Returns the offset of slot I at position POS. */
+    private int offsetAt(int i, int pos) {
+        int off = pos + _ring[i];
+        return off >= _size ? off - _size : off;
+    }
+
+    /** Returns the advances from OFFSET of slot I to one of its notches,
+     *  or Long.MAX_VALUE if it has none. */
+    private long untilNotch(int i, int offset) {
+        int[] notches = _notchOffsets[i];
+        if (notches.length == 0) {
+            return Long.MAX_VALUE;
+        }
+        int k = java.util.Arrays.binarySearch(notches, offset);
+        if (k >= 0) {
+            return 0;
+        }
+        k = -k - 1;
+        return k < notches.length ? notches[k] - offset
+            : notches[0] + _size - offset;
+    }
+
+    /** Advance the rotor in slot I, following Rotor.advance: the rotor to
+     *  its left moves when this one leaves a notch, and a left rotor sitting
+     *  on its own notch double steps. */
+    private void advance(int i) {
+        if (!_moving[i]) {
+            return;
+        }
+        int left = _left[i];
+        boolean leftHadAdvance = false;
+        if (atNotch(i) && left >= 0) {
+            advance(left);
+            leftHadAdvance = true;
+        }
+
+        _pos[i]++;
+        if (_pos[i] == _size) {
+            _pos[i] = 0;
+        }
+
+        if (!atNotch(i) && !leftHadAdvance && left >= 0 && atNotch(left)
+                && _left[left] >= 0 && _pawl[_left[left]]) {
+            advance(left);
+        }
+    }
+
+    /** Size of my alphabet. */
+    private final int _size;
+
+    /** Number of rotor slots, slot 0 is the reflector. */
+    private final int _numRotors;
+
+    /** Forward wiring of each slot as alphabet indices. */
+    private final int[][] _forward;
+
+    /** Inverse wiring of each slot as alphabet indices. */
+    private final int[][] _inverse;
+
+    /** Notches of each slot, indexed by offset. */
+    private final boolean[][] _notches;
+
+    /** Offsets of the notches of each slot, in increasing order. */
+    private final int[][] _notchOffsets;
+
+    /** Ring setting of each slot. */
+    private final int[] _ring;
+
+    /** Current position of each slot. */
+    private final int[] _pos;
+
+    /** True for each slot holding a rotor that can move. */
+    private final boolean[] _moving;
+
+    /** True for each slot holding a rotor with a pawl. */
+    private final boolean[] _pawl;
+
+    /** The slot of the left rotor of each slot, or -1. */
+    private final int[] _left;
+
+    /** Plugboard applied on the way in. */
+    private final int[] _plugForward;
+
+    /** Plugboard applied on the way out. */
+    private final int[] _plugInverse;
+
+    /** True iff my reflector's wiring has no fixed point. */
+    private final boolean _derangement;
+}
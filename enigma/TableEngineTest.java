@@ -0,0 +1,84 @@
+package enigma;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the TableEngine class.
+ *  @author Jerry
+ */
+public class TableEngineTest {
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Check that an engine made from MACHINE set up with SETTING converts
+     *  COUNT symbols exactly as the machine does. */
+    private void checkSame(Machine machine, String setting, int count) {
+        machine.setupMachine(setting);
+        TableEngine engine = new TableEngine(machine);
+        for (int i = 0; i < count; i++) {
+            int c = (i * 7) % engine.size();
+            assertEquals(msg(setting, "wrong conversion at %d", i),
+                    machine.convert(c), engine.convert(c));
+        }
+        int[] expected = new int[engine.numRotors() - 1];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = machine.alphabet().toInt(
+                    machine.currentState().charAt(i));
+        }
+        assertArrayEquals(msg(setting, "wrong positions"), expected,
+                engine.positions());
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkSameAsMachine() {
+        Machine machine = Machine.makeAMachine(NAVALDEFAULT);
+        checkSame(machine, "* B Beta I II III AAAA", 2000);
+        checkSame(machine, "* B Beta I II III AQDV AAAA (AQ) (EP)", 2000);
+        checkSame(machine, "* C Gamma VI VII VIII ZZYM BDFB (HQ) (EX) (IP)",
+                2000);
+        machine = Machine.makeAMachine(SIMPLE);
+        checkSame(machine, "*B Beta I II III AAAA", 100);
+    }
+
+    @Test
+    public void checkSkip() {
+        Machine machine = Machine.makeAMachine(NAVALDEFAULT);
+        String[] settings = {
+            "* B Beta I II III AADT AAAA",
+            "* B Beta I II III AQDV AAAA (AQ) (EP)",
+            "* C Gamma VI VII VIII ZZYM BDFB (HQ) (EX) (IP)",
+        };
+        long[] counts = {0, 1, 5, 26, 27, 650, 26 * 26 + 3, 20000};
+        for (String setting : settings) {
+            machine.setupMachine(setting);
+            TableEngine engine = new TableEngine(machine);
+            for (long n : counts) {
+                TableEngine stepped = new TableEngine(engine);
+                for (long k = 0; k < n; k++) {
+                    stepped.step();
+                }
+                TableEngine skipped = new TableEngine(engine);
+                skipped.skip(n);
+                assertArrayEquals(msg(setting, "wrong skip of %d", n),
+                        stepped.positions(), skipped.positions());
+            }
+            long far = Long.MAX_VALUE / 3;
+            TableEngine once = new TableEngine(engine);
+            once.skip(far + 12345);
+            TableEngine twice = new TableEngine(engine);
+            twice.skip(far);
+            twice.skip(12345);
+            assertArrayEquals(msg(setting, "skips do not add"),
+                    once.positions(), twice.positions());
+        }
+    }
+}
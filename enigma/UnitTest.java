@@ -12,7 +12,26 @@ public class UnitTest {
     public static void main(String[] ignored) {
         System.exit(textui.runClasses(PermutationTest.class,
                                       MovingRotorTest.class,
-                                      MachineTest.class));
+                                      MachineTest.class,
+                                      TableEngineTest.class,
+                                      SearchCoordinatorTest.class,
+                                      EnigmaServerTest.class,
+                                      MetricsTest.class,
+                                      FlightEventsTest.class,
+                                      MachinePoolTest.class,
+                                      AsyncEnigmaTest.class,
+                                      StreamJobTest.class,
+                                      SessionStoreTest.class,
+                                      KeystreamCacheTest.class,
+                                      WiringsTest.class,
+                                      SymbolFileTest.class,
+                                      TableArenaTest.class,
+                                      DirectoryJobTest.class,
+                                      LockstepEngineTest.class,
+                                      RangeDecoderTest.class,
+                                      CycleCatalogTest.class,
+                                      KeySearchTest.class,
+                                      EngineCompilerTest.class));
     }
 
 }
@@ -0,0 +1,61 @@
+package enigma;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/** The passes of a LockstepEngine through its rotors with the vector API,
+ *  eight lanes at once in a 256-bit vector of ints.  The signal of those
+ *  lanes stays in one vector through every rotor: each stage adds the
+ *  offsets, subtracts the alphabet size where that went past it (a masked
+ *  subtract), gathers the wiring at the sums, and takes the offsets off
+ *  again, adding the size back where that went below 0.  Lanes left over
+ *  past the last whole vector go through LockstepEngine's scalar loop.
+ *  Wider species and masked loads for the leftovers were tried and were
+ *  three times slower than the scalar loop, allocating on every stage.
+ *
+ *  The module jdk.incubator.vector is incubating, so the JVM must be run
+ *  with --add-modules jdk.incubator.vector to load this class; without it
+ *  LockstepEngine makes none and passes the lanes one at a time.
+ *  @author Jerry
+ */
+final class VectorStages implements LockstepEngine.Rotors {
+
+    @Override
+    public void pass(int[][] forward, int[][] inverse, int[][] offsets,
+                     int[] r, int width, int n) {
+        int last = forward.length - 1;
+        int l = 0;
+        for (; l + SPECIES.length() <= width; l += SPECIES.length()) {
+            IntVector x = IntVector.fromArray(SPECIES, r, l);
+            for (int i = last; i >= 0; i--) {
+                x = stage(forward[i], offsets[i], l, x, n);
+            }
+            for (int i = 1; i <= last; i++) {
+                x = stage(inverse[i], offsets[i], l, x, n);
+            }
+            x.intoArray(r, l);
+        }
+        LockstepEngine.scalarPass(forward, inverse, offsets, r, l, width, n);
+    }
+
+    /** Returns the signal X of the lanes from lane L on, passed through
+     *  TABLE turned by OFFSETS, with an alphabet of size N. */
+    private IntVector stage(int[] table, int[] offsets, int l, IntVector x,
+                            int n) {
+        IntVector off = IntVector.fromArray(SPECIES, offsets, l);
+        IntVector in = x.add(off);
+        in = in.sub(n, in.compare(VectorOperators.GE, n));
+        in.intoArray(_index, 0);
+        IntVector out = IntVector.fromArray(SPECIES, table, 0, _index, 0)
+            .sub(off);
+        return out.add(n, out.compare(VectorOperators.LT, 0));
+    }
+
+    /** Lanes of ints in one vector. */
+    private static final VectorSpecies<Integer> SPECIES =
+        IntVector.SPECIES_256;
+
+    /** Indices of the gather of the current stage. */
+    private final int[] _index = new int[SPECIES.length()];
+}
@@ -0,0 +1,143 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** The wirings of the rotors of one catalog, interned as it is loaded.
+ *  Generated catalogs often give one wiring to several rotors, under
+ *  other names or with other notches; their rotors then share one
+ *  Permutation, and so one pair of tables, keeping only their names,
+ *  types and notches apart.  Wirings are the same if their mappings are,
+ *  however their cycles are written; a cycle string met before is not
+ *  even parsed again.  The maps doing this hold the cycle strings and a
+ *  copy of every mapping, so they are dropped once the catalog is loaded,
+ *  leaving only the counts.
+ *  @author Jerry
+ */
+class Wirings {
+
+    /** Wirings of ALPHABET, whose tables are kept in ARENA unless it is
+     *  null. */
+    Wirings(Alphabet alphabet, TableArena arena) {
+        _alphabet = alphabet;
+        _arena = arena;
+        _byCycles = new HashMap<>();
+        _byMapping = new HashMap<>();
+    }
+
+    /** Returns the permutation written as CYCLES, the same one as for
+     *  every other equal wiring. */
+    Permutation intern(String cycles) {
+        if (_byCycles == null) {
+            throw new EnigmaException("wirings already loaded");
+        }
+        _requested += 1;
+        String text = cycles.trim();
+        Permutation result = _byCycles.get(text);
+        if (result != null) {
+            return result;
+        }
+        Permutation perm = new Permutation(text, _alphabet);
+        Wiring key = new Wiring(perm.forwardTable());
+        result = _byMapping.get(key);
+        if (result == null) {
+            result = _arena == null ? perm : perm.share(_arena);
+            _byMapping.put(key, result);
+        }
+        _byCycles.put(text, result);
+        return result;
+    }
+
+    /** Note that the catalog is loaded, and drop what only interning
+     *  needs. */
+    void loaded() {
+        if (_byCycles != null) {
+            _distinct = _byMapping.size();
+            _byCycles = null;
+            _byMapping = null;
+        }
+    }
+
+    /** Returns the arena holding my tables, or null. */
+    TableArena arena() {
+        return _arena;
+    }
+
+    /** Returns the number of wirings interned, one per rotor. */
+    int requested() {
+        return _requested;
+    }
+
+    /** Returns the number of different wirings among them. */
+    int distinct() {
+        return _byMapping != null ? _byMapping.size() : _distinct;
+    }
+
+    /** Returns the bytes, roughly, that a permutation of its own per
+     *  rotor would have taken beyond those taken now: the permutations,
+     *  and their tables, not made. */
+    long bytesSaved() {
+        int width = IndexTable.of(0, _alphabet.size()).width();
+        long perPermutation = PERMUTATION_OVERHEAD
+            + 2 * (TABLE_OVERHEAD + (long) _alphabet.size() * width);
+        return (long) (_requested - distinct()) * perPermutation;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d rotors, %d wirings, %d bytes saved",
+                requested(), distinct(), bytesSaved());
+    }
+
+    /** A mapping of alphabet indices, compared by its entries. */
+    private static final class Wiring {
+
+        /** The wiring mapping i to MAPPING[i]. */
+        Wiring(int[] mapping) {
+            _mapping = mapping;
+            _hash = Arrays.hashCode(mapping);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Wiring
+                && Arrays.equals(_mapping, ((Wiring) obj)._mapping);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        /** The mapping. */
+        private final int[] _mapping;
+
+        /** Hash of the mapping. */
+        private final int _hash;
+    }
+
+    /** Bytes of a Permutation beyond its tables, roughly. */
+    private static final int PERMUTATION_OVERHEAD = 32;
+
+    /** Bytes of a table beyond its entries, roughly. */
+    private static final int TABLE_OVERHEAD = 32;
+
+    /** Alphabet of the wirings. */
+    private final Alphabet _alphabet;
+
+    /** Arena of the tables, or null. */
+    private final TableArena _arena;
+
+    /** Permutations by the cycle strings met, or null once loaded. */
+    private HashMap<String, Permutation> _byCycles;
+
+    /** Permutations by their mappings, or null once loaded. */
+    private HashMap<Wiring, Permutation> _byMapping;
+
+    /** Different wirings, once loaded. */
+    private int _distinct;
+
+    /** Wirings interned. */
+    private int _requested;
+
+}
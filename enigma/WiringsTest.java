@@ -0,0 +1,62 @@
+package enigma;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Wirings class.
+ *  @author Jerry
+ */
+public class WiringsTest {
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkWiringInterning() {
+        ArrayList<String> config = new ArrayList<>(NAVALDEFAULT);
+        config.add(" IB MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)");
+        config.add(" IC MAB (S) (JZ) (IV) (GDF) (YCMO) (NWBK) (UAELTPHQXR)");
+        config.add(" ID N (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ)");
+        Machine machine = Machine.makeAMachine(config);
+        Map<String, Rotor> rotors = new HashMap<>();
+        for (Rotor rotor : machine.allRotors()) {
+            rotors.put(rotor.name(), rotor);
+        }
+        Permutation wiring = rotors.get("I").permutation();
+        for (String name : new String[] { "IB", "IC", "ID" }) {
+            assertTrue(name, rotors.get(name).permutation() == wiring);
+        }
+        assertTrue(rotors.get("IC").notchAt(0));
+        assertFalse(rotors.get("I").notchAt(0));
+        assertFalse(rotors.get("ID").rotates());
+        assertEquals(config.size() - 2, machine.wirings().requested());
+        assertEquals(NAVALDEFAULT.size() - 2, machine.wirings().distinct());
+        assertTrue(machine.wirings().bytesSaved() > 0);
+        try {
+            machine.wirings().intern("(AB)");
+            fail("interned after loading");
+        } catch (EnigmaException excp) {
+            /* the maps are gone */
+        }
+
+        Machine plain = Machine.makeAMachine(NAVALDEFAULT);
+        Machine copy = machine.copy();
+        String msg = "FROM HIS SHOULDER HIAWATHA TOOK THE CAMERA OF ROSEWOOD";
+        machine.setupMachine("* B Beta IB II III AAAA");
+        plain.setupMachine("* B Beta I II III AAAA");
+        copy.setupMachine("* B Beta IC II III AAAA");
+        assertEquals(plain.convert(msg), machine.convert(msg));
+        assertTrue(copy.rotorAt(2).permutation() == wiring);
+        assertTrue(copy.rotorAt(2) != rotors.get("IC"));
+    }
+}
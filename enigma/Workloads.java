@@ -0,0 +1,148 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/** Generators of synthetic machine configurations and messages, for
+ *  benchmarks that need alphabets, rotor counts and message lengths other
+ *  than those of the naval default configuration.  Everything is derived
+ *  from a seed, so the same arguments always give the same workload.
+ *  @author Jerry
+ */
+class Workloads {
+
+    /** Returns configuration lines, as read by Main.readConfigLines, for a
+     *  machine with the alphabet of alphabet(SIZE), NUMROTORS rotor slots of
+     *  which all but the reflector and the leftmost are moving, and a catalog
+     *  of CATALOG moving rotors (at least NUMROTORS - 2), one non-moving
+     *  rotor and two reflectors, with wirings drawn from SEED. */
+    static ArrayList<String> config(int size, int numRotors, int catalog,
+                                    long seed) {
+        if (numRotors < 3 || catalog < numRotors - 2) {
+            throw new EnigmaException(String.format("cannot make %d slots " +
+                    "from %d moving rotors", numRotors, catalog));
+        }
+        Random random = new Random(seed);
+        String alphabet = alphabet(size);
+        ArrayList<String> result = new ArrayList<>();
+        result.add(alphabet);
+        result.add(numRotors + " " + (numRotors - 2));
+        for (int i = 0; i < catalog; i++) {
+            String notches = "" + alphabet.charAt(random.nextInt(size));
+            result.add("M" + i + " M" + notches + " "
+                    + cycles(permutation(size, random), alphabet));
+        }
+        result.add("F0 N " + cycles(permutation(size, random), alphabet));
+        for (int i = 0; i < 2; i++) {
+            result.add("R" + i + " R " + cycles(involution(size, random),
+                    alphabet));
+        }
+        return result;
+    }
+
+    /** Returns a setting line for the machine of config(SIZE, NUMROTORS,
+     *  ...) using the first moving rotors, random positions and ring
+     *  positions, and PLUGS plugboard pairs, drawn from SEED. */
+    static String setting(int size, int numRotors, int plugs, long seed) {
+        Random random = new Random(seed);
+        String alphabet = alphabet(size);
+        StringBuilder result = new StringBuilder("* R0 F0");
+        for (int i = 0; i < numRotors - 2; i++) {
+            result.append(" M").append(i);
+        }
+        for (int k = 0; k < 2; k++) {
+            result.append(' ');
+            for (int i = 1; i < numRotors; i++) {
+                result.append(alphabet.charAt(random.nextInt(size)));
+            }
+        }
+        int[] pairs = involution(size, random);
+        for (int c = 0, n = 0; c < size && n < plugs; c++) {
+            if (pairs[c] > c) {
+                result.append(" (").append(alphabet.charAt(c))
+                    .append(alphabet.charAt(pairs[c])).append(')');
+                n++;
+            }
+        }
+        return result.toString();
+    }
+
+    /** Returns a message of LENGTH random characters of alphabet(SIZE),
+     *  drawn from SEED. */
+    static String message(int size, int length, long seed) {
+        Random random = new Random(seed);
+        String alphabet = alphabet(size);
+        char[] result = new char[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = alphabet.charAt(random.nextInt(size));
+        }
+        return new String(result);
+    }
+
+    /** Returns the alphabet of SIZE consecutive characters: from 'A' for
+     *  at most 26, otherwise from the start of the CJK ideographs, a range
+     *  without separators or characters special to the configuration. */
+    static String alphabet(int size) {
+        char first = size <= 26 ? 'A' : CJK;
+        if (size < 2 || first + size > Character.MIN_SURROGATE) {
+            throw new EnigmaException(String.format("no alphabet of %d " +
+                    "characters", size));
+        }
+        char[] result = new char[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = (char) (first + i);
+        }
+        return new String(result);
+    }
+
+    /** First character of alphabets of more than 26 characters. */
+    static final char CJK = '\u4e00';
+
+    /** Returns a random permutation of 0..SIZE-1 drawn from RANDOM. */
+    private static int[] permutation(int size, Random random) {
+        int[] result = new int[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = i;
+        }
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = result[i];
+            result[i] = result[j];
+            result[j] = t;
+        }
+        return result;
+    }
+
+    /** Returns a random pairing of 0..SIZE-1 (one fixed point if SIZE is
+     *  odd) drawn from RANDOM. */
+    private static int[] involution(int size, Random random) {
+        int[] order = permutation(size, random);
+        int[] result = new int[size];
+        for (int i = 0; i + 1 < size; i += 2) {
+            result[order[i]] = order[i + 1];
+            result[order[i + 1]] = order[i];
+        }
+        if (size % 2 == 1) {
+            result[order[size - 1]] = order[size - 1];
+        }
+        return result;
+    }
+
+    /** Returns PERM in the cycle notation of Permutation over ALPHABET. */
+    private static String cycles(int[] perm, String alphabet) {
+        StringBuilder result = new StringBuilder();
+        boolean[] seen = new boolean[perm.length];
+        for (int i = 0; i < perm.length; i++) {
+            if (seen[i] || perm[i] == i) {
+                continue;
+            }
+            result.append('(');
+            for (int j = i; !seen[j]; j = perm[j]) {
+                seen[j] = true;
+                result.append(alphabet.charAt(j));
+            }
+            result.append(") ");
+        }
+        return result.toString().trim();
+    }
+}